@@ -0,0 +1,121 @@
+package com.stormpath.tutorial.benchmark;
+
+import com.stormpath.tutorial.model.Account;
+import com.stormpath.tutorial.service.AccountRepository;
+import com.stormpath.tutorial.service.InMemoryAccountRepository;
+import com.stormpath.tutorial.service.MappedAccountRepository;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.AbstractList;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Startup cost and lookups for 100,000 and 1,000,000 accounts: opening a {@link MappedAccountRepository} against
+ * building the {@link InMemoryAccountRepository} it replaces, then looking up hot accounts (served by the LRU),
+ * accounts spread over the whole file, and the same spread over the {@code HashMap}.
+ * <p>
+ * Opening and loading are measured one at a time, as at startup. This also keeps the benchmark from creating mappings
+ * faster than the garbage collector releases them. The {@code gc.alloc.rate.norm} of {@code openMapped} and
+ * {@code loadHashMap}, divided by the number of accounts, is the heap each one takes per account.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class AccountRepositoryBenchmark {
+
+    @Param({"100000", "1000000"})
+    int accounts;
+
+    private static final int HOT_ACCOUNTS = 1000;
+
+    private Path path;
+    private AccountRepository mapped;
+    private AccountRepository inMemory;
+
+    @Setup
+    public void setup() throws IOException {
+        path = Files.createTempFile("accounts", ".dat");
+        MappedAccountRepository.write(path, accountList());
+
+        mapped = new MappedAccountRepository(path, 10000);
+        inMemory = loadHashMap();
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        Files.deleteIfExists(path);
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.SingleShotTime)
+    @Warmup(iterations = 5)
+    @Measurement(iterations = 20)
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    public AccountRepository openMapped() throws IOException {
+        return new MappedAccountRepository(path, 10000);
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.SingleShotTime)
+    @Warmup(iterations = 5)
+    @Measurement(iterations = 20)
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    public AccountRepository loadHashMap() {
+        return new InMemoryAccountRepository(accountList().toArray(new Account[accounts]));
+    }
+
+    @Benchmark
+    @OutputTimeUnit(TimeUnit.NANOSECONDS)
+    public Account mappedHot() {
+        return mapped.findByUserName(userName(ThreadLocalRandom.current().nextInt(HOT_ACCOUNTS)));
+    }
+
+    @Benchmark
+    @OutputTimeUnit(TimeUnit.NANOSECONDS)
+    public Account mappedSpread() {
+        return mapped.findByUserName(userName(ThreadLocalRandom.current().nextInt(accounts)));
+    }
+
+    @Benchmark
+    @OutputTimeUnit(TimeUnit.NANOSECONDS)
+    public Account hashMapSpread() {
+        return inMemory.findByUserName(userName(ThreadLocalRandom.current().nextInt(accounts)));
+    }
+
+    // accounts made up on the fly, so setup doesn't keep another copy of them on the heap
+    private List<Account> accountList() {
+        return new AbstractList<Account>() {
+            @Override
+            public Account get(int i) {
+                return new Account("First" + i, "Last" + i, userName(i));
+            }
+
+            @Override
+            public int size() {
+                return accounts;
+            }
+        };
+    }
+
+    private static String userName(int i) {
+        return "user-" + i;
+    }
+}
@@ -0,0 +1,64 @@
+package com.stormpath.tutorial.benchmark;
+
+import io.jsonwebtoken.Claims;
+import io.jsonwebtoken.Jws;
+import io.jsonwebtoken.Jwts;
+import io.jsonwebtoken.jjwtfun.config.JWTCSRFTokenRepository;
+import io.jsonwebtoken.jjwtfun.service.SecretService;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.security.web.csrf.CsrfToken;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The CSRF tutorial's token path: {@code JWTCSRFTokenRepository.generateToken} on every form render and the
+ * signature/expiry check the {@code JwtCsrfValidatorFilter} runs on every POST.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class CsrfTokenBenchmark {
+
+    private SecretService secretService;
+    private JWTCSRFTokenRepository tokenRepository;
+    private String token;
+
+    @Setup
+    public void setup() {
+        secretService = Fixtures.csrfSecretService();
+
+        tokenRepository = new JWTCSRFTokenRepository(secretService, Fixtures.jwtMetrics());
+    }
+
+    // CSRF tokens only live for 30 seconds
+    @Setup(Level.Iteration)
+    public void freshToken() {
+        // the request isn't used when generating the token
+        token = tokenRepository.generateToken(null).getToken();
+    }
+
+    @Benchmark
+    public CsrfToken generateToken() {
+        return tokenRepository.generateToken(null);
+    }
+
+    @Benchmark
+    public Jws<Claims> validateToken() {
+        return Jwts.parser()
+            .setSigningKeyResolver(secretService.getSigningKeyResolver())
+            .parseClaimsJws(token);
+    }
+}
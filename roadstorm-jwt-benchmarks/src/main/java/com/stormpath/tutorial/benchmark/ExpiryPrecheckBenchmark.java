@@ -0,0 +1,138 @@
+package com.stormpath.tutorial.benchmark;
+
+import com.stormpath.tutorial.jwt.JwtPrecheck;
+import com.stormpath.tutorial.service.AccountService;
+import com.stormpath.tutorial.service.SecretService;
+import com.stormpath.tutorial.service.SigningCreds;
+import io.jsonwebtoken.Jwts;
+import io.jsonwebtoken.JwtException;
+import io.jsonwebtoken.SignatureAlgorithm;
+import io.jsonwebtoken.jjwtfun.config.JWTCSRFTokenRepository;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.beans.DirectFieldAccessor;
+
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+/**
+ * Rejecting a stream of mostly expired tokens, with and without the expiry precheck: RS256 JWTs through
+ * {@code AccountService.verify} ({@code jwt.precheck.expiry.http}), and HS256 CSRF tokens through the checks
+ * {@code JwtCsrfValidatorFilter} runs ({@code jwt.precheck.expiry.csrf-filter}).
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ExpiryPrecheckBenchmark {
+
+    private static final int TOKENS = 100;
+
+    @Param({"50", "90"})
+    int expiredPercent;
+
+    @Param({"false", "true"})
+    boolean expiryCheck;
+
+    private SecretService secretService;
+    private AccountService accountService;
+
+    private io.jsonwebtoken.jjwtfun.service.SecretService csrfSecretService;
+    private JWTCSRFTokenRepository csrfTokenRepository;
+    private JwtPrecheck csrfJwtPrecheck;
+
+    private String[] jwts;
+    private String[] csrfTokens;
+    private int next;
+
+    @Setup
+    public void setup() {
+        secretService = Fixtures.secretService();
+        // expired tokens are never cached, so leave the cache out for the current ones as well
+        accountService = Fixtures.accountService(secretService, false);
+        new DirectFieldAccessor(accountService).setPropertyValue("expiryPrecheck", expiryCheck);
+
+        csrfSecretService = Fixtures.csrfSecretService();
+        csrfTokenRepository = new JWTCSRFTokenRepository(csrfSecretService, Fixtures.jwtMetrics());
+        csrfJwtPrecheck = Fixtures.jwtPrecheck(true);
+    }
+
+    // current tokens only live for 30 or 60 seconds
+    @Setup(Level.Iteration)
+    public void freshTokens() {
+        long now = System.currentTimeMillis();
+        SigningCreds creds = secretService.getMySigningCreds();
+        Map<String, Object> claims = Fixtures.claims(4);
+
+        List<Boolean> expired = IntStream.range(0, TOKENS)
+            .mapToObj(i -> i < TOKENS * expiredPercent / 100)
+            .collect(Collectors.toList());
+        Collections.shuffle(expired);
+
+        jwts = new String[TOKENS];
+        csrfTokens = new String[TOKENS];
+        for (int i = 0; i < TOKENS; i++) {
+            // expired a minute ago, like a message that sat in the topic
+            long issuedAt = expired.get(i) ? now - 120_000 : now;
+
+            jwts[i] = Jwts.builder()
+                .setHeaderParam("kid", creds.getKid())
+                .setClaims(claims)
+                .setIssuedAt(new Date(issuedAt))
+                .setNotBefore(new Date(issuedAt))
+                .setExpiration(new Date(issuedAt + 60_000))
+                .signWith(creds.getAlgorithm(), creds.getPrivateKey())
+                .compact();
+
+            csrfTokens[i] = Jwts.builder()
+                .setId(UUID.randomUUID().toString().replace("-", ""))
+                .setIssuedAt(new Date(issuedAt))
+                .setNotBefore(new Date(issuedAt))
+                .setExpiration(new Date(issuedAt + (expired.get(i) ? 60_000 : JWTCSRFTokenRepository.TOKEN_LIFETIME_MILLIS)))
+                .signWith(SignatureAlgorithm.HS256, csrfSecretService.getHS256SecretKey())
+                .compact();
+        }
+    }
+
+    @Benchmark
+    public Object verifyJwt() {
+        String jwt = jwts[next++ % TOKENS];
+        try {
+            return accountService.verify(jwt, secretService.getSigningKeyResolver());
+        } catch (JwtException e) {
+            return e;
+        }
+    }
+
+    @Benchmark
+    public Object verifyCsrfToken() {
+        String token = csrfTokens[next++ % TOKENS];
+        try {
+            csrfJwtPrecheck.check(token);
+            if (expiryCheck) {
+                csrfJwtPrecheck.checkExpiry(token);
+            }
+            return csrfTokenRepository.verifyToken(token, null);
+        } catch (JwtException e) {
+            return e;
+        }
+    }
+}
@@ -0,0 +1,147 @@
+package com.stormpath.tutorial.benchmark;
+
+import com.stormpath.tutorial.controller.BaseController;
+import com.stormpath.tutorial.jwt.JwtMetrics;
+import com.stormpath.tutorial.jwt.JwtPrecheck;
+import com.stormpath.tutorial.model.Account;
+import com.stormpath.tutorial.service.AccountService;
+import com.stormpath.tutorial.service.BinaryJwsVerifier;
+import com.stormpath.tutorial.service.InMemoryAccountRepository;
+import com.stormpath.tutorial.service.SecretService;
+import com.stormpath.tutorial.service.TokenMinter;
+import com.stormpath.tutorial.service.VerifiedJwtCache;
+import io.jsonwebtoken.SignatureAlgorithm;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.springframework.beans.DirectFieldAccessor;
+import org.springframework.util.ReflectionUtils;
+
+import java.lang.reflect.Method;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Wires the tutorial services together the way the application context would, without starting Spring.
+ */
+final class Fixtures {
+
+    private Fixtures() {}
+
+    static SecretService secretService() {
+        return secretService(SignatureAlgorithm.RS256);
+    }
+
+    static SecretService secretService(SignatureAlgorithm signingAlgorithm) {
+        SecretService secretService = new SecretService();
+        DirectFieldAccessor secretFields = new DirectFieldAccessor(secretService);
+        secretFields.setPropertyValue("signingAlgorithm", signingAlgorithm);
+        secretFields.setPropertyValue("jwtMetrics", jwtMetrics());
+        secretService.setup();
+        return secretService;
+    }
+
+    static io.jsonwebtoken.jjwtfun.service.SecretService csrfSecretService() {
+        io.jsonwebtoken.jjwtfun.service.SecretService secretService = new io.jsonwebtoken.jjwtfun.service.SecretService();
+        new DirectFieldAccessor(secretService).setPropertyValue("jwtMetrics", jwtMetrics());
+        secretService.setup();
+        return secretService;
+    }
+
+    static JwtMetrics jwtMetrics() {
+        return new JwtMetrics(new SimpleMeterRegistry());
+    }
+
+    static AccountService accountService(SecretService secretService, boolean cacheEnabled) {
+        VerifiedJwtCache cache = new VerifiedJwtCache();
+        DirectFieldAccessor cacheFields = new DirectFieldAccessor(cache);
+        cacheFields.setPropertyValue("enabled", cacheEnabled);
+        cacheFields.setPropertyValue("maxEntries", 10000);
+        cacheFields.setPropertyValue("meterRegistry", new SimpleMeterRegistry());
+        invoke(cache, "init");
+
+        AccountService accountService = new AccountService();
+        DirectFieldAccessor accountFields = new DirectFieldAccessor(accountService);
+        accountFields.setPropertyValue("secretService", secretService);
+        accountFields.setPropertyValue("verifiedJwtCache", cache);
+        accountFields.setPropertyValue("jwtMetrics", jwtMetrics());
+        accountFields.setPropertyValue("jwtPrecheck", jwtPrecheck(true));
+        accountFields.setPropertyValue("accountRepository", new InMemoryAccountRepository(
+            new Account("Anna", "Apple", "anna")
+        ));
+
+        return accountService;
+    }
+
+    static BinaryJwsVerifier binaryJwsVerifier(SecretService secretService) {
+        BinaryJwsVerifier verifier = new BinaryJwsVerifier();
+        DirectFieldAccessor verifierFields = new DirectFieldAccessor(verifier);
+        verifierFields.setPropertyValue("secretService", secretService);
+        verifierFields.setPropertyValue("jwtMetrics", jwtMetrics());
+        verifierFields.setPropertyValue("jwtPrecheck", jwtPrecheck(true));
+        return verifier;
+    }
+
+    static JwtPrecheck jwtPrecheck(boolean enabled) {
+        JwtPrecheck jwtPrecheck = new JwtPrecheck();
+        DirectFieldAccessor precheckFields = new DirectFieldAccessor(jwtPrecheck);
+        precheckFields.setPropertyValue("enabled", enabled);
+        precheckFields.setPropertyValue("maxLength", 8192);
+        precheckFields.setPropertyValue("maxHeaderLength", 1024);
+        precheckFields.setPropertyValue("clockSkewSeconds", 0L);
+        precheckFields.setPropertyValue("meterRegistry", new SimpleMeterRegistry());
+        invoke(jwtPrecheck, "init");
+        return jwtPrecheck;
+    }
+
+    static TokenMinter tokenMinter(SecretService secretService) {
+        TokenMinter tokenMinter = new TokenMinter();
+        DirectFieldAccessor tokenMinterFields = new DirectFieldAccessor(tokenMinter);
+        tokenMinterFields.setPropertyValue("secretService", secretService);
+        tokenMinterFields.setPropertyValue("jwtMetrics", jwtMetrics());
+        return tokenMinter;
+    }
+
+    static Minter minter(SecretService secretService) {
+        Minter minter = new Minter();
+        DirectFieldAccessor minterFields = new DirectFieldAccessor(minter);
+        minterFields.setPropertyValue("secretService", secretService);
+        minterFields.setPropertyValue("tokenMinter", tokenMinter(secretService));
+        minterFields.setPropertyValue("jwtMetrics", jwtMetrics());
+        return minter;
+    }
+
+    /**
+     * A claim set with a {@code userName} and {@code size - 1} further claims of mixed types.
+     */
+    static Map<String, Object> claims(int size) {
+        Map<String, Object> claims = new LinkedHashMap<>();
+        claims.put(AccountService.USERNAME_CLAIM, "anna");
+        for (int i = 1; i < size; i++) {
+            switch (i % 3) {
+                case 0:
+                    claims.put("claim-" + i, "value-" + i);
+                    break;
+                case 1:
+                    claims.put("claim-" + i, i);
+                    break;
+                default:
+                    claims.put("claim-" + i, i % 2 == 0);
+            }
+        }
+        return claims;
+    }
+
+    private static void invoke(Object target, String methodName) {
+        Method method = ReflectionUtils.findMethod(target.getClass(), methodName);
+        ReflectionUtils.makeAccessible(method);
+        ReflectionUtils.invokeMethod(method, target);
+    }
+
+    /**
+     * Exposes {@link BaseController#createJwt(Map)} to the benchmarks.
+     */
+    static class Minter extends BaseController {
+        String mint(Map<String, Object> claims) {
+            return createJwt(claims);
+        }
+    }
+}
@@ -0,0 +1,81 @@
+package com.stormpath.tutorial.benchmark;
+
+import io.jsonwebtoken.JwtBuilder;
+import io.jsonwebtoken.Jwts;
+import io.jsonwebtoken.SignatureAlgorithm;
+import io.jsonwebtoken.impl.compression.CompressionCodecs;
+import io.jsonwebtoken.jjwtfun.service.SecretService;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Building and signing a JWT from a claims map, as the CSRF tutorial's {@code DynamicJWTController} does for HMAC
+ * (optionally DEFLATE compressed) and as the microservices tutorial does for RS256.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class JwtBuildBenchmark {
+
+    @Param({"HS256", "HS384", "HS512", "RS256"})
+    String algorithm;
+
+    @Param({"4", "16", "64"})
+    int claimCount;
+
+    @Param({"false", "true"})
+    boolean compress;
+
+    private SignatureAlgorithm signatureAlgorithm;
+    private Map<String, Object> claims;
+
+    private SecretService hmacSecretService;
+    private com.stormpath.tutorial.service.SecretService rsaSecretService;
+
+    @Setup
+    public void setup() {
+        signatureAlgorithm = SignatureAlgorithm.forName(algorithm);
+        claims = Fixtures.claims(claimCount);
+
+        hmacSecretService = Fixtures.csrfSecretService();
+
+        rsaSecretService = Fixtures.secretService();
+    }
+
+    @Benchmark
+    public String build() {
+        JwtBuilder builder = Jwts.builder().setClaims(claims);
+        if (compress) {
+            builder.compressWith(CompressionCodecs.DEFLATE);
+        }
+
+        switch (signatureAlgorithm) {
+            case HS256:
+                return builder.signWith(signatureAlgorithm, hmacSecretService.getHS256SecretKey()).compact();
+            case HS384:
+                return builder.signWith(signatureAlgorithm, hmacSecretService.getHS384SecretKey()).compact();
+            case HS512:
+                return builder.signWith(signatureAlgorithm, hmacSecretService.getHS512SecretKey()).compact();
+            default:
+                return builder
+                    .setHeaderParam("kid", rsaSecretService.getMySigningCreds().getKid())
+                    .signWith(signatureAlgorithm, rsaSecretService.getMySigningCreds().getPrivateKey())
+                    .compact();
+        }
+    }
+}
@@ -0,0 +1,92 @@
+package com.stormpath.tutorial.benchmark;
+
+import io.jsonwebtoken.Claims;
+import io.jsonwebtoken.Jws;
+import io.jsonwebtoken.JwtBuilder;
+import io.jsonwebtoken.Jwts;
+import io.jsonwebtoken.SignatureAlgorithm;
+import io.jsonwebtoken.SigningKeyResolver;
+import io.jsonwebtoken.impl.compression.CompressionCodecs;
+import io.jsonwebtoken.jjwtfun.service.SecretService;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import javax.crypto.SecretKey;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Parsing and verifying a JWT through each tutorial's {@code SigningKeyResolver}, as the CSRF tutorial's
+ * {@code /parser} endpoint does for HMAC and as the microservices tutorial's {@code /test-parse} does for RS256.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class JwtParseBenchmark {
+
+    @Param({"HS256", "HS384", "HS512", "RS256"})
+    String algorithm;
+
+    @Param({"4", "16", "64"})
+    int claimCount;
+
+    @Param({"false", "true"})
+    boolean compress;
+
+    private String jwt;
+    private SigningKeyResolver signingKeyResolver;
+
+    @Setup
+    public void setup() {
+        SignatureAlgorithm signatureAlgorithm = SignatureAlgorithm.forName(algorithm);
+
+        JwtBuilder builder = Jwts.builder().setClaims(Fixtures.claims(claimCount));
+        if (compress) {
+            builder.compressWith(CompressionCodecs.DEFLATE);
+        }
+
+        if (signatureAlgorithm.isHmac()) {
+            SecretService secretService = Fixtures.csrfSecretService();
+            signingKeyResolver = secretService.getSigningKeyResolver();
+
+            SecretKey secret;
+            switch (signatureAlgorithm) {
+                case HS256:
+                    secret = secretService.getHS256SecretKey();
+                    break;
+                case HS384:
+                    secret = secretService.getHS384SecretKey();
+                    break;
+                default:
+                    secret = secretService.getHS512SecretKey();
+            }
+            jwt = builder.signWith(signatureAlgorithm, secret).compact();
+        } else {
+            com.stormpath.tutorial.service.SecretService secretService = Fixtures.secretService();
+            signingKeyResolver = secretService.getSigningKeyResolver();
+
+            jwt = builder
+                .setHeaderParam("kid", secretService.getMySigningCreds().getKid())
+                .signWith(signatureAlgorithm, secretService.getMySigningCreds().getPrivateKey())
+                .compact();
+        }
+    }
+
+    @Benchmark
+    public Jws<Claims> parse() {
+        return Jwts.parser()
+            .setSigningKeyResolver(signingKeyResolver)
+            .parseClaimsJws(jwt);
+    }
+}
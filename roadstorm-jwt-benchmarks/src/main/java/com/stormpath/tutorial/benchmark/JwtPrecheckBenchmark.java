@@ -0,0 +1,106 @@
+package com.stormpath.tutorial.benchmark;
+
+import com.stormpath.tutorial.service.AccountService;
+import com.stormpath.tutorial.service.SecretService;
+import io.jsonwebtoken.Claims;
+import io.jsonwebtoken.Jws;
+import io.jsonwebtoken.JwtException;
+import io.jsonwebtoken.impl.TextCodec;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.beans.DirectFieldAccessor;
+
+import java.util.Arrays;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * {@code AccountService.verify} fed the kind of tokens that show up in attack and misconfigured-client traffic, with
+ * and without the {@code JwtPrecheck} in front of the parser. {@code valid} shows what the check costs on the happy
+ * path.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class JwtPrecheckBenchmark {
+
+    @Param({"valid", "truncated", "garbage", "illegalCharacter", "oversizedHeader"})
+    String input;
+
+    @Param({"false", "true"})
+    boolean precheck;
+
+    private SecretService secretService;
+    private Fixtures.Minter minter;
+    private AccountService accountService;
+    private String jwt;
+
+    @Setup
+    public void setup() {
+        secretService = Fixtures.secretService();
+        minter = Fixtures.minter(secretService);
+        // the cache would hide the cost of verifying the valid token
+        accountService = Fixtures.accountService(secretService, false);
+        new DirectFieldAccessor(accountService).setPropertyValue("jwtPrecheck", Fixtures.jwtPrecheck(precheck));
+    }
+
+    // tokens only live for 60 seconds
+    @Setup(Level.Iteration)
+    public void freshToken() {
+        String valid = minter.mint(Fixtures.claims(4));
+        String[] segments = valid.split("\\.");
+
+        switch (input) {
+            case "valid":
+                jwt = valid;
+                break;
+            case "truncated":
+                // cut off in transit, somewhere in the payload
+                jwt = valid.substring(0, segments[0].length() + 1 + segments[1].length() / 2);
+                break;
+            case "garbage":
+                char[] garbage = new char[valid.length()];
+                for (int i = 0; i < garbage.length; i++) {
+                    garbage[i] = (char) ThreadLocalRandom.current().nextInt(' ', '~' + 1);
+                }
+                jwt = new String(garbage);
+                break;
+            case "illegalCharacter":
+                // near the end, so the check has to scan nearly the whole token
+                jwt = valid.substring(0, valid.length() - 2) + "*" + valid.charAt(valid.length() - 1);
+                break;
+            case "oversizedHeader":
+                char[] padding = new char[4000];
+                Arrays.fill(padding, 'x');
+                String header = "{\"kid\":\"" + secretService.getMySigningCreds().getKid() +
+                    "\",\"alg\":\"RS256\",\"x\":\"" + new String(padding) + "\"}";
+                jwt = TextCodec.BASE64URL.encode(header) + "." + segments[1] + "." + segments[2];
+                break;
+            default:
+                throw new IllegalArgumentException("Unknown input: " + input);
+        }
+    }
+
+    @Benchmark
+    public Object verify() {
+        try {
+            Jws<Claims> jws = accountService.verify(jwt, secretService.getSigningKeyResolver());
+            return jws;
+        } catch (JwtException e) {
+            return e;
+        }
+    }
+}
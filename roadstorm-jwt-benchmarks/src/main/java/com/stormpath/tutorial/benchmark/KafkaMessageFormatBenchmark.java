@@ -0,0 +1,97 @@
+package com.stormpath.tutorial.benchmark;
+
+import com.stormpath.tutorial.model.AccountResponse;
+import com.stormpath.tutorial.service.AccountService;
+import com.stormpath.tutorial.service.BinaryJws;
+import com.stormpath.tutorial.service.BinaryJwsSerializer;
+import com.stormpath.tutorial.service.BinaryJwsVerifier;
+import com.stormpath.tutorial.service.SecretService;
+import org.apache.kafka.common.serialization.Serializer;
+import org.apache.kafka.common.serialization.StringDeserializer;
+import org.apache.kafka.common.serialization.StringSerializer;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A JWT sent over Kafka as a compact string ({@code kafka.message-format=compact}) against a {@link BinaryJws} record
+ * ({@code binary}): serializing it on the producer, and deserializing and verifying it and looking up its account on the
+ * consumer, with the verified JWT cache off. A binary record is read with {@link BinaryJws#read(byte[])}, as the
+ * consumer does.
+ * <p>
+ * The size of the record, the bytes each message takes on the wire, is printed once per trial.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class KafkaMessageFormatBenchmark {
+
+    private static final String TOPIC = "micro-services";
+
+    @Param({"4", "16", "64"})
+    int claimCount;
+
+    @Param({"compact", "binary"})
+    String format;
+
+    private Map<String, Object> claims;
+    private Fixtures.Minter minter;
+    private AccountService accountService;
+    private BinaryJwsVerifier binaryJwsVerifier;
+
+    private Serializer<String> serializer;
+    private final StringDeserializer stringDeserializer = new StringDeserializer();
+
+    private String jwt;
+    private byte[] record;
+
+    @Setup
+    public void setup() {
+        SecretService secretService = Fixtures.secretService();
+        minter = Fixtures.minter(secretService);
+        accountService = Fixtures.accountService(secretService, false);
+        binaryJwsVerifier = Fixtures.binaryJwsVerifier(secretService);
+
+        claims = Fixtures.claims(claimCount);
+        serializer = "binary".equals(format) ? new BinaryJwsSerializer() : new StringSerializer();
+
+        freshToken();
+        System.out.printf("%n%s, %d claims: %d bytes per record (compact JWT: %d characters)%n",
+            format, claimCount, record.length, jwt.length());
+    }
+
+    // tokens only live for 60 seconds
+    @Setup(Level.Iteration)
+    public void freshToken() {
+        jwt = minter.mint(claims);
+        record = serializer.serialize(TOPIC, jwt);
+    }
+
+    @Benchmark
+    public byte[] produce() {
+        return serializer.serialize(TOPIC, jwt);
+    }
+
+    @Benchmark
+    public AccountResponse consume() {
+        if ("binary".equals(format)) {
+            return accountService.getAccount(binaryJwsVerifier.verify(BinaryJws.read(record)));
+        }
+        return accountService.getAccount(stringDeserializer.deserialize(TOPIC, record));
+    }
+}
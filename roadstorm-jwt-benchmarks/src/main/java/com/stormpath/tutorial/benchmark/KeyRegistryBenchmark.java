@@ -0,0 +1,104 @@
+package com.stormpath.tutorial.benchmark;
+
+import com.stormpath.tutorial.service.KeyRegistry;
+import io.jsonwebtoken.impl.crypto.RsaProvider;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Group;
+import org.openjdk.jmh.annotations.GroupThreads;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.security.PublicKey;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Many resolver threads looking up public keys while one thread keeps rotating keys, against the
+ * {@link KeyRegistry} and against a synchronized {@code HashMap}.
+ * <p>
+ * The registry replaced a plain {@code HashMap}, which isn't safe to read while another thread writes to it, so it
+ * can't be measured here. The synchronized map is the simplest thread-safe version of it.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Group)
+public class KeyRegistryBenchmark {
+
+    @Param({"10", "1000"})
+    int trustedKeys;
+
+    private String[] kids;
+    private PublicKey[] keys;
+
+    private KeyRegistry registry;
+    private Map<String, PublicKey> synchronizedMap;
+
+    @Setup
+    public void setup() {
+        kids = new String[trustedKeys];
+        // a handful of distinct keys is plenty - only the lookups and swaps are measured
+        keys = new PublicKey[4];
+        for (int i = 0; i < keys.length; i++) {
+            keys[i] = RsaProvider.generateKeyPair(1024).getPublic();
+        }
+
+        registry = new KeyRegistry();
+        synchronizedMap = Collections.synchronizedMap(new HashMap<>());
+        for (int i = 0; i < trustedKeys; i++) {
+            kids[i] = UUID.randomUUID().toString();
+            registry.putPublicKey(kids[i], keys[i % keys.length]);
+            synchronizedMap.put(kids[i], keys[i % keys.length]);
+        }
+    }
+
+    @Benchmark
+    @Group("registry")
+    @GroupThreads(7)
+    public PublicKey registryResolve() {
+        return registry.getPublicKey(randomKid());
+    }
+
+    @Benchmark
+    @Group("registry")
+    @GroupThreads(1)
+    public boolean registryRotate() {
+        return registry.putPublicKey(randomKid(), randomKey());
+    }
+
+    @Benchmark
+    @Group("synchronizedMap")
+    @GroupThreads(7)
+    public PublicKey synchronizedMapResolve() {
+        return synchronizedMap.get(randomKid());
+    }
+
+    @Benchmark
+    @Group("synchronizedMap")
+    @GroupThreads(1)
+    public PublicKey synchronizedMapRotate() {
+        return synchronizedMap.put(randomKid(), randomKey());
+    }
+
+    private String randomKid() {
+        return kids[ThreadLocalRandom.current().nextInt(kids.length)];
+    }
+
+    private PublicKey randomKey() {
+        return keys[ThreadLocalRandom.current().nextInt(keys.length)];
+    }
+}
@@ -0,0 +1,307 @@
+package com.stormpath.tutorial.benchmark;
+
+import org.HdrHistogram.Histogram;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Closed-loop HTTP load test: keeps a number of keep-alive connections to {@code /restricted} busy, each sending its
+ * next request as soon as the previous response arrives, and reports throughput per server core, latency percentiles
+ * and how many connections were actually served.
+ * <p>
+ * All connections are driven by one selector thread, so the client itself needs next to no threads however many
+ * connections it opens. Run it against the microservices tutorial once on the blocking stack and once with
+ * {@code jwt.verify.async.enabled=true} or, on Java 21, {@code virtual-threads.enabled=true}:
+ * <pre>
+ * java -cp roadstorm-jwt-benchmarks/target/benchmarks.jar com.stormpath.tutorial.benchmark.LoadTest \
+ *     --port 8080 --connections 2000 --duration 30 --server-cores 4
+ * </pre>
+ * Unless {@code --jwt} is given, a JWT for {@code anna} is fetched from {@code /account-request} first.
+ */
+public class LoadTest {
+
+    private static final Pattern STATUS = Pattern.compile("^HTTP/1\\.1 (\\d{3})");
+    private static final Pattern CONTENT_LENGTH = Pattern.compile("(?i)\r\ncontent-length: *(\\d+)");
+    private static final byte[] HEADER_END = "\r\n\r\n".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] LAST_CHUNK = "\r\n0\r\n\r\n".getBytes(StandardCharsets.US_ASCII);
+
+    private final InetSocketAddress address;
+    private final ByteBuffer request;
+
+    private final Histogram latencies = new Histogram(TimeUnit.MINUTES.toMicros(1), 3);
+    private final Map<Integer, Long> statuses = new HashMap<>();
+    private long ioErrors;
+    private boolean measuring;
+
+    public static void main(String[] args) throws Exception {
+        Map<String, String> options = options(args);
+        String host = options.getOrDefault("host", "localhost");
+        int port = Integer.parseInt(options.getOrDefault("port", "8080"));
+        int connections = Integer.parseInt(options.getOrDefault("connections", "1000"));
+        int warmup = Integer.parseInt(options.getOrDefault("warmup", "10"));
+        int duration = Integer.parseInt(options.getOrDefault("duration", "30"));
+        int serverCores = Integer.parseInt(
+            options.getOrDefault("server-cores", String.valueOf(Runtime.getRuntime().availableProcessors()))
+        );
+
+        String jwt = options.get("jwt");
+        if (jwt == null) {
+            jwt = fetchJwt(host, port, options.getOrDefault("user", "anna"));
+        }
+
+        LoadTest loadTest = new LoadTest(host, port, options.getOrDefault("path", "/restricted"), jwt);
+        loadTest.run(connections, warmup, duration, serverCores);
+    }
+
+    LoadTest(String host, int port, String path, String jwt) {
+        this.address = new InetSocketAddress(host, port);
+        this.request = ByteBuffer.wrap((
+            "GET " + path + " HTTP/1.1\r\n" +
+            "Host: " + host + ":" + port + "\r\n" +
+            "Authorization: Bearer " + jwt + "\r\n" +
+            "\r\n"
+        ).getBytes(StandardCharsets.US_ASCII)).asReadOnlyBuffer();
+    }
+
+    void run(int connections, int warmupSeconds, int durationSeconds, int serverCores) throws IOException {
+        Selector selector = Selector.open();
+        for (int i = 0; i < connections; i++) {
+            connect(selector, new Connection());
+        }
+
+        long start = System.nanoTime();
+        long measureFrom = start + TimeUnit.SECONDS.toNanos(warmupSeconds);
+        long end = measureFrom + TimeUnit.SECONDS.toNanos(durationSeconds);
+
+        int served = 0;
+        while (System.nanoTime() < end) {
+            if (!measuring && System.nanoTime() >= measureFrom) {
+                measuring = true;
+                for (SelectionKey key : selector.keys()) {
+                    ((Connection) key.attachment()).served = false;
+                }
+            }
+
+            selector.select(100);
+            for (SelectionKey key : selector.selectedKeys()) {
+                Connection connection = (Connection) key.attachment();
+                try {
+                    if (key.isConnectable()) {
+                        if (((SocketChannel) key.channel()).finishConnect()) {
+                            send(key, connection);
+                        }
+                    } else if (key.isWritable()) {
+                        send(key, connection);
+                    } else if (key.isReadable()) {
+                        receive(key, connection);
+                    }
+                } catch (IOException e) {
+                    // refused, reset or closed by the server - start over on a new connection
+                    if (measuring) {
+                        ioErrors++;
+                    }
+                    key.cancel();
+                    key.channel().close();
+                    connect(selector, connection);
+                }
+            }
+            selector.selectedKeys().clear();
+        }
+
+        // drops the keys of connections that were replaced
+        selector.selectNow();
+        for (SelectionKey key : selector.keys()) {
+            if (((Connection) key.attachment()).served) {
+                served++;
+            }
+            key.channel().close();
+        }
+        selector.close();
+
+        report(connections, served, durationSeconds, serverCores);
+    }
+
+    private void connect(Selector selector, Connection connection) throws IOException {
+        connection.out = null;
+        connection.in.clear();
+
+        SocketChannel channel = SocketChannel.open();
+        channel.configureBlocking(false);
+        channel.connect(address);
+        channel.register(selector, SelectionKey.OP_CONNECT, connection);
+    }
+
+    private void send(SelectionKey key, Connection connection) throws IOException {
+        if (connection.out == null) {
+            connection.out = request.duplicate();
+            connection.sentAt = System.nanoTime();
+        }
+        ((SocketChannel) key.channel()).write(connection.out);
+
+        if (connection.out.hasRemaining()) {
+            key.interestOps(SelectionKey.OP_WRITE);
+        } else {
+            connection.out = null;
+            key.interestOps(SelectionKey.OP_READ);
+        }
+    }
+
+    private void receive(SelectionKey key, Connection connection) throws IOException {
+        ByteBuffer in = connection.in;
+        if (((SocketChannel) key.channel()).read(in) < 0) {
+            throw new IOException("Connection closed");
+        }
+
+        int status = connection.complete();
+        if (status < 0) {
+            if (!in.hasRemaining()) {
+                connection.in = ByteBuffer.allocate(in.capacity() * 2).put((ByteBuffer) in.flip());
+            }
+            return;
+        }
+
+        if (measuring) {
+            latencies.recordValue(Math.min(
+                TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - connection.sentAt), latencies.getHighestTrackableValue()
+            ));
+            statuses.merge(status, 1L, Long::sum);
+            connection.served = true;
+        }
+        connection.in.clear();
+        send(key, connection);
+    }
+
+    private void report(int connections, int served, int durationSeconds, int serverCores) {
+        long ok = 0;
+        long failed = 0;
+        for (Map.Entry<Integer, Long> status : statuses.entrySet()) {
+            if (status.getKey() < 300) {
+                ok += status.getValue();
+            } else {
+                failed += status.getValue();
+            }
+        }
+
+        System.out.printf("connections: %d, served during the run: %d%n", connections, served);
+        System.out.printf("responses: %d ok, %d failed %s, %d connection errors%n", ok, failed, statuses, ioErrors);
+        System.out.printf(
+            "throughput: %.0f ok/s, %.0f ok/s per server core (%d cores)%n",
+            (double) ok / durationSeconds, (double) ok / durationSeconds / serverCores, serverCores
+        );
+        System.out.printf(
+            "latency ms: p50 %.1f, p90 %.1f, p99 %.1f, p99.9 %.1f, max %.1f%n",
+            latencies.getValueAtPercentile(50) / 1000.0, latencies.getValueAtPercentile(90) / 1000.0,
+            latencies.getValueAtPercentile(99) / 1000.0, latencies.getValueAtPercentile(99.9) / 1000.0,
+            latencies.getMaxValue() / 1000.0
+        );
+    }
+
+    private static String fetchJwt(String host, int port, String userName) throws IOException {
+        HttpURLConnection connection = (HttpURLConnection) new URL("http", host, port, "/account-request").openConnection();
+        connection.setRequestMethod("POST");
+        connection.setRequestProperty("Content-Type", "application/json");
+        connection.setDoOutput(true);
+        try (OutputStream out = connection.getOutputStream()) {
+            out.write(("{\"userName\":\"" + userName + "\"}").getBytes(StandardCharsets.UTF_8));
+        }
+
+        ByteArrayOutputStream body = new ByteArrayOutputStream();
+        try (InputStream in = connection.getInputStream()) {
+            byte[] buffer = new byte[4096];
+            for (int n; (n = in.read(buffer)) > 0; ) {
+                body.write(buffer, 0, n);
+            }
+        }
+
+        Matcher jwt = Pattern.compile("\"jwt\" *: *\"([^\"]+)\"").matcher(body.toString("UTF-8"));
+        if (!jwt.find()) {
+            throw new IOException("No JWT in response from /account-request: " + body);
+        }
+        return jwt.group(1);
+    }
+
+    private static Map<String, String> options(String[] args) {
+        Map<String, String> options = new HashMap<>();
+        for (int i = 0; i + 1 < args.length; i += 2) {
+            if (!args[i].startsWith("--")) {
+                throw new IllegalArgumentException("Expected --option value, got: " + args[i]);
+            }
+            options.put(args[i].substring(2), args[i + 1]);
+        }
+        return options;
+    }
+
+    private static class Connection {
+        private ByteBuffer out;
+        private ByteBuffer in = ByteBuffer.allocate(4096);
+        private long sentAt;
+        private boolean served;
+
+        /**
+         * @return the status code once the whole response has arrived, -1 until then
+         */
+        int complete() {
+            byte[] bytes = in.array();
+            int length = in.position();
+
+            int headerEnd = indexOf(bytes, length, HEADER_END);
+            if (headerEnd < 0) {
+                return -1;
+            }
+            String header = new String(bytes, 0, headerEnd, StandardCharsets.US_ASCII);
+
+            Matcher contentLength = CONTENT_LENGTH.matcher(header);
+            int bodyStart = headerEnd + HEADER_END.length;
+            boolean done = contentLength.find() ?
+                length >= bodyStart + Integer.parseInt(contentLength.group(1)) :
+                endsWith(bytes, length, LAST_CHUNK);
+            if (!done) {
+                return -1;
+            }
+
+            Matcher status = STATUS.matcher(header);
+            return status.find() ? Integer.parseInt(status.group(1)) : 0;
+        }
+
+        private static int indexOf(byte[] bytes, int length, byte[] pattern) {
+            outer:
+            for (int i = 0; i + pattern.length <= length; i++) {
+                for (int j = 0; j < pattern.length; j++) {
+                    if (bytes[i + j] != pattern[j]) {
+                        continue outer;
+                    }
+                }
+                return i;
+            }
+            return -1;
+        }
+
+        private static boolean endsWith(byte[] bytes, int length, byte[] suffix) {
+            if (length < suffix.length) {
+                return false;
+            }
+            for (int i = 0; i < suffix.length; i++) {
+                if (bytes[length - suffix.length + i] != suffix[i]) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+}
@@ -0,0 +1,72 @@
+package com.stormpath.tutorial.benchmark;
+
+import com.stormpath.tutorial.model.AccountResponse;
+import com.stormpath.tutorial.service.AccountService;
+import com.stormpath.tutorial.service.SecretService;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The microservices tutorial's token round trip: {@code BaseController.createJwt} on the sending side and
+ * {@code AccountService.getAccount(String)} on the receiving side, with and without the verified JWT cache.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class MicroservicesTokenBenchmark {
+
+    @Param({"4", "16", "64"})
+    int claimCount;
+
+    @Param({"false", "true"})
+    boolean cacheEnabled;
+
+    private Map<String, Object> claims;
+    private Fixtures.Minter minter;
+    private AccountService accountService;
+    private String jwt;
+
+    @Setup
+    public void setup() {
+        SecretService secretService = Fixtures.secretService();
+        minter = Fixtures.minter(secretService);
+        accountService = Fixtures.accountService(secretService, cacheEnabled);
+
+        claims = Fixtures.claims(claimCount);
+    }
+
+    // tokens only live for 60 seconds
+    @Setup(Level.Iteration)
+    public void freshToken() {
+        jwt = minter.mint(claims);
+    }
+
+    @Benchmark
+    public String createJwt() {
+        return minter.mint(claims);
+    }
+
+    /**
+     * The same token every time, like a client reusing its token for the whole 60 second lifetime.
+     */
+    @Benchmark
+    public AccountResponse getAccount() {
+        return accountService.getAccount(jwt);
+    }
+}
@@ -0,0 +1,111 @@
+package com.stormpath.tutorial.benchmark;
+
+import com.stormpath.tutorial.service.KeyRegistry;
+import com.stormpath.tutorial.service.PersistentKeyStore;
+import com.stormpath.tutorial.service.SigningCreds;
+import io.jsonwebtoken.SignatureAlgorithm;
+import io.jsonwebtoken.impl.TextCodec;
+import io.jsonwebtoken.impl.crypto.RsaProvider;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.GeneralSecurityException;
+import java.security.KeyFactory;
+import java.security.KeyPair;
+import java.security.PublicKey;
+import java.security.spec.X509EncodedKeySpec;
+import java.util.HashMap;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Bringing back a microservice's trusted keys after a restart: opening the {@link PersistentKeyStore} and registering
+ * its keys undecoded, the same followed by resolving every key once, and rebuilding every key from the Base64
+ * {@code PublicCreds} a repeated trust handshake would send.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class PersistentKeyStoreBenchmark {
+
+    @Param({"1000", "10000"})
+    int trustedKeys;
+
+    private Path path;
+    private String[] kids;
+    private String[] b64UrlPublicKeys;
+
+    @Setup
+    public void setup() throws IOException {
+        path = Files.createTempFile("keys", ".dat");
+        Files.delete(path);
+
+        // a handful of distinct keys is plenty - generating thousands of RSA key pairs would take minutes
+        KeyPair[] keyPairs = new KeyPair[4];
+        for (int i = 0; i < keyPairs.length; i++) {
+            keyPairs[i] = RsaProvider.generateKeyPair(1024);
+        }
+
+        kids = new String[trustedKeys];
+        b64UrlPublicKeys = new String[trustedKeys];
+        try (PersistentKeyStore keyStore = new PersistentKeyStore(path, 1024 * 1024)) {
+            for (int i = 0; i < trustedKeys; i++) {
+                kids[i] = UUID.randomUUID().toString();
+                PublicKey publicKey = keyPairs[i % keyPairs.length].getPublic();
+                b64UrlPublicKeys[i] = TextCodec.BASE64URL.encode(publicKey.getEncoded());
+                keyStore.saveTrustedKey(kids[i], SignatureAlgorithm.RS256, publicKey);
+            }
+            keyStore.saveSigningCreds(new SigningCreds(kids[0], SignatureAlgorithm.RS256, keyPairs[0]));
+        }
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        Files.deleteIfExists(path);
+    }
+
+    @Benchmark
+    public KeyRegistry restore() throws IOException {
+        KeyRegistry keyRegistry = new KeyRegistry();
+        try (PersistentKeyStore keyStore = new PersistentKeyStore(path, 1024 * 1024)) {
+            keyRegistry.setSigningCreds(keyStore.load(keyRegistry, new HashMap<>()));
+        }
+        return keyRegistry;
+    }
+
+    @Benchmark
+    public KeyRegistry restoreAndResolveAll() throws IOException {
+        KeyRegistry keyRegistry = restore();
+        for (String kid : kids) {
+            keyRegistry.getPublicKey(kid);
+        }
+        return keyRegistry;
+    }
+
+    @Benchmark
+    public KeyRegistry rebuildFromBase64() throws GeneralSecurityException {
+        KeyRegistry keyRegistry = new KeyRegistry();
+        KeyFactory keyFactory = KeyFactory.getInstance("RSA");
+        for (int i = 0; i < trustedKeys; i++) {
+            byte[] encoded = TextCodec.BASE64URL.decode(b64UrlPublicKeys[i]);
+            keyRegistry.putPublicKey(kids[i], keyFactory.generatePublic(new X509EncodedKeySpec(encoded)));
+        }
+        return keyRegistry;
+    }
+}
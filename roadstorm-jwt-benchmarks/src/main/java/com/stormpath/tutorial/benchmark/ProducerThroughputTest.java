@@ -0,0 +1,173 @@
+package com.stormpath.tutorial.benchmark;
+
+import com.stormpath.tutorial.service.BinaryJwsSerializer;
+import com.stormpath.tutorial.service.ProducerProfile;
+import com.stormpath.tutorial.service.SecretService;
+import org.HdrHistogram.Histogram;
+import org.apache.kafka.clients.producer.KafkaProducer;
+import org.apache.kafka.clients.producer.Producer;
+import org.apache.kafka.clients.producer.ProducerRecord;
+import org.apache.kafka.common.Metric;
+import org.apache.kafka.common.MetricName;
+import org.apache.kafka.common.serialization.Serializer;
+import org.apache.kafka.common.serialization.StringSerializer;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Producer self-test: publishes the same synthetic JWTs with each {@link ProducerProfile} and reports records/s, MB/s
+ * of JWTs, the compression rate the producer achieved and how long sends took to be acknowledged.
+ * <p>
+ * Like {@link LoadTest} it is not a JMH benchmark, it needs a running broker:
+ * <pre>
+ * java -cp roadstorm-jwt-benchmarks/target/benchmarks.jar com.stormpath.tutorial.benchmark.ProducerThroughputTest \
+ *     --broker localhost:9092 --records 200000 --claims 16
+ * </pre>
+ * Records are sent as fast as the producer takes them, or at {@code --rate} records/s. Flat out, the time until a send
+ * is acknowledged is mostly time spent queued in the producer; at a rate the broker keeps up with, it shows what each
+ * profile's batching costs. Every profile sends to a topic of its own, created by the broker on first use.
+ */
+public class ProducerThroughputTest {
+
+    private final String broker;
+    private final String topicPrefix;
+    private final String format;
+    private final int rate;
+    private final String key;
+    private final List<String> tokens;
+
+    public static void main(String[] args) {
+        Map<String, String> options = options(args);
+        int records = Integer.parseInt(options.getOrDefault("records", "100000"));
+        int warmup = Integer.parseInt(options.getOrDefault("warmup", "20000"));
+        int claimCount = Integer.parseInt(options.getOrDefault("claims", "16"));
+        int tokenCount = Integer.parseInt(options.getOrDefault("tokens", "1000"));
+        int rate = Integer.parseInt(options.getOrDefault("rate", "0"));
+
+        ProducerThroughputTest test = new ProducerThroughputTest(
+            options.getOrDefault("broker", "localhost:9092"),
+            options.getOrDefault("topic", "producer-self-test"),
+            options.getOrDefault("format", "compact"),
+            rate, claimCount, tokenCount
+        );
+        for (String profile : options.getOrDefault("profiles", "latency,throughput,durable").split(",")) {
+            test.run(ProducerProfile.forName(profile), warmup, records);
+        }
+    }
+
+    ProducerThroughputTest(String broker, String topicPrefix, String format, int rate, int claimCount, int tokenCount) {
+        this.broker = broker;
+        this.topicPrefix = topicPrefix;
+        this.format = format;
+        this.rate = rate;
+
+        SecretService secretService = Fixtures.secretService();
+        Fixtures.Minter minter = Fixtures.minter(secretService);
+        this.key = secretService.getMyPublicCreds().getKid();
+
+        // distinct tokens, so compression only finds what real JWTs have in common
+        this.tokens = new ArrayList<>(tokenCount);
+        Map<String, Object> claims = Fixtures.claims(claimCount);
+        for (int i = 0; i < tokenCount; i++) {
+            claims.put("jti", "self-test-" + i);
+            tokens.add(minter.mint(claims));
+        }
+    }
+
+    void run(ProducerProfile profile, int warmup, int records) {
+        Properties kafkaProps = profile.properties();
+        kafkaProps.put("bootstrap.servers", broker);
+        String topic = topicPrefix + "-" + profile.getName();
+
+        Serializer<String> serializer = "binary".equals(format) ? new BinaryJwsSerializer() : new StringSerializer();
+        int[] sizes = new int[tokens.size()];
+        for (int i = 0; i < sizes.length; i++) {
+            sizes[i] = serializer.serialize(topic, tokens.get(i)).length;
+        }
+
+        try (Producer<String, String> producer = new KafkaProducer<>(kafkaProps, new StringSerializer(), serializer)) {
+            send(producer, topic, warmup, sizes, new Histogram(TimeUnit.MINUTES.toMicros(1), 3));
+
+            Histogram latencies = new Histogram(TimeUnit.MINUTES.toMicros(1), 3);
+            long start = System.nanoTime();
+            long bytes = send(producer, topic, records, sizes, latencies);
+            double seconds = (System.nanoTime() - start) / 1e9;
+
+            System.out.printf("%s profile, %s format: %s%n", profile.getName(), format, profile.properties());
+            System.out.printf(
+                "throughput: %.0f records/s, %.2f MB/s of JWTs (%d bytes per record), compression rate %.2f%n",
+                records / seconds, bytes / seconds / (1024 * 1024), bytes / records,
+                metric(producer, "compression-rate-avg")
+            );
+            System.out.printf(
+                "acknowledged after ms: p50 %.1f, p99 %.1f, max %.1f%n%n",
+                latencies.getValueAtPercentile(50) / 1000.0, latencies.getValueAtPercentile(99) / 1000.0,
+                latencies.getMaxValue() / 1000.0
+            );
+        }
+    }
+
+    // returns the number of JWT bytes sent, once all of them are acknowledged
+    private long send(Producer<String, String> producer, String topic, int records, int[] sizes, Histogram latencies) {
+        AtomicLong failures = new AtomicLong();
+        long bytes = 0;
+        long start = System.nanoTime();
+
+        for (int i = 0; i < records; i++) {
+            if (rate > 0) {
+                long due = start + TimeUnit.SECONDS.toNanos(i) / rate;
+                while (System.nanoTime() < due) {
+                    LockSupport.parkNanos(due - System.nanoTime());
+                }
+            }
+            String token = tokens.get(i % tokens.size());
+            bytes += sizes[i % sizes.length];
+
+            long sentAt = System.nanoTime();
+            producer.send(new ProducerRecord<>(topic, key, token), (recordMetadata, e) -> {
+                if (e != null) {
+                    failures.incrementAndGet();
+                    return;
+                }
+                synchronized (latencies) {
+                    latencies.recordValue(Math.min(
+                        TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - sentAt), latencies.getHighestTrackableValue()
+                    ));
+                }
+            });
+        }
+        producer.flush();
+
+        if (failures.get() > 0) {
+            throw new IllegalStateException(failures.get() + " of " + records + " records could not be sent to " + topic);
+        }
+        return bytes;
+    }
+
+    private static double metric(Producer<String, String> producer, String name) {
+        for (Map.Entry<MetricName, ? extends Metric> metric : producer.metrics().entrySet()) {
+            if (metric.getKey().name().equals(name) && metric.getKey().group().equals("producer-metrics")) {
+                return (Double) metric.getValue().metricValue();
+            }
+        }
+        return Double.NaN;
+    }
+
+    private static Map<String, String> options(String[] args) {
+        Map<String, String> options = new HashMap<>();
+        for (int i = 0; i + 1 < args.length; i += 2) {
+            if (!args[i].startsWith("--")) {
+                throw new IllegalArgumentException("Expected --option value, got: " + args[i]);
+            }
+            options.put(args[i].substring(2), args[i + 1]);
+        }
+        return options;
+    }
+}
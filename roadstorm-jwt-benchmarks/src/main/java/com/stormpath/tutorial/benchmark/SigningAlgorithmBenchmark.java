@@ -0,0 +1,67 @@
+package com.stormpath.tutorial.benchmark;
+
+import com.stormpath.tutorial.model.AccountResponse;
+import com.stormpath.tutorial.service.AccountService;
+import com.stormpath.tutorial.service.SecretService;
+import io.jsonwebtoken.SignatureAlgorithm;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Signing with {@code BaseController.createJwt} and verifying with {@code AccountService.getAccount(String)} for each
+ * supported {@code jwt.signing.algorithm}. The verified JWT cache is off, so every call checks the signature.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class SigningAlgorithmBenchmark {
+
+    @Param({"RS256", "ES256", "ES384"})
+    SignatureAlgorithm algorithm;
+
+    private Map<String, Object> claims;
+    private Fixtures.Minter minter;
+    private AccountService accountService;
+    private String jwt;
+
+    @Setup
+    public void setup() {
+        SecretService secretService = Fixtures.secretService(algorithm);
+        minter = Fixtures.minter(secretService);
+        accountService = Fixtures.accountService(secretService, false);
+
+        claims = Fixtures.claims(4);
+    }
+
+    // tokens only live for 60 seconds
+    @Setup(Level.Iteration)
+    public void freshToken() {
+        jwt = minter.mint(claims);
+    }
+
+    @Benchmark
+    public String sign() {
+        return minter.mint(claims);
+    }
+
+    @Benchmark
+    public AccountResponse verify() {
+        return accountService.getAccount(jwt);
+    }
+}
@@ -0,0 +1,102 @@
+package com.stormpath.tutorial.benchmark;
+
+import com.stormpath.tutorial.service.SecretService;
+import com.stormpath.tutorial.service.SigningCreds;
+import com.stormpath.tutorial.service.TokenMinter;
+import io.jsonwebtoken.Jwts;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.Signature;
+import java.util.Date;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Minting a microservices token with {@link TokenMinter} and with the {@code Jwts.builder()} chain
+ * {@code BaseController.createJwt} used before. {@code signatureOnly} is the RS256 signature by itself, i.e. the floor
+ * for both. Compare {@code gc.alloc.rate.norm} for the allocation per token.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class TokenMinterBenchmark {
+
+    @Param({"4", "16", "64"})
+    int claimCount;
+
+    private Map<String, Object> claims;
+    private SigningCreds creds;
+    private TokenMinter tokenMinter;
+
+    private Signature signature;
+    private byte[] signingInput;
+
+    @Setup
+    public void setup() throws GeneralSecurityException {
+        SecretService secretService = Fixtures.secretService();
+        creds = secretService.getMySigningCreds();
+        tokenMinter = Fixtures.tokenMinter(secretService);
+        claims = Fixtures.claims(claimCount);
+
+        checkSameOutput();
+
+        String token = tokenMinter.mint(claims, 1000*60);
+        signingInput = token.substring(0, token.lastIndexOf('.')).getBytes(StandardCharsets.US_ASCII);
+        signature = Signature.getInstance(creds.getAlgorithm().getJcaName());
+    }
+
+    // RS256 signatures are deterministic, so both must produce the same token - unless a second boundary gets in between
+    private void checkSameOutput() {
+        for (int attempt = 0; attempt < 3; attempt++) {
+            String minted = tokenMinter.mint(claims, 1000*60);
+            String built = jwtBuilder();
+            if (minted.equals(built)) {
+                return;
+            }
+        }
+        throw new IllegalStateException("TokenMinter and Jwts.builder() produce different tokens");
+    }
+
+    @Benchmark
+    public String tokenMinter() {
+        return tokenMinter.mint(claims, 1000*60);
+    }
+
+    @Benchmark
+    public String jwtBuilder() {
+        Date now = new Date();
+        Date exp = new Date(now.getTime() + (1000*60));
+
+        // the builder puts iat, nbf and exp into the claims map itself - TokenMinter gives the same output either way
+        return Jwts.builder()
+            .setHeaderParam("kid", creds.getKid())
+            .setClaims(claims)
+            .setIssuedAt(now)
+            .setNotBefore(now)
+            .setExpiration(exp)
+            .signWith(creds.getAlgorithm(), creds.getPrivateKey())
+            .compact();
+    }
+
+    @Benchmark
+    public byte[] signatureOnly() throws GeneralSecurityException {
+        signature.initSign(creds.getPrivateKey());
+        signature.update(signingInput);
+        return signature.sign();
+    }
+}
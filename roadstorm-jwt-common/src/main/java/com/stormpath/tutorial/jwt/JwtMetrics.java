@@ -0,0 +1,86 @@
+package com.stormpath.tutorial.jwt;
+
+import io.jsonwebtoken.Claims;
+import io.jsonwebtoken.Jws;
+import io.jsonwebtoken.SignatureAlgorithm;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.springframework.stereotype.Service;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+/**
+ * Timers and counters for signing and verifying JWTs and for resolving their keys.
+ * <p>
+ * The sign and verify timers publish percentile histograms, so the monitoring system can compute (and alert on) p99
+ * latency across instances.
+ */
+@Service
+public class JwtMetrics {
+
+    private static final String NO_EXCEPTION = "None";
+
+    private final MeterRegistry meterRegistry;
+
+    private final Map<SignatureAlgorithm, Timer> signTimers = new ConcurrentHashMap<>();
+    private final Map<String, Timer> verifyTimers = new ConcurrentHashMap<>();
+    private final Map<String, Counter> failures = new ConcurrentHashMap<>();
+
+    private final Counter keyHits;
+    private final Counter keyMisses;
+
+    public JwtMetrics(MeterRegistry meterRegistry) {
+        this.meterRegistry = meterRegistry;
+
+        keyHits = meterRegistry.counter("jwt.key.resolutions", "result", "hit");
+        keyMisses = meterRegistry.counter("jwt.key.resolutions", "result", "miss");
+    }
+
+    public void recordSign(SignatureAlgorithm alg, long startNanos) {
+        signTimers.computeIfAbsent(alg, a -> Timer.builder("jwt.sign")
+            .tag("alg", a.getValue())
+            .publishPercentileHistogram()
+            .register(meterRegistry)
+        ).record(System.nanoTime() - startNanos, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * Times a {@code parseClaimsJws} call, tagged with the type of exception it threw, if any.
+     */
+    public Jws<Claims> verify(Supplier<Jws<Claims>> verification) {
+        long start = System.nanoTime();
+        try {
+            Jws<Claims> jws = verification.get();
+            recordVerify(start, NO_EXCEPTION);
+            return jws;
+        } catch (RuntimeException e) {
+            recordVerify(start, e.getClass().getSimpleName());
+            throw e;
+        }
+    }
+
+    public void keyResolved(boolean hit) {
+        (hit ? keyHits : keyMisses).increment();
+    }
+
+    /**
+     * Counts a request that failed with the given exception.
+     */
+    public void failure(Exception e) {
+        failures.computeIfAbsent(e.getClass().getSimpleName(), exception ->
+            meterRegistry.counter("jwt.failures", "exception", exception)
+        ).increment();
+    }
+
+    private void recordVerify(long startNanos, String exception) {
+        verifyTimers.computeIfAbsent(exception, e -> Timer.builder("jwt.verify")
+            .tag("exception", e)
+            .publishPercentileHistogram()
+            .register(meterRegistry)
+        ).record(System.nanoTime() - startNanos, TimeUnit.NANOSECONDS);
+    }
+}
@@ -0,0 +1,380 @@
+package com.stormpath.tutorial.jwt;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.jsonwebtoken.Claims;
+import io.jsonwebtoken.ExpiredJwtException;
+import io.jsonwebtoken.Header;
+import io.jsonwebtoken.MalformedJwtException;
+import io.jsonwebtoken.PrematureJwtException;
+import io.jsonwebtoken.impl.DefaultClaims;
+import io.jsonwebtoken.impl.DefaultJwsHeader;
+import io.jsonwebtoken.impl.TextCodec;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import javax.annotation.PostConstruct;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.Map;
+
+/**
+ * Cheap structural check of a compact JWS, run before anything is decoded or verified.
+ * <p>
+ * A single pass over the characters checks the length limits, that there are exactly three non-empty segments, that
+ * every character is in the Base64URL alphabet and that each segment has a length Base64URL can produce. The pass
+ * itself allocates nothing, so truncated or garbage tokens are turned away before the parser Base64-decodes them,
+ * runs Jackson over the header or touches a key.
+ * <p>
+ * Callers that opt in can also have the payload decoded on its own to check {@code exp} and {@code nbf}, so an
+ * expired token is rejected without verifying its signature - see {@link #checkExpiry(String)} for how that differs
+ * from the parser.
+ */
+@Service
+public class JwtPrecheck {
+
+    public enum Rejection {
+        TOO_LONG("JWT is longer than the allowed maximum."),
+        HEADER_TOO_LONG("JWT header is longer than the allowed maximum."),
+        SEGMENT_COUNT("JWS strings must contain exactly 2 period characters."),
+        EMPTY_SEGMENT("JWS header, payload and signature must not be empty."),
+        SEGMENT_LENGTH("JWT segment is not valid Base64URL."),
+        ILLEGAL_CHARACTER("JWT contains a character outside the Base64URL alphabet."),
+        EXPIRED("JWT expired."),
+        PREMATURE("JWT must not be accepted before its nbf time.");
+
+        private final String message;
+
+        Rejection(String message) {
+            this.message = message;
+        }
+
+        public String getMessage() {
+            return message;
+        }
+    }
+
+    // the 6 bit value of each Base64URL character, -1 for everything else
+    private static final byte[] BASE64URL_VALUES = new byte[128];
+
+    static {
+        Arrays.fill(BASE64URL_VALUES, (byte) -1);
+        char[] alphabet = "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789-_".toCharArray();
+        for (int i = 0; i < alphabet.length; i++) {
+            BASE64URL_VALUES[alphabet[i]] = (byte) i;
+        }
+    }
+
+    private static final JsonFactory JSON_FACTORY = new JsonFactory();
+
+    private static final ObjectMapper OBJECT_MAPPER = new ObjectMapper();
+
+    private static final ScratchPool<PayloadBuffer> PAYLOAD_BUFFERS = new ScratchPool<>(PayloadBuffer::new);
+
+    // exp/nbf values this check can't interpret exactly like the parser does
+    private static final long UNREADABLE = Long.MIN_VALUE;
+
+    @Value("${jwt.precheck.enabled:true}")
+    private boolean enabled;
+
+    @Value("${jwt.precheck.max-length:8192}")
+    private int maxLength;
+
+    @Value("${jwt.precheck.max-header-length:1024}")
+    private int maxHeaderLength;
+
+    // only ever makes the early rejection more lenient than the parser, which allows no skew
+    @Value("${jwt.precheck.expiry.clock-skew-seconds:0}")
+    private long clockSkewSeconds;
+
+    @Autowired
+    MeterRegistry meterRegistry;
+
+    private Counter passed;
+    private Counter[] rejected;
+
+    @PostConstruct
+    void init() {
+        passed = meterRegistry.counter("jwt.precheck.passed");
+
+        Rejection[] rejections = Rejection.values();
+        rejected = new Counter[rejections.length];
+        for (Rejection rejection : rejections) {
+            rejected[rejection.ordinal()] = meterRegistry.counter(
+                "jwt.precheck.rejected", "reason", rejection.name().toLowerCase()
+            );
+        }
+    }
+
+    /**
+     * @throws MalformedJwtException if the JWT can't possibly be a well formed JWS
+     */
+    public void check(String jwt) {
+        if (!enabled) {
+            return;
+        }
+
+        Rejection rejection = inspect(jwt, maxLength, maxHeaderLength);
+        if (rejection != null) {
+            rejected[rejection.ordinal()].increment();
+            throw new MalformedJwtException(rejection.getMessage());
+        }
+
+        passed.increment();
+    }
+
+    /**
+     * Rejects a JWT past its {@code exp} or before its {@code nbf} from its payload alone, without verifying its
+     * signature. Only for callers that opt in, as the outcome differs from the parser's for forged tokens: the parser
+     * checks the signature first, so a token that is both expired and forged fails there with a
+     * {@code SignatureException}, and here with an {@link ExpiredJwtException}. Otherwise the exception is the parser's,
+     * unverified header and claims included, with a shorter message.
+     * <p>
+     * A JWT whose header or payload this check can't read the way the parser would, like a compressed one, is left to
+     * the parser.
+     *
+     * @throws ExpiredJwtException if the JWT has expired
+     * @throws PrematureJwtException if the JWT is not valid yet
+     */
+    public void checkExpiry(String jwt) {
+        Rejection rejection = inspectTimes(jwt, System.currentTimeMillis(), clockSkewSeconds * 1000);
+        if (rejection == null) {
+            return;
+        }
+
+        // only now, as the exceptions carry them
+        int headerEnd = indexOf(jwt, '.', 0);
+        Map<String, Object> header = readJson(jwt.substring(0, headerEnd));
+        Map<String, Object> claims = readJson(jwt.substring(headerEnd + 1, indexOf(jwt, '.', headerEnd + 1)));
+        if (header == null || claims == null) {
+            // for the parser to report as malformed
+            return;
+        }
+        reject(rejection, new DefaultJwsHeader(header), new DefaultClaims(claims));
+    }
+
+    /**
+     * {@link #checkExpiry(String)} for a JWT whose header and claims have been parsed but not verified yet, like one read
+     * off Kafka in binary form.
+     *
+     * @throws ExpiredJwtException if the JWT has expired
+     * @throws PrematureJwtException if the JWT is not valid yet
+     */
+    public void checkTimes(Header header, Claims claims) {
+        long now = System.currentTimeMillis();
+        long clockSkewMillis = clockSkewSeconds * 1000;
+        Date expiration = claims.getExpiration();
+        if (expiration != null && now - clockSkewMillis >= expiration.getTime()) {
+            reject(Rejection.EXPIRED, header, claims);
+        }
+        Date notBefore = claims.getNotBefore();
+        if (notBefore != null && now + clockSkewMillis < notBefore.getTime()) {
+            reject(Rejection.PREMATURE, header, claims);
+        }
+
+        passed.increment();
+    }
+
+    private void reject(Rejection rejection, Header header, Claims claims) {
+        rejected[rejection.ordinal()].increment();
+        if (rejection == Rejection.EXPIRED) {
+            throw new ExpiredJwtException(header, claims, rejection.getMessage());
+        }
+        throw new PrematureJwtException(header, claims, rejection.getMessage());
+    }
+
+    // a segment read the way DefaultJwtParser reads it, or null where the parser would fail
+    @SuppressWarnings("unchecked")
+    private static Map<String, Object> readJson(String segment) {
+        try {
+            return OBJECT_MAPPER.readValue(TextCodec.BASE64URL.decodeToString(segment), Map.class);
+        } catch (IOException | RuntimeException e) {
+            return null;
+        }
+    }
+
+    /**
+     * @return why the JWT was rejected, or {@code null} if it looks like a well formed JWS
+     */
+    public static Rejection inspect(CharSequence jwt, int maxLength, int maxHeaderLength) {
+        int length = jwt.length();
+        if (length > maxLength) {
+            return Rejection.TOO_LONG;
+        }
+
+        int periods = 0;
+        int segmentStart = 0;
+        // one step past the end, so the last segment is checked like the others
+        for (int i = 0; i <= length; i++) {
+            char c = i < length ? jwt.charAt(i) : '.';
+            if (c == '.') {
+                int segmentLength = i - segmentStart;
+                if (segmentLength == 0) {
+                    return Rejection.EMPTY_SEGMENT;
+                }
+                // unpadded Base64URL never leaves a single character in the last quantum
+                if (segmentLength % 4 == 1) {
+                    return Rejection.SEGMENT_LENGTH;
+                }
+                if (i < length && ++periods > 2) {
+                    return Rejection.SEGMENT_COUNT;
+                }
+                segmentStart = i + 1;
+            } else if (c >= BASE64URL_VALUES.length || BASE64URL_VALUES[c] < 0) {
+                return Rejection.ILLEGAL_CHARACTER;
+            } else if (periods == 0 && i >= maxHeaderLength) {
+                return Rejection.HEADER_TOO_LONG;
+            }
+        }
+
+        return periods == 2 ? null : Rejection.SEGMENT_COUNT;
+    }
+
+    /**
+     * Reads {@code exp} and {@code nbf} from the payload alone and compares them with {@code nowMillis} the way the
+     * parser does.
+     *
+     * @return {@link Rejection#EXPIRED}, {@link Rejection#PREMATURE} or {@code null} if the JWT is current or its
+     * payload has to be left to the parser
+     */
+    public static Rejection inspectTimes(CharSequence jwt, long nowMillis, long clockSkewMillis) {
+        int headerEnd = indexOf(jwt, '.', 0);
+        int payloadEnd = headerEnd < 0 ? -1 : indexOf(jwt, '.', headerEnd + 1);
+        if (payloadEnd < 0) {
+            return null;
+        }
+
+        PayloadBuffer payload = PAYLOAD_BUFFERS.take();
+        try {
+            return inspectTimes(jwt, headerEnd + 1, payloadEnd, payload, nowMillis, clockSkewMillis);
+        } finally {
+            PAYLOAD_BUFFERS.release(payload);
+        }
+    }
+
+    private static Rejection inspectTimes(
+        CharSequence jwt, int payloadStart, int payloadEnd, PayloadBuffer payload, long nowMillis, long clockSkewMillis
+    ) {
+        int length = payload.decode(jwt, payloadStart, payloadEnd);
+        // compressed payloads aren't JSON until they're inflated
+        if (length <= 0 || payload.bytes[0] != '{') {
+            return null;
+        }
+
+        long expiration = 0;
+        long notBefore = 0;
+        boolean hasExpiration = false;
+        boolean hasNotBefore = false;
+
+        try (JsonParser parser = JSON_FACTORY.createParser(payload.bytes, 0, length)) {
+            parser.nextToken();
+            while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                String name = parser.getCurrentName();
+                JsonToken value = parser.nextToken();
+                // like the parser's map, the last occurrence of a claim wins
+                if (Claims.EXPIRATION.equals(name)) {
+                    hasExpiration = value != JsonToken.VALUE_NULL;
+                    expiration = hasExpiration ? seconds(parser, value) : 0;
+                    if (expiration == UNREADABLE) {
+                        return null;
+                    }
+                } else if (Claims.NOT_BEFORE.equals(name)) {
+                    hasNotBefore = value != JsonToken.VALUE_NULL;
+                    notBefore = hasNotBefore ? seconds(parser, value) : 0;
+                    if (notBefore == UNREADABLE) {
+                        return null;
+                    }
+                } else {
+                    parser.skipChildren();
+                }
+            }
+            // anything but a single, complete object is for the parser to report
+            if (parser.getCurrentToken() != JsonToken.END_OBJECT || parser.nextToken() != null) {
+                return null;
+            }
+        } catch (IOException e) {
+            return null;
+        }
+
+        // same arithmetic and order as DefaultJwtParser
+        if (hasExpiration && nowMillis - clockSkewMillis >= expiration * 1000L) {
+            return Rejection.EXPIRED;
+        }
+        if (hasNotBefore && nowMillis + clockSkewMillis < notBefore * 1000L) {
+            return Rejection.PREMATURE;
+        }
+        return null;
+    }
+
+    // the seconds JwtMap.toDate would read from the value
+    private static long seconds(JsonParser parser, JsonToken value) throws IOException {
+        switch (value) {
+            case VALUE_NUMBER_INT:
+                JsonParser.NumberType type = parser.getNumberType();
+                return type == JsonParser.NumberType.BIG_INTEGER ? UNREADABLE : parser.getLongValue();
+            case VALUE_NUMBER_FLOAT:
+                return (long) parser.getDoubleValue();
+            case VALUE_STRING:
+                try {
+                    return Long.parseLong(parser.getText());
+                } catch (NumberFormatException e) {
+                    return UNREADABLE;
+                }
+            default:
+                return UNREADABLE;
+        }
+    }
+
+    private static int indexOf(CharSequence s, char c, int from) {
+        for (int i = from; i < s.length(); i++) {
+            if (s.charAt(i) == c) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private static class PayloadBuffer {
+
+        private byte[] bytes = new byte[1024];
+
+        /**
+         * @return the number of decoded bytes, or -1 if the characters aren't valid Base64URL
+         */
+        int decode(CharSequence s, int from, int to) {
+            int length = to - from;
+            if (length % 4 == 1) {
+                return -1;
+            }
+
+            int size = length / 4 * 3 + Math.max(length % 4 - 1, 0);
+            if (size > bytes.length) {
+                bytes = new byte[size];
+            }
+
+            int bits = 0;
+            int bitCount = 0;
+            int position = 0;
+            for (int i = from; i < to; i++) {
+                char c = s.charAt(i);
+                int value = c < BASE64URL_VALUES.length ? BASE64URL_VALUES[c] : -1;
+                if (value < 0) {
+                    return -1;
+                }
+                bits = bits << 6 | value;
+                bitCount += 6;
+                if (bitCount >= 8) {
+                    bitCount -= 8;
+                    bytes[position++] = (byte) (bits >>> bitCount);
+                }
+            }
+            return position;
+        }
+    }
+}
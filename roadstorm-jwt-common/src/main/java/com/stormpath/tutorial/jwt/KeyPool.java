@@ -0,0 +1,54 @@
+package com.stormpath.tutorial.jwt;
+
+import java.io.Closeable;
+import java.util.ArrayDeque;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.Supplier;
+
+/**
+ * Keys generated ahead of time on a dedicated thread, so rotating keys never waits for key generation on the caller.
+ * <p>
+ * The pool holds a fixed number of keys, each ready or being generated. Taking one immediately queues the generation of
+ * its replacement. Only if keys are taken faster than they can be generated does a caller get a key that isn't ready
+ * yet, and even then the returned future completes without tying up the caller's thread.
+ */
+public class KeyPool<K> implements Closeable {
+
+    private final Supplier<K> generator;
+    private final ExecutorService executor;
+    private final Queue<CompletableFuture<K>> keys = new ArrayDeque<>();
+
+    public KeyPool(String name, Supplier<K> generator, int size) {
+        this.generator = generator;
+        this.executor = Executors.newSingleThreadExecutor(r -> {
+            Thread thread = new Thread(r, "key-pool-" + name);
+            thread.setDaemon(true);
+            return thread;
+        });
+
+        for (int i = 0; i < Math.max(size, 1); i++) {
+            keys.add(generate());
+        }
+    }
+
+    /**
+     * @return the oldest key in the pool, which is usually already done
+     */
+    public synchronized CompletableFuture<K> take() {
+        CompletableFuture<K> key = keys.remove();
+        keys.add(generate());
+        return key;
+    }
+
+    @Override
+    public void close() {
+        executor.shutdownNow();
+    }
+
+    private CompletableFuture<K> generate() {
+        return CompletableFuture.supplyAsync(generator, executor);
+    }
+}
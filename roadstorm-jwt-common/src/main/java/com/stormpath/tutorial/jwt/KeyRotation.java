@@ -0,0 +1,12 @@
+package com.stormpath.tutorial.jwt;
+
+/**
+ * Something that holds signing keys and can switch to new ones, rotated by the {@link KeyRotationScheduler}.
+ */
+public interface KeyRotation {
+
+    /**
+     * Switches to new keys. The keys being replaced keep verifying for as long as the implementation allows.
+     */
+    void rotate();
+}
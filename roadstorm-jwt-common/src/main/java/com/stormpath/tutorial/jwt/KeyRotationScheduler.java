@@ -0,0 +1,26 @@
+package com.stormpath.tutorial.jwt;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+/**
+ * Rotates the application's keys every {@code jwt.rotation.interval-ms}. How long the keys being replaced stay trusted
+ * is up to the {@link KeyRotation}.
+ */
+@Service
+@ConditionalOnProperty(name = "jwt.rotation.enabled", havingValue = "true")
+public class KeyRotationScheduler {
+
+    @Autowired
+    KeyRotation keyRotation;
+
+    @Scheduled(
+        initialDelayString = "${jwt.rotation.interval-ms:3600000}",
+        fixedDelayString = "${jwt.rotation.interval-ms:3600000}"
+    )
+    public void rotate() {
+        keyRotation.rotate();
+    }
+}
@@ -0,0 +1,355 @@
+package com.stormpath.tutorial.jwt;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.zip.CRC32;
+
+/**
+ * Append-only log of small records in a memory-mapped file.
+ * <p>
+ * Each record is an {@code int} body length, the CRC32 of the body, and the body: a type byte followed by
+ * length-prefixed fields. The length is written last and the mapping is forced to disk after every append, so a record
+ * only exists once it is complete. When the log is opened, the first record whose CRC doesn't match, such as one torn
+ * by a crash, ends the log and everything from there on is discarded.
+ * <p>
+ * The fields of the records read at open are views into the mapping, so nothing is copied onto the heap until a field
+ * is actually used.
+ * <p>
+ * Records that are no longer needed are only dropped by {@link #rewrite(List)}, which replaces the file with one that
+ * holds just the records still in use.
+ * <p>
+ * A log is at most 2 GiB, the most a single mapping can hold.
+ */
+public class MappedRecordLog implements Closeable {
+
+    private static final Logger log = LoggerFactory.getLogger(MappedRecordLog.class);
+
+    private static final int HEADER_SIZE = 8;
+
+    private final Path path;
+    private final int initialSize;
+    private FileChannel channel;
+    private MappedByteBuffer buffer;
+    private int position;
+
+    // every mapping of the current file, as records may still point into the ones grown out of
+    private final List<MappedByteBuffer> mappings = new ArrayList<>();
+
+    private final List<Record> records = new ArrayList<>();
+
+    public MappedRecordLog(Path path, int initialSize) throws IOException {
+        this.path = path;
+        this.initialSize = initialSize;
+        createOwnerOnly(path);
+        this.channel = FileChannel.open(path, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        this.buffer = map(channel, Math.max(channel.size(), initialSize));
+
+        recover();
+    }
+
+    /**
+     * @return the records that were in the log when it was opened, oldest first
+     */
+    public List<Record> getRecords() {
+        return Collections.unmodifiableList(records);
+    }
+
+    /**
+     * @return the appended record, to hand back to {@link #rewrite(List)} as long as it is still needed
+     */
+    public synchronized Record append(byte type, byte[]... fields) throws IOException {
+        Record record = Record.of(type, fields);
+        ensureCapacity((long) position + HEADER_SIZE + record.size());
+
+        position = record.write(buffer, position);
+        buffer.force();
+        return record;
+    }
+
+    /**
+     * Replaces the log with one that holds only {@code live}, in that order, dropping every other record from the disk.
+     * <p>
+     * The records are written to a new file that is then moved over the log, and the directory is forced to disk, so a
+     * crash leaves either the old log or the new one. The old file is unmapped afterwards, and the records read from it
+     * at open copy their fields onto the heap first, so they stay usable. Where the JDK doesn't let the mapping be
+     * released, it stays live until the garbage collector gets to it. On Windows, where a file can't be replaced while
+     * it is mapped, the move fails and the old log is kept.
+     *
+     * @throws IOException if the records don't fit in a log, or can't be written
+     */
+    public synchronized void rewrite(List<Record> live) throws IOException {
+        long size = 0;
+        for (Record record : live) {
+            size += HEADER_SIZE + record.size();
+        }
+        if (size > Integer.MAX_VALUE) {
+            throw new IOException("Unable to rewrite " + path + ", its " + size + " bytes of records exceed 2 GiB");
+        }
+
+        Path tmp = path.resolveSibling(path.getFileName() + ".tmp");
+        Files.deleteIfExists(tmp);
+        createOwnerOnly(tmp);
+
+        FileChannel nextChannel = null;
+        MappedByteBuffer next;
+        int nextPosition = 0;
+        try {
+            nextChannel = FileChannel.open(tmp, StandardOpenOption.READ, StandardOpenOption.WRITE);
+            next = nextChannel.map(FileChannel.MapMode.READ_WRITE, 0, Math.max((int) size, initialSize));
+            for (Record record : live) {
+                nextPosition = record.write(next, nextPosition);
+            }
+            next.force();
+
+            Files.move(tmp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            forceDirectory(path.toAbsolutePath().getParent());
+        } catch (IOException | RuntimeException e) {
+            if (nextChannel != null) {
+                nextChannel.close();
+            }
+            Files.deleteIfExists(tmp);
+            throw e;
+        }
+
+        for (Record record : records) {
+            record.detach();
+        }
+        channel.close();
+        mappings.forEach(MappedRecordLog::unmap);
+        mappings.clear();
+
+        channel = nextChannel;
+        buffer = next;
+        mappings.add(next);
+        position = nextPosition;
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        channel.close();
+    }
+
+    private void recover() {
+        int limit = buffer.capacity();
+        while (position + HEADER_SIZE <= limit) {
+            int bodySize = buffer.getInt(position);
+            if (bodySize == 0) {
+                return;
+            }
+
+            Record record = null;
+            if (bodySize > 0 && bodySize <= limit - position - HEADER_SIZE &&
+                buffer.getInt(position + 4) == crc(buffer, position + HEADER_SIZE, bodySize)) {
+                record = Record.read(buffer, position + HEADER_SIZE, bodySize);
+            }
+
+            if (record == null) {
+                log.warn("Discarding damaged records in {} from offset {}", path, position);
+                // so the leftovers can't be mistaken for records once new ones are appended over them
+                for (int i = position; i < limit; i++) {
+                    buffer.put(i, (byte) 0);
+                }
+                buffer.force();
+                return;
+            }
+
+            records.add(record);
+            position += HEADER_SIZE + bodySize;
+        }
+    }
+
+    private void ensureCapacity(long capacity) throws IOException {
+        if (capacity > Integer.MAX_VALUE) {
+            throw new IOException("Unable to append to " + path + ", the record would take it past 2 GiB");
+        }
+        if (capacity > buffer.capacity()) {
+            // the old mapping stays valid for the records that still point into it
+            long size = Math.min(Math.max(capacity, 2L * buffer.capacity()), Integer.MAX_VALUE);
+            buffer = map(channel, size);
+        }
+    }
+
+    private MappedByteBuffer map(FileChannel channel, long size) throws IOException {
+        MappedByteBuffer mapping = channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+        mappings.add(mapping);
+        return mapping;
+    }
+
+    // the rename is only durable once the directory entry is, where the platform lets a directory be opened
+    private static void forceDirectory(Path directory) {
+        try (FileChannel channel = FileChannel.open(directory, StandardOpenOption.READ)) {
+            channel.force(true);
+        } catch (IOException | RuntimeException e) {
+            log.debug("Unable to force directory {} to disk: {}", directory, e.toString());
+        }
+    }
+
+    // releases the mapping right away rather than whenever the buffer is collected, where the JDK allows it
+    private static void unmap(MappedByteBuffer mapping) {
+        try {
+            Class<?> unsafeClass = Class.forName("sun.misc.Unsafe");
+            Method invokeCleaner;
+            try {
+                // Java 9 and later, where the buffer's own cleaner is out of reach
+                invokeCleaner = unsafeClass.getMethod("invokeCleaner", ByteBuffer.class);
+            } catch (NoSuchMethodException e) {
+                Method cleanerMethod = mapping.getClass().getMethod("cleaner");
+                cleanerMethod.setAccessible(true);
+                Object cleaner = cleanerMethod.invoke(mapping);
+                if (cleaner != null) {
+                    cleaner.getClass().getMethod("clean").invoke(cleaner);
+                }
+                return;
+            }
+            Field theUnsafe = unsafeClass.getDeclaredField("theUnsafe");
+            theUnsafe.setAccessible(true);
+            invokeCleaner.invoke(theUnsafe.get(null), mapping);
+        } catch (ReflectiveOperationException | RuntimeException e) {
+            log.debug("Unable to unmap the old mapping, it stays live until it is garbage collected: {}", e.toString());
+        }
+    }
+
+    private static int crc(ByteBuffer buffer, int offset, int length) {
+        ByteBuffer body = buffer.duplicate();
+        body.position(offset);
+        body.limit(offset + length);
+
+        CRC32 crc = new CRC32();
+        crc.update(body);
+        return (int) crc.getValue();
+    }
+
+    // the logs hold private keys and secrets
+    private static void createOwnerOnly(Path path) throws IOException {
+        if (Files.exists(path)) {
+            return;
+        }
+        try {
+            Files.createFile(path, PosixFilePermissions.asFileAttribute(PosixFilePermissions.fromString("rw-------")));
+        } catch (UnsupportedOperationException e) {
+            Files.createFile(path);
+        } catch (FileAlreadyExistsException e) {
+            // created in the meantime
+        }
+    }
+
+    public static class Record {
+
+        private final byte type;
+        // views into the mapping until the record is detached from it, guarded by this
+        private ByteBuffer[] fields;
+
+        private Record(byte type, ByteBuffer[] fields) {
+            this.type = type;
+            this.fields = fields;
+        }
+
+        private static Record of(byte type, byte[]... fields) {
+            ByteBuffer[] buffers = new ByteBuffer[fields.length];
+            for (int i = 0; i < fields.length; i++) {
+                buffers[i] = ByteBuffer.wrap(fields[i]).asReadOnlyBuffer();
+            }
+            return new Record(type, buffers);
+        }
+
+        // null if the fields don't add up to the body
+        private static Record read(ByteBuffer buffer, int offset, int size) {
+            ByteBuffer body = buffer.duplicate();
+            body.position(offset);
+            body.limit(offset + size);
+
+            byte type = body.get();
+            List<ByteBuffer> fields = new ArrayList<>();
+            while (body.hasRemaining()) {
+                if (body.remaining() < 4) {
+                    return null;
+                }
+                int length = body.getInt();
+                if (length < 0 || length > body.remaining()) {
+                    return null;
+                }
+                ByteBuffer field = body.slice();
+                field.limit(length);
+                fields.add(field.asReadOnlyBuffer());
+                body.position(body.position() + length);
+            }
+            return new Record(type, fields.toArray(new ByteBuffer[fields.size()]));
+        }
+
+        public byte getType() {
+            return type;
+        }
+
+        public synchronized int getFieldCount() {
+            return fields.length;
+        }
+
+        public synchronized byte[] getBytes(int field) {
+            ByteBuffer view = fields[field].duplicate();
+            byte[] bytes = new byte[view.remaining()];
+            view.get(bytes);
+            return bytes;
+        }
+
+        public String getString(int field) {
+            return new String(getBytes(field), StandardCharsets.UTF_8);
+        }
+
+        // the body size
+        private synchronized int size() {
+            int size = 1;
+            for (ByteBuffer field : fields) {
+                size += 4 + field.remaining();
+            }
+            return size;
+        }
+
+        /**
+         * Writes the record at {@code position}, the length last, so it only exists once it is complete.
+         *
+         * @return the position after the record
+         */
+        private synchronized int write(ByteBuffer buffer, int position) {
+            int bodySize = size();
+
+            ByteBuffer body = buffer.duplicate();
+            body.position(position + HEADER_SIZE);
+            body.put(type);
+            for (ByteBuffer field : fields) {
+                body.putInt(field.remaining());
+                body.put(field.duplicate());
+            }
+
+            buffer.putInt(position + 4, crc(buffer, position + HEADER_SIZE, bodySize));
+            buffer.putInt(position, bodySize);
+            return position + HEADER_SIZE + bodySize;
+        }
+
+        // copies the fields onto the heap, before the mapping they point into goes away
+        private synchronized void detach() {
+            ByteBuffer[] copies = new ByteBuffer[fields.length];
+            for (int i = 0; i < fields.length; i++) {
+                copies[i] = ByteBuffer.wrap(getBytes(i)).asReadOnlyBuffer();
+            }
+            fields = copies;
+        }
+    }
+}
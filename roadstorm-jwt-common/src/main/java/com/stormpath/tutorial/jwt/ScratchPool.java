@@ -0,0 +1,61 @@
+package com.stormpath.tutorial.jwt;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+/**
+ * Scratch objects - buffers, {@link java.security.Signature} instances - reused across threads, in place of a
+ * {@code ThreadLocal}.
+ * <p>
+ * A caller takes an object for the duration of one call and releases it afterwards, so the pool only ever holds as many
+ * objects as were in use at once, and never more than {@code maxIdle}. A {@code ThreadLocal} would build a new object
+ * for every thread instead, which with virtual threads, started per task and never reused, means for every call.
+ */
+public class ScratchPool<T> {
+
+    // the work done with a scratch object doesn't block, so about one per core is in use at a time
+    public static final int DEFAULT_MAX_IDLE = Runtime.getRuntime().availableProcessors() * 2;
+
+    private final Supplier<T> factory;
+    private final int maxIdle;
+    private final Queue<T> idle = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger idleCount = new AtomicInteger();
+
+    public ScratchPool(Supplier<T> factory) {
+        this(factory, DEFAULT_MAX_IDLE);
+    }
+
+    public ScratchPool(Supplier<T> factory, int maxIdle) {
+        this.factory = factory;
+        this.maxIdle = maxIdle;
+    }
+
+    /**
+     * @return an idle object, or a new one if there is none
+     */
+    public T take() {
+        T scratch = idle.poll();
+        if (scratch == null) {
+            return factory.get();
+        }
+        idleCount.decrementAndGet();
+        return scratch;
+    }
+
+    /**
+     * Hands the object back for reuse. Beyond {@code maxIdle} idle objects it is left to the garbage collector.
+     */
+    public void release(T scratch) {
+        if (idleCount.incrementAndGet() > maxIdle) {
+            idleCount.decrementAndGet();
+            return;
+        }
+        idle.offer(scratch);
+    }
+
+    int idle() {
+        return idleCount.get();
+    }
+}
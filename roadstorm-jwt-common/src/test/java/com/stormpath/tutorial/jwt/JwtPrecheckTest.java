@@ -0,0 +1,93 @@
+package com.stormpath.tutorial.jwt;
+
+import io.jsonwebtoken.ExpiredJwtException;
+import io.jsonwebtoken.Jwts;
+import io.jsonwebtoken.PrematureJwtException;
+import io.jsonwebtoken.SignatureAlgorithm;
+import io.jsonwebtoken.impl.TextCodec;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.beans.DirectFieldAccessor;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Date;
+import java.util.HashMap;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.assertj.core.api.Assertions.catchThrowable;
+
+public class JwtPrecheckTest {
+
+    private static final long HOUR = 3600000;
+    private static final byte[] SECRET = "a secret of at least thirty-two bytes".getBytes(StandardCharsets.UTF_8);
+
+    private JwtPrecheck jwtPrecheck;
+
+    @Before
+    public void setup() {
+        jwtPrecheck = new JwtPrecheck();
+        DirectFieldAccessor fields = new DirectFieldAccessor(jwtPrecheck);
+        fields.setPropertyValue("enabled", true);
+        fields.setPropertyValue("maxLength", 8192);
+        fields.setPropertyValue("maxHeaderLength", 1024);
+        fields.setPropertyValue("clockSkewSeconds", 0L);
+        jwtPrecheck.meterRegistry = new SimpleMeterRegistry();
+        jwtPrecheck.init();
+    }
+
+    @Test
+    public void expiredJwtIsRejectedWithTheParsersHeaderAndClaims() {
+        String jwt = jwt(new Date(System.currentTimeMillis() - HOUR), null);
+
+        ExpiredJwtException expected = (ExpiredJwtException) catchThrowable(() ->
+            Jwts.parser().setSigningKey(SECRET).parseClaimsJws(jwt)
+        );
+        ExpiredJwtException rejected = (ExpiredJwtException) catchThrowable(() -> jwtPrecheck.checkExpiry(jwt));
+
+        // neither compares by content
+        assertThat(new HashMap<>(rejected.getHeader())).isEqualTo(new HashMap<>(expected.getHeader()));
+        assertThat(new HashMap<>(rejected.getClaims())).isEqualTo(new HashMap<>(expected.getClaims()));
+    }
+
+    @Test
+    public void prematureJwtIsRejectedWithItsHeaderAndClaims() {
+        String jwt = jwt(null, new Date(System.currentTimeMillis() + HOUR));
+
+        PrematureJwtException rejected = (PrematureJwtException) catchThrowable(() -> jwtPrecheck.checkExpiry(jwt));
+
+        assertThat(rejected.getHeader().get("alg")).isEqualTo("HS256");
+        assertThat(rejected.getClaims().getSubject()).isEqualTo("anna");
+    }
+
+    @Test
+    public void currentJwtPasses() {
+        jwtPrecheck.checkExpiry(jwt(new Date(System.currentTimeMillis() + HOUR), null));
+    }
+
+    @Test
+    public void expiredJwtWithAHeaderTheParserCantReadIsLeftToIt() {
+        String jwt = jwt(new Date(System.currentTimeMillis() - HOUR), null);
+        String unreadable = TextCodec.BASE64URL.encode("{\"alg\":".getBytes(StandardCharsets.UTF_8));
+
+        jwtPrecheck.checkExpiry(unreadable + jwt.substring(jwt.indexOf('.')));
+    }
+
+    @Test
+    public void structuralCheckLeavesExpiryToTheParser() {
+        jwtPrecheck.check(jwt(new Date(System.currentTimeMillis() - HOUR), null));
+
+        assertThatThrownBy(() -> jwtPrecheck.check("abcd.abcd"))
+            .hasMessage(JwtPrecheck.Rejection.SEGMENT_COUNT.getMessage());
+    }
+
+    private static String jwt(Date expiration, Date notBefore) {
+        return Jwts.builder()
+            .setSubject("anna")
+            .setExpiration(expiration)
+            .setNotBefore(notBefore)
+            .signWith(SignatureAlgorithm.HS256, SECRET)
+            .compact();
+    }
+}
@@ -0,0 +1,77 @@
+package com.stormpath.tutorial.jwt;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class MappedRecordLogTest {
+
+    private static final byte KEY = 1;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void reopenedLogHasTheAppendedRecords() throws Exception {
+        Path path = folder.getRoot().toPath().resolve("log");
+        try (MappedRecordLog log = new MappedRecordLog(path, 64)) {
+            // past the initial size, so the log has to grow
+            for (int i = 0; i < 10; i++) {
+                log.append(KEY, utf8("kid-" + i), utf8("value-" + i));
+            }
+        }
+
+        try (MappedRecordLog log = new MappedRecordLog(path, 64)) {
+            assertThat(kids(log.getRecords())).containsExactly(
+                "kid-0", "kid-1", "kid-2", "kid-3", "kid-4", "kid-5", "kid-6", "kid-7", "kid-8", "kid-9"
+            );
+            assertThat(log.getRecords().get(9).getString(1)).isEqualTo("value-9");
+        }
+    }
+
+    @Test
+    public void rewriteKeepsOnlyTheLiveRecords() throws Exception {
+        Path path = folder.getRoot().toPath().resolve("log");
+        try (MappedRecordLog log = new MappedRecordLog(path, 1024)) {
+            log.append(KEY, utf8("purged"), new byte[512]);
+            log.append(KEY, utf8("kept"), utf8("value"));
+        }
+        long sizeBefore = Files.size(path);
+
+        try (MappedRecordLog log = new MappedRecordLog(path, 0)) {
+            MappedRecordLog.Record kept = log.getRecords().get(1);
+            MappedRecordLog.Record appended = log.append(KEY, utf8("appended"), utf8("value"));
+
+            log.rewrite(Arrays.asList(kept, appended));
+
+            // read from the old mapping before it was unmapped, and still readable after
+            assertThat(kept.getString(0)).isEqualTo("kept");
+            assertThat(log.getRecords().get(0).getString(0)).isEqualTo("purged");
+
+            log.append(KEY, utf8("after"), utf8("value"));
+        }
+
+        assertThat(Files.size(path)).isLessThan(sizeBefore);
+        assertThat(Files.exists(path.resolveSibling("log.tmp"))).isFalse();
+        try (MappedRecordLog log = new MappedRecordLog(path, 0)) {
+            assertThat(kids(log.getRecords())).containsExactly("kept", "appended", "after");
+        }
+    }
+
+    private static List<String> kids(List<MappedRecordLog.Record> records) {
+        return records.stream().map(record -> record.getString(0)).collect(Collectors.toList());
+    }
+
+    private static byte[] utf8(String s) {
+        return s.getBytes(StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,45 @@
+package com.stormpath.tutorial.jwt;
+
+import org.junit.Test;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class ScratchPoolTest {
+
+    @Test
+    public void releasedObjectsAreReusedFromAnyThread() throws Exception {
+        AtomicInteger created = new AtomicInteger();
+        ScratchPool<Object> pool = new ScratchPool<>(() -> {
+            created.incrementAndGet();
+            return new Object();
+        }, 2);
+
+        Object scratch = pool.take();
+        pool.release(scratch);
+
+        Object[] taken = new Object[1];
+        Thread other = new Thread(() -> taken[0] = pool.take());
+        other.start();
+        other.join();
+
+        assertThat(taken[0]).isSameAs(scratch);
+        assertThat(created.get()).isEqualTo(1);
+    }
+
+    @Test
+    public void holdsAtMostMaxIdleObjects() {
+        ScratchPool<Object> pool = new ScratchPool<>(Object::new, 2);
+        Object[] taken = { pool.take(), pool.take(), pool.take() };
+
+        for (Object scratch : taken) {
+            pool.release(scratch);
+        }
+
+        assertThat(pool.idle()).isEqualTo(2);
+        pool.take();
+        pool.take();
+        assertThat(pool.idle()).isEqualTo(0);
+    }
+}
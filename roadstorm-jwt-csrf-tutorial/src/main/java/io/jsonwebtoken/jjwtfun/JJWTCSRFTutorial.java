@@ -1,9 +1,13 @@
 package io.jsonwebtoken.jjwtfun;
 
+import com.stormpath.tutorial.jwt.JwtMetrics;
 import org.springframework.boot.SpringApplication;
 import org.springframework.boot.autoconfigure.SpringBootApplication;
+import org.springframework.scheduling.annotation.EnableScheduling;
 
-@SpringBootApplication
+// the shared JWT services live outside this package
+@SpringBootApplication(scanBasePackageClasses = {JJWTCSRFTutorial.class, JwtMetrics.class})
+@EnableScheduling
 public class JJWTCSRFTutorial {
 
     public static void main(String[] args) {
@@ -1,11 +1,15 @@
 package io.jsonwebtoken.jjwtfun.config;
 
+import com.stormpath.tutorial.jwt.JwtMetrics;
+import io.jsonwebtoken.jjwtfun.service.NonceStore;
 import io.jsonwebtoken.jjwtfun.service.SecretService;
+import io.jsonwebtoken.jjwtfun.service.TimeBucketedNonceStore;
+import io.micrometer.core.instrument.MeterRegistry;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.boot.autoconfigure.condition.ConditionalOnMissingBean;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
-import org.springframework.security.web.csrf.CsrfTokenRepository;
 
 @Configuration
 public class CSRFConfig {
@@ -13,9 +17,39 @@ public class CSRFConfig {
     @Autowired
     SecretService secretService;
 
+    @Autowired
+    JwtMetrics jwtMetrics;
+
+    @Autowired
+    MeterRegistry meterRegistry;
+
+    @Value("${jwt.csrf.token.repository.stateless:false}")
+    boolean stateless;
+
+    @Value("${jwt.csrf.token.fingerprint.enabled:false}")
+    boolean fingerprintEnabled;
+
+    @Value("${jwt.csrf.nonce.bucket-millis:5000}")
+    long nonceBucketMillis;
+
+    @Value("${jwt.csrf.nonce.max-entries:1000000}")
+    int nonceMaxEntries;
+
+    @Bean
+    @ConditionalOnMissingBean
+    public JWTCSRFTokenRepository jwtCsrfTokenRepository() {
+        if (stateless) {
+            return new StatelessJWTCSRFTokenRepository(secretService, jwtMetrics, fingerprintEnabled);
+        }
+        return new JWTCSRFTokenRepository(secretService, jwtMetrics);
+    }
+
     @Bean
     @ConditionalOnMissingBean
-    public CsrfTokenRepository jwtCsrfTokenRepository() {
-        return new JWTCSRFTokenRepository(secretService.getHS256SecretBytes());
+    public NonceStore nonceStore() {
+        TimeBucketedNonceStore nonceStore =
+            new TimeBucketedNonceStore(JWTCSRFTokenRepository.TOKEN_LIFETIME_MILLIS, nonceBucketMillis, nonceMaxEntries);
+        nonceStore.bindTo(meterRegistry);
+        return nonceStore;
     }
 }
@@ -1,7 +1,13 @@
 package io.jsonwebtoken.jjwtfun.config;
 
+import com.stormpath.tutorial.jwt.JwtMetrics;
+import io.jsonwebtoken.Claims;
+import io.jsonwebtoken.Jws;
+import io.jsonwebtoken.JwtBuilder;
+import io.jsonwebtoken.JwtException;
 import io.jsonwebtoken.Jwts;
 import io.jsonwebtoken.SignatureAlgorithm;
+import io.jsonwebtoken.jjwtfun.service.SecretService;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.security.web.csrf.CsrfToken;
@@ -18,29 +24,52 @@ public class JWTCSRFTokenRepository implements CsrfTokenRepository {
 
     private static final String DEFAULT_CSRF_TOKEN_ATTR_NAME = CSRFConfig.class.getName().concat(".CSRF_TOKEN");
 
+    public static final long TOKEN_LIFETIME_MILLIS = 1000*30; // 30 seconds
+
+    protected static final String CSRF_HEADER_NAME = "X-CSRF-TOKEN";
+    protected static final String CSRF_PARAMETER_NAME = "_csrf";
+
     private static final Logger log = LoggerFactory.getLogger(JWTCSRFTokenRepository.class);
-    private byte[] secret;
+    protected SecretService secretService;
+    protected JwtMetrics jwtMetrics;
 
-    public JWTCSRFTokenRepository(byte[] secret) {
-        this.secret = secret;
+    public JWTCSRFTokenRepository(SecretService secretService, JwtMetrics jwtMetrics) {
+        this.secretService = secretService;
+        this.jwtMetrics = jwtMetrics;
     }
 
     @Override
     public CsrfToken generateToken(HttpServletRequest request) {
+        long start = System.nanoTime();
+        String token = secretService.signWith(tokenBuilder(request), SignatureAlgorithm.HS256).compact();
+        jwtMetrics.recordSign(SignatureAlgorithm.HS256, start);
+
+        return new DefaultCsrfToken(CSRF_HEADER_NAME, CSRF_PARAMETER_NAME, token);
+    }
+
+    /**
+     * Verifies the signature and expiration of a token that CsrfFilter has already matched against the request.
+     *
+     * @throws JwtException if the token is not valid
+     */
+    public Jws<Claims> verifyToken(String token, HttpServletRequest request) {
+        return jwtMetrics.verify(() -> Jwts.parser()
+            .setSigningKeyResolver(secretService.getSigningKeyResolver())
+            .parseClaimsJws(token)
+        );
+    }
+
+    protected JwtBuilder tokenBuilder(HttpServletRequest request) {
         String id = UUID.randomUUID().toString().replace("-", "");
 
         Date now = new Date();
-        Date exp = new Date(now.getTime() + (1000*30)); // 30 seconds
+        Date exp = new Date(now.getTime() + TOKEN_LIFETIME_MILLIS);
 
-        String token = Jwts.builder()
+        return Jwts.builder()
             .setId(id)
             .setIssuedAt(now)
             .setNotBefore(now)
-            .setExpiration(exp)
-            .signWith(SignatureAlgorithm.HS256, secret)
-            .compact();
-
-        return new DefaultCsrfToken("X-CSRF-TOKEN", "_csrf", token);
+            .setExpiration(exp);
     }
 
     @Override
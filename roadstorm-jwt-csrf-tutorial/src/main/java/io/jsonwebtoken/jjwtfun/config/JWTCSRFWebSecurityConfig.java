@@ -1,16 +1,21 @@
 package io.jsonwebtoken.jjwtfun.config;
 
+import com.stormpath.tutorial.jwt.JwtMetrics;
+import com.stormpath.tutorial.jwt.JwtPrecheck;
+import io.jsonwebtoken.Claims;
 import io.jsonwebtoken.JwtException;
-import io.jsonwebtoken.Jwts;
-import io.jsonwebtoken.jjwtfun.service.SecretService;
+import io.jsonwebtoken.jjwtfun.service.NonceStore;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
 import org.springframework.context.annotation.Configuration;
 import org.springframework.security.config.annotation.web.builders.HttpSecurity;
 import org.springframework.security.config.annotation.web.configuration.WebSecurityConfigurerAdapter;
+import org.springframework.security.config.http.SessionCreationPolicy;
 import org.springframework.security.web.csrf.CsrfFilter;
 import org.springframework.security.web.csrf.CsrfToken;
-import org.springframework.security.web.csrf.CsrfTokenRepository;
 import org.springframework.web.filter.OncePerRequestFilter;
 
 import javax.servlet.FilterChain;
@@ -26,10 +31,29 @@ import java.util.Arrays;
 public class JWTCSRFWebSecurityConfig extends WebSecurityConfigurerAdapter {
 
     @Autowired
-    CsrfTokenRepository jwtCsrfTokenRepository;
+    JWTCSRFTokenRepository jwtCsrfTokenRepository;
 
     @Autowired
-    SecretService secretService;
+    NonceStore nonceStore;
+
+    @Autowired
+    JwtMetrics jwtMetrics;
+
+    @Autowired
+    JwtPrecheck jwtPrecheck;
+
+    @Autowired
+    MeterRegistry meterRegistry;
+
+    @Value("${jwt.csrf.token.repository.stateless:false}")
+    boolean stateless;
+
+    @Value("${jwt.csrf.nonce.enabled:true}")
+    boolean nonceEnabled;
+
+    // opt-in, as a forged and expired token is then reported as expired rather than as badly signed
+    @Value("${jwt.precheck.expiry.csrf-filter:false}")
+    boolean expiryPrecheck;
 
     // ordered so we can use binary search below
     private String[] ignoreCsrfAntMatchers = {
@@ -42,7 +66,7 @@ public class JWTCSRFWebSecurityConfig extends WebSecurityConfigurerAdapter {
     @Override
     protected void configure(HttpSecurity http) throws Exception {
         http
-            .addFilterAfter(new JwtCsrfValidatorFilter(), CsrfFilter.class)
+            .addFilterAfter(new JwtCsrfValidatorFilter(meterRegistry.counter("csrf.token.replays")), CsrfFilter.class)
             .csrf()
                 .csrfTokenRepository(jwtCsrfTokenRepository)
                 .ignoringAntMatchers(ignoreCsrfAntMatchers)
@@ -50,14 +74,23 @@ public class JWTCSRFWebSecurityConfig extends WebSecurityConfigurerAdapter {
             .authorizeRequests()
                 .antMatchers("/**")
                 .permitAll();
+
+        if (stateless) {
+            // the CSRF token lives in a cookie, so nothing on this path needs a session
+            http.sessionManagement().sessionCreationPolicy(SessionCreationPolicy.STATELESS);
+        }
     }
 
     private class JwtCsrfValidatorFilter extends OncePerRequestFilter {
 
+        private final Counter replays;
+
+        JwtCsrfValidatorFilter(Counter replays) {
+            this.replays = replays;
+        }
+
         @Override
         protected void doFilterInternal(HttpServletRequest request, HttpServletResponse response, FilterChain filterChain) throws ServletException, IOException {
-            // NOTE: A real implementation should have a nonce cache so the token cannot be reused
-
             CsrfToken token = (CsrfToken) request.getAttribute("_csrf");
 
             if (
@@ -69,16 +102,34 @@ public class JWTCSRFWebSecurityConfig extends WebSecurityConfigurerAdapter {
                 token != null
             ) {
                 // CsrfFilter already made sure the token matched. Here, we'll make sure it's not expired
+                // and that it hasn't been used before
                 try {
-                    Jwts.parser()
-                        .setSigningKeyResolver(secretService.getSigningKeyResolver())
-                        .parseClaimsJws(token.getToken());
+                    jwtPrecheck.check(token.getToken());
+                    if (expiryPrecheck) {
+                        jwtPrecheck.checkExpiry(token.getToken());
+                    }
+                    Claims claims = jwtCsrfTokenRepository.verifyToken(token.getToken(), request).getBody();
+                    NonceStore.Result nonce = !nonceEnabled ? NonceStore.Result.FIRST_USE :
+                        claims.getId() == null ? NonceStore.Result.REPLAYED :
+                        nonceStore.markUsed(claims.getId(), claims.getExpiration().getTime());
+                    if (nonce == NonceStore.Result.REPLAYED) {
+                        replays.increment();
+                        throw new JwtException("CSRF token has already been used.");
+                    }
+                    if (nonce == NonceStore.Result.REFUSED) {
+                        // not the client's fault - it may well succeed with a fresh token once the store has room
+                        response.sendError(HttpServletResponse.SC_SERVICE_UNAVAILABLE,
+                            "Too many CSRF tokens in use, try again shortly.");
+                        return;
+                    }
                 } catch (JwtException e) {
                     // most likely an ExpiredJwtException, but this will handle any
+                    jwtMetrics.failure(e);
                     request.setAttribute("exception", e);
                     response.setStatus(HttpServletResponse.SC_BAD_REQUEST);
                     RequestDispatcher dispatcher = request.getRequestDispatcher("expired-jwt");
                     dispatcher.forward(request, response);
+                    return;
                 }
             }
 
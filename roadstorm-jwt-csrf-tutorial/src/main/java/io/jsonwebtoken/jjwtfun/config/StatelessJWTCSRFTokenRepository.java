@@ -0,0 +1,96 @@
+package io.jsonwebtoken.jjwtfun.config;
+
+import com.stormpath.tutorial.jwt.JwtMetrics;
+import io.jsonwebtoken.Claims;
+import io.jsonwebtoken.Jws;
+import io.jsonwebtoken.JwtBuilder;
+import io.jsonwebtoken.JwtException;
+import io.jsonwebtoken.impl.TextCodec;
+import io.jsonwebtoken.jjwtfun.service.SecretService;
+import org.springframework.security.web.csrf.CsrfToken;
+import org.springframework.security.web.csrf.DefaultCsrfToken;
+import org.springframework.util.StringUtils;
+import org.springframework.web.util.WebUtils;
+
+import javax.servlet.http.Cookie;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+/**
+ * Keeps the JWT CSRF token in a cookie instead of the HttpSession.
+ * <p>
+ * The token is self-validating, so there is nothing to remember on the server: CsrfFilter makes sure the token sent
+ * with the form (or the X-CSRF-TOKEN header) matches the cookie, and {@link #verifyToken} checks its HMAC signature
+ * and expiration. Optionally, the token is also bound to a fingerprint of the client that requested it.
+ */
+public class StatelessJWTCSRFTokenRepository extends JWTCSRFTokenRepository {
+
+    static final String CSRF_COOKIE_NAME = "CSRF-TOKEN";
+    static final String FINGERPRINT_CLAIM = "fgp";
+
+    private final boolean fingerprintEnabled;
+
+    public StatelessJWTCSRFTokenRepository(SecretService secretService, JwtMetrics jwtMetrics, boolean fingerprintEnabled) {
+        super(secretService, jwtMetrics);
+        this.fingerprintEnabled = fingerprintEnabled;
+    }
+
+    @Override
+    public void saveToken(CsrfToken token, HttpServletRequest request, HttpServletResponse response) {
+        Cookie cookie = new Cookie(CSRF_COOKIE_NAME, token == null ? "" : token.getToken());
+        cookie.setPath(StringUtils.hasLength(request.getContextPath()) ? request.getContextPath() : "/");
+        cookie.setHttpOnly(true);
+        cookie.setSecure(request.isSecure());
+        // the JWT's exp decides when the token is no longer good, not the browser
+        cookie.setMaxAge(token == null ? 0 : -1);
+        response.addCookie(cookie);
+    }
+
+    @Override
+    public CsrfToken loadToken(HttpServletRequest request) {
+        // same as the session backed repository: every form render gets a fresh token
+        if ("GET".equals(request.getMethod())) {
+            return null;
+        }
+
+        Cookie cookie = WebUtils.getCookie(request, CSRF_COOKIE_NAME);
+        if (cookie == null || !StringUtils.hasText(cookie.getValue())) {
+            return null;
+        }
+
+        return new DefaultCsrfToken(CSRF_HEADER_NAME, CSRF_PARAMETER_NAME, cookie.getValue());
+    }
+
+    @Override
+    public Jws<Claims> verifyToken(String token, HttpServletRequest request) {
+        Jws<Claims> jws = super.verifyToken(token, request);
+
+        if (fingerprintEnabled && !fingerprint(request).equals(jws.getBody().get(FINGERPRINT_CLAIM))) {
+            throw new JwtException("CSRF token was issued to a different client.");
+        }
+
+        return jws;
+    }
+
+    @Override
+    protected JwtBuilder tokenBuilder(HttpServletRequest request) {
+        JwtBuilder builder = super.tokenBuilder(request);
+        if (fingerprintEnabled) {
+            builder.claim(FINGERPRINT_CLAIM, fingerprint(request));
+        }
+        return builder;
+    }
+
+    private String fingerprint(HttpServletRequest request) {
+        String client = request.getRemoteAddr() + '|' + request.getHeader("User-Agent");
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            return TextCodec.BASE64URL.encode(digest.digest(client.getBytes(StandardCharsets.UTF_8)));
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 is not available", e);
+        }
+    }
+}
@@ -1,18 +1,25 @@
 package io.jsonwebtoken.jjwtfun.controller;
 
+import com.stormpath.tutorial.jwt.JwtMetrics;
 import io.jsonwebtoken.JwtException;
 import io.jsonwebtoken.MalformedJwtException;
 import io.jsonwebtoken.SignatureException;
 import io.jsonwebtoken.jjwtfun.model.JwtResponse;
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.http.HttpStatus;
 import org.springframework.web.bind.annotation.ExceptionHandler;
 import org.springframework.web.bind.annotation.ResponseStatus;
 
 public class BaseController {
 
+    @Autowired
+    JwtMetrics jwtMetrics;
+
     @ResponseStatus(HttpStatus.BAD_REQUEST)
     @ExceptionHandler({SignatureException.class, MalformedJwtException.class, JwtException.class})
     public JwtResponse exception(Exception e) {
+        jwtMetrics.failure(e);
+
         JwtResponse response = new JwtResponse();
         response.setStatus(JwtResponse.Status.ERROR);
         response.setMessage(e.getMessage());
@@ -27,27 +27,17 @@ public class DynamicJWTController extends BaseController {
 
     @RequestMapping(value = "/dynamic-builder-general", method = POST)
     public JwtResponse dynamicBuilderGeneric(@RequestBody Map<String, Object> claims) throws UnsupportedEncodingException {
-        String jws =  Jwts.builder()
-            .setClaims(claims)
-            .signWith(
-                SignatureAlgorithm.HS256,
-                secretService.getHS256SecretBytes()
-            )
-            .compact();
-        return new JwtResponse(jws);
+        JwtBuilder builder = Jwts.builder()
+            .setClaims(claims);
+        return new JwtResponse(secretService.signWith(builder, SignatureAlgorithm.HS256).compact());
     }
 
     @RequestMapping(value = "/dynamic-builder-compress", method = POST)
     public JwtResponse dynamicBuildercompress(@RequestBody Map<String, Object> claims) throws UnsupportedEncodingException {
-        String jws =  Jwts.builder()
+        JwtBuilder builder = Jwts.builder()
             .setClaims(claims)
-            .compressWith(CompressionCodecs.DEFLATE)
-            .signWith(
-                SignatureAlgorithm.HS256,
-                secretService.getHS256SecretBytes()
-            )
-            .compact();
-        return new JwtResponse(jws);
+            .compressWith(CompressionCodecs.DEFLATE);
+        return new JwtResponse(secretService.signWith(builder, SignatureAlgorithm.HS256).compact());
     }
 
     @RequestMapping(value = "/dynamic-builder-specific", method = POST)
@@ -89,9 +79,7 @@ public class DynamicJWTController extends BaseController {
             }
         });
 
-        builder.signWith(SignatureAlgorithm.HS256, secretService.getHS256SecretBytes());
-
-        return new JwtResponse(builder.compact());
+        return new JwtResponse(secretService.signWith(builder, SignatureAlgorithm.HS256).compact());
     }
 
     private void ensureType(String registeredClaim, Object value, Class expectedType) {
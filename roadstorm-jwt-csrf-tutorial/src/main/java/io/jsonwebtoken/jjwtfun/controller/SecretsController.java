@@ -7,6 +7,7 @@ import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.RestController;
 
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
 
 import static org.springframework.web.bind.annotation.RequestMethod.GET;
 import static org.springframework.web.bind.annotation.RequestMethod.POST;
@@ -23,8 +24,8 @@ public class SecretsController extends BaseController {
     }
 
     @RequestMapping(value = "/refresh-secrets", method = GET)
-    public Map<String, String> refreshSecrets() {
-        return secretService.refreshSecrets();
+    public CompletableFuture<Map<String, String>> refreshSecrets() {
+        return secretService.refreshSecretsAsync();
     }
 
     @RequestMapping(value = "/set-secrets", method = POST)
@@ -1,7 +1,9 @@
 package io.jsonwebtoken.jjwtfun.controller;
 
+import com.stormpath.tutorial.jwt.JwtPrecheck;
 import io.jsonwebtoken.Claims;
 import io.jsonwebtoken.Jws;
+import io.jsonwebtoken.JwtBuilder;
 import io.jsonwebtoken.Jwts;
 import io.jsonwebtoken.SignatureAlgorithm;
 import io.jsonwebtoken.jjwtfun.model.JwtResponse;
@@ -23,41 +25,44 @@ public class StaticJWTController extends BaseController {
     @Autowired
     SecretService secretService;
 
+    @Autowired
+    JwtPrecheck jwtPrecheck;
+
     @RequestMapping(value = "/static-builder", method = GET)
     public JwtResponse fixedBuilder() throws UnsupportedEncodingException {
-        String jws = Jwts.builder()
+        JwtBuilder builder = Jwts.builder()
             .setIssuer("Stormpath")
             .setSubject("msilverman")
             .claim("name", "Micah Silverman")
             .claim("scope", "admins")
             .setIssuedAt(Date.from(Instant.ofEpochSecond(1466796822L)))   // Fri Jun 24 2016 15:33:42 GMT-0400 (EDT)
-            .setExpiration(Date.from(Instant.ofEpochSecond(4622470422L))) // Sat Jun 24 2116 15:33:42 GMT-0400 (EDT)
-            .signWith(
-                SignatureAlgorithm.HS256,
-                secretService.getHS256SecretBytes()
-            )
-            .compact();
+            .setExpiration(Date.from(Instant.ofEpochSecond(4622470422L))); // Sat Jun 24 2116 15:33:42 GMT-0400 (EDT)
 
-        return new JwtResponse(jws);
+        return new JwtResponse(secretService.signWith(builder, SignatureAlgorithm.HS256).compact());
     }
 
     @RequestMapping(value = "/parser", method = GET)
     public JwtResponse parser(@RequestParam String jwt) throws UnsupportedEncodingException {
+        jwtPrecheck.check(jwt);
 
-        Jws<Claims> jws = Jwts.parser()
+        Jws<Claims> jws = jwtMetrics.verify(() -> Jwts.parser()
             .setSigningKeyResolver(secretService.getSigningKeyResolver())
-            .parseClaimsJws(jwt);
+            .parseClaimsJws(jwt)
+        );
 
         return new JwtResponse(jws);
     }
 
     @RequestMapping(value = "/parser-enforce", method = GET)
     public JwtResponse parserEnforce(@RequestParam String jwt) throws UnsupportedEncodingException {
-        Jws<Claims> jws = Jwts.parser()
+        jwtPrecheck.check(jwt);
+
+        Jws<Claims> jws = jwtMetrics.verify(() -> Jwts.parser()
             .requireIssuer("Stormpath")
             .require("hasMotorcycle", true)
             .setSigningKeyResolver(secretService.getSigningKeyResolver())
-            .parseClaimsJws(jwt);
+            .parseClaimsJws(jwt)
+        );
 
         return new JwtResponse(jws);
     }
@@ -0,0 +1,24 @@
+package io.jsonwebtoken.jjwtfun.service;
+
+/**
+ * Remembers which JWT ids ({@code jti}) have already been used, so a CSRF token can only be submitted once.
+ * <p>
+ * An id only needs to be remembered until its token expires - after that the token is rejected anyway. Provide a
+ * bean of this type to use a store shared between instances; otherwise an in-process store is used.
+ */
+public interface NonceStore {
+
+    enum Result {
+        /** The id hadn't been used, the token may go through. */
+        FIRST_USE,
+        /** The id was used before, the token is a replay. */
+        REPLAYED,
+        /** The id couldn't be recorded, e.g. because the store is full, so a replay couldn't be told apart. */
+        REFUSED
+    }
+
+    /**
+     * Records the id as used until {@code expiresAtMillis}.
+     */
+    Result markUsed(String jti, long expiresAtMillis);
+}
@@ -1,74 +1,419 @@
 package io.jsonwebtoken.jjwtfun.service;
 
+import com.stormpath.tutorial.jwt.JwtMetrics;
+import com.stormpath.tutorial.jwt.KeyPool;
+import com.stormpath.tutorial.jwt.KeyRotation;
+import com.stormpath.tutorial.jwt.MappedRecordLog;
 import io.jsonwebtoken.Claims;
 import io.jsonwebtoken.JwsHeader;
+import io.jsonwebtoken.JwtBuilder;
+import io.jsonwebtoken.JwtException;
 import io.jsonwebtoken.SignatureAlgorithm;
 import io.jsonwebtoken.SigningKeyResolver;
 import io.jsonwebtoken.SigningKeyResolverAdapter;
+import io.jsonwebtoken.UnsupportedJwtException;
 import io.jsonwebtoken.impl.TextCodec;
 import io.jsonwebtoken.impl.crypto.MacProvider;
 import io.jsonwebtoken.lang.Assert;
+import io.jsonwebtoken.lang.Strings;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
 import org.springframework.stereotype.Service;
 
 import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
 import javax.crypto.SecretKey;
+import javax.crypto.spec.SecretKeySpec;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.security.Key;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
 
+/**
+ * Versioned HMAC secrets. Every version has its own {@code kid}, which goes in the header of the tokens it signs.
+ * <p>
+ * New tokens are always signed with the newest version. After a rotation the previous version keeps verifying for
+ * {@code jwt.rotation.grace-period-ms} before it is purged, so tokens in flight survive the switch. Tokens without a
+ * {@code kid} are checked against the newest version.
+ */
 @Service
-public class SecretService {
+public class SecretService implements KeyRotation {
 
-    private Map<String, String> secrets = new HashMap<>();
+    // slots in the key table, one per supported HMAC algorithm
+    private static final int HS256 = 0;
+    private static final int HS384 = 1;
+    private static final int HS512 = 2;
+
+    private static final SignatureAlgorithm[] ALGORITHMS = {
+        SignatureAlgorithm.HS256, SignatureAlgorithm.HS384, SignatureAlgorithm.HS512
+    };
+
+    private static final byte SECRETS = 1;
+    private static final byte RETIRED = 2;
+
+    private static final Logger log = LoggerFactory.getLogger(SecretService.class);
+
+    // the newest version, replaced as a whole so signing never sees a half updated set of keys
+    private volatile Secrets secrets;
+
+    // kid -> every version that still verifies, copied on write as it only changes on rotation
+    private volatile Map<String, Secrets> versions = Collections.emptyMap();
+
+    // kid -> when the retired version is purged
+    private final Map<String, Long> retiring = new ConcurrentHashMap<>();
+
+    // secrets generated ahead of the rotations that need them
+    @Value("${jwt.keypool.size:2}")
+    private int keyPoolSize = 2;
+
+    private KeyPool<SecretKey[]> keyPool;
+
+    @Value("${jwt.rotation.grace-period-ms:60000}")
+    private long gracePeriodMs = 60000;
+
+    // empty to keep the secrets in memory only
+    @Value("${jwt.keystore.path:}")
+    private String keyStorePath;
+
+    @Value("${jwt.keystore.initial-size:65536}")
+    private int keyStoreInitialSize = 64 * 1024;
+
+    private MappedRecordLog keyStore;
+
+    // the key store records of the versions that still verify, the newest last, guarded by this
+    private final Map<String, MappedRecordLog.Record> storedSecrets = new LinkedHashMap<>();
+    private final Map<String, MappedRecordLog.Record> storedRetirements = new HashMap<>();
+
+    @Autowired
+    JwtMetrics jwtMetrics;
 
     private SigningKeyResolver signingKeyResolver = new SigningKeyResolverAdapter() {
         @Override
-        public byte[] resolveSigningKeyBytes(JwsHeader header, Claims claims) {
-            return TextCodec.BASE64.decode(secrets.get(header.getAlgorithm()));
+        public Key resolveSigningKey(JwsHeader header, Claims claims) {
+            int slot = slot(header.getAlgorithm());
+            String kid = header.getKeyId();
+            Secrets secrets = kid == null ? SecretService.this.secrets : versions.get(kid);
+
+            jwtMetrics.keyResolved(slot >= 0 && secrets != null);
+            if (slot < 0) {
+                throw new UnsupportedJwtException("No secret configured for algorithm: " + header.getAlgorithm());
+            }
+            if (secrets == null) {
+                throw new JwtException("No secrets for kid: " + kid);
+            }
+            return secrets.keys[slot];
         }
     };
 
     @PostConstruct
     public void setup() {
+        keyPool = new KeyPool<>("hmac", SecretService::generateKeys, keyPoolSize);
+
+        if (Strings.hasText(keyStorePath)) {
+            try {
+                keyStore = new MappedRecordLog(Paths.get(keyStorePath), keyStoreInitialSize);
+            } catch (IOException e) {
+                throw new IllegalStateException("Unable to open key store " + keyStorePath + ": " + e.getMessage(), e);
+            }
+
+            if (restoreSecrets()) {
+                log.info("Restored secrets with kid {} from {}", secrets.kid, keyStorePath);
+                return;
+            }
+        }
+
         refreshSecrets();
     }
 
+    @PreDestroy
+    public void close() throws IOException {
+        if (keyPool != null) {
+            keyPool.close();
+        }
+        if (keyStore != null) {
+            keyStore.close();
+        }
+    }
+
     public SigningKeyResolver getSigningKeyResolver() {
         return signingKeyResolver;
     }
 
+    /**
+     * Signs with the newest secret for the algorithm and puts its {@code kid} in the header.
+     */
+    public JwtBuilder signWith(JwtBuilder builder, SignatureAlgorithm alg) {
+        // one read, so the kid always matches the key
+        Secrets secrets = this.secrets;
+        int slot = slot(alg.getValue());
+        Assert.isTrue(slot >= 0, "No secret configured for algorithm: " + alg.getValue());
+
+        return builder
+            .setHeaderParam(JwsHeader.KEY_ID, secrets.kid)
+            .signWith(alg, secrets.keys[slot]);
+    }
+
     public Map<String, String> getSecrets() {
-        return secrets;
+        return secrets.encoded;
     }
 
     public void setSecrets(Map<String, String> secrets) {
         Assert.notNull(secrets);
-        Assert.hasText(secrets.get(SignatureAlgorithm.HS256.getValue()));
-        Assert.hasText(secrets.get(SignatureAlgorithm.HS384.getValue()));
-        Assert.hasText(secrets.get(SignatureAlgorithm.HS512.getValue()));
 
-        this.secrets = secrets;
+        SecretKey[] keys = new SecretKey[ALGORITHMS.length];
+        for (int i = 0; i < ALGORITHMS.length; i++) {
+            String encoded = secrets.get(ALGORITHMS[i].getValue());
+            Assert.hasText(encoded);
+            keys[i] = new SecretKeySpec(TextCodec.BASE64.decode(encoded), ALGORITHMS[i].getJcaName());
+        }
+
+        install(new Secrets(newKid(), keys));
     }
 
-    public byte[] getHS256SecretBytes() {
-        return TextCodec.BASE64.decode(secrets.get(SignatureAlgorithm.HS256.getValue()));
+    public SecretKey getHS256SecretKey() {
+        return secrets.keys[HS256];
     }
 
-    public byte[] getHS384SecretBytes() {
-        return TextCodec.BASE64.decode(secrets.get(SignatureAlgorithm.HS384.getValue()));
+    public SecretKey getHS384SecretKey() {
+        return secrets.keys[HS384];
     }
 
-    public byte[] getHS512SecretBytes() {
-        return TextCodec.BASE64.decode(secrets.get(SignatureAlgorithm.HS384.getValue()));
+    public SecretKey getHS512SecretKey() {
+        return secrets.keys[HS512];
     }
 
+    @Override
+    public void rotate() {
+        refreshSecrets();
+    }
 
     public Map<String, String> refreshSecrets() {
-        SecretKey key = MacProvider.generateKey(SignatureAlgorithm.HS256);
-        secrets.put(SignatureAlgorithm.HS256.getValue(), TextCodec.BASE64.encode(key.getEncoded()));
-        key = MacProvider.generateKey(SignatureAlgorithm.HS384);
-        secrets.put(SignatureAlgorithm.HS384.getValue(), TextCodec.BASE64.encode(key.getEncoded()));
-        key = MacProvider.generateKey(SignatureAlgorithm.HS512);
-        secrets.put(SignatureAlgorithm.HS512.getValue(), TextCodec.BASE64.encode(key.getEncoded()));
-        return secrets;
+        return refreshSecretsAsync().join();
+    }
+
+    /**
+     * Like {@link #refreshSecrets()}, without waiting on the caller if the pool has run out of ready secrets.
+     */
+    public CompletableFuture<Map<String, String>> refreshSecretsAsync() {
+        return keyPool.take().thenApply(keys -> {
+            Secrets secrets = new Secrets(newKid(), keys);
+            install(secrets);
+            return secrets.encoded;
+        });
+    }
+
+    /**
+     * Drops the versions whose grace period is over. Tokens they signed fail verification from then on.
+     */
+    @Scheduled(fixedDelayString = "${jwt.rotation.purge-interval-ms:5000}")
+    public synchronized void purgeRetiredSecrets() {
+        long now = System.currentTimeMillis();
+        Map<String, Secrets> versions = null;
+
+        for (Map.Entry<String, Long> retired : retiring.entrySet()) {
+            if (retired.getValue() > now) {
+                continue;
+            }
+            if (versions == null) {
+                versions = new HashMap<>(this.versions);
+            }
+            versions.remove(retired.getKey());
+            retiring.remove(retired.getKey());
+            storedSecrets.remove(retired.getKey());
+            storedRetirements.remove(retired.getKey());
+            log.info("Purged secrets with kid {}", retired.getKey());
+        }
+
+        if (versions != null) {
+            this.versions = Collections.unmodifiableMap(versions);
+            // so the purged secrets don't stay on disk
+            compactKeyStore();
+        }
+    }
+
+    // the previous version, if any, is retired rather than dropped
+    private synchronized void install(Secrets next) {
+        Secrets previous = this.secrets;
+        long purgeAt = System.currentTimeMillis() + gracePeriodMs;
+
+        save(next);
+        if (previous != null) {
+            MappedRecordLog.Record retired =
+                append(RETIRED, utf8(previous.kid), ByteBuffer.allocate(8).putLong(purgeAt).array());
+            if (retired != null) {
+                storedRetirements.put(previous.kid, retired);
+            }
+            retiring.put(previous.kid, purgeAt);
+        }
+
+        Map<String, Secrets> versions = new HashMap<>(this.versions);
+        versions.put(next.kid, next);
+        this.versions = Collections.unmodifiableMap(versions);
+        this.secrets = next;
+
+        if (previous != null) {
+            log.info("Rotated secrets to kid {}, kid {} is accepted until {}", next.kid, previous.kid, purgeAt);
+        }
+        if (gracePeriodMs <= 0) {
+            purgeRetiredSecrets();
+        }
+    }
+
+    // one record holding every secret of a version, so they are always restored as a set
+    private void save(Secrets secrets) {
+        byte[][] fields = new byte[1 + ALGORITHMS.length][];
+        fields[0] = utf8(secrets.kid);
+        for (int i = 0; i < ALGORITHMS.length; i++) {
+            fields[1 + i] = secrets.keys[i].getEncoded();
+        }
+        MappedRecordLog.Record record = append(SECRETS, fields);
+        if (record != null) {
+            storedSecrets.put(secrets.kid, record);
+        }
+    }
+
+    // null if the secrets are only kept in memory
+    private MappedRecordLog.Record append(byte type, byte[]... fields) {
+        if (keyStore == null) {
+            return null;
+        }
+        try {
+            return keyStore.append(type, fields);
+        } catch (IOException e) {
+            throw new IllegalStateException("Unable to write to the key store: " + e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Rewrites the key store with just the versions that still verify. The newest goes after the retired ones, as
+     * {@link #restoreSecrets()} takes the last version it reads as the newest.
+     */
+    private void compactKeyStore() {
+        if (keyStore == null) {
+            return;
+        }
+        List<MappedRecordLog.Record> live = new ArrayList<>(storedSecrets.values());
+        live.addAll(storedRetirements.values());
+        try {
+            keyStore.rewrite(live);
+        } catch (IOException e) {
+            throw new IllegalStateException("Unable to compact the key store: " + e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Restores the newest version and every retired one whose grace period isn't over yet.
+     */
+    private synchronized boolean restoreSecrets() {
+        Map<String, Secrets> stored = new HashMap<>();
+        Map<String, MappedRecordLog.Record> records = new HashMap<>();
+        Map<String, MappedRecordLog.Record> retired = new HashMap<>();
+        Secrets newest = null;
+
+        for (MappedRecordLog.Record record : keyStore.getRecords()) {
+            if (record.getType() == SECRETS && record.getFieldCount() == 1 + ALGORITHMS.length) {
+                newest = readSecrets(record);
+                stored.put(newest.kid, newest);
+                records.put(newest.kid, record);
+            } else if (record.getType() == RETIRED && record.getFieldCount() == 2) {
+                retired.put(record.getString(0), record);
+            }
+        }
+        if (newest == null) {
+            return false;
+        }
+
+        long now = System.currentTimeMillis();
+        Map<String, Secrets> versions = new HashMap<>();
+        retired.forEach((kid, record) -> {
+            Secrets secrets = stored.get(kid);
+            long purgeAt = ByteBuffer.wrap(record.getBytes(1)).getLong();
+            if (secrets != null && purgeAt > now) {
+                versions.put(kid, secrets);
+                retiring.put(kid, purgeAt);
+                storedSecrets.put(kid, records.get(kid));
+                storedRetirements.put(kid, record);
+            }
+        });
+        versions.put(newest.kid, newest);
+        storedSecrets.remove(newest.kid);
+        storedSecrets.put(newest.kid, records.get(newest.kid));
+
+        this.versions = Collections.unmodifiableMap(versions);
+        this.secrets = newest;
+
+        // the versions purged and replaced since the key store was last compacted
+        if (keyStore.getRecords().size() > storedSecrets.size() + storedRetirements.size()) {
+            compactKeyStore();
+        }
+        return true;
+    }
+
+    private static Secrets readSecrets(MappedRecordLog.Record record) {
+        SecretKey[] keys = new SecretKey[ALGORITHMS.length];
+        for (int i = 0; i < ALGORITHMS.length; i++) {
+            keys[i] = new SecretKeySpec(record.getBytes(1 + i), ALGORITHMS[i].getJcaName());
+        }
+        return new Secrets(record.getString(0), keys);
+    }
+
+    private static SecretKey[] generateKeys() {
+        SecretKey[] keys = new SecretKey[ALGORITHMS.length];
+        for (int i = 0; i < ALGORITHMS.length; i++) {
+            keys[i] = MacProvider.generateKey(ALGORITHMS[i]);
+        }
+        return keys;
+    }
+
+    private static String newKid() {
+        return UUID.randomUUID().toString();
+    }
+
+    private static byte[] utf8(String s) {
+        return s.getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static int slot(String algorithm) {
+        switch (algorithm == null ? "" : algorithm) {
+            case "HS256":
+                return HS256;
+            case "HS384":
+                return HS384;
+            case "HS512":
+                return HS512;
+            default:
+                return -1;
+        }
+    }
+
+    private static class Secrets {
+        private final String kid;
+        private final SecretKey[] keys;
+        // Base64 form, only used to show and set the secrets through the SecretsController
+        private final Map<String, String> encoded;
+
+        Secrets(String kid, SecretKey[] keys) {
+            this.kid = kid;
+            this.keys = keys;
+
+            Map<String, String> encoded = new LinkedHashMap<>();
+            for (int i = 0; i < ALGORITHMS.length; i++) {
+                encoded.put(ALGORITHMS[i].getValue(), TextCodec.BASE64.encode(keys[i].getEncoded()));
+            }
+            this.encoded = Collections.unmodifiableMap(encoded);
+        }
     }
 }
@@ -0,0 +1,208 @@
+package io.jsonwebtoken.jjwtfun.service;
+
+import io.jsonwebtoken.lang.Assert;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * In-process {@link NonceStore} that files each id into a time bucket by its token's expiration.
+ * <p>
+ * Buckets live in a small ring that covers the token lifetime. Once the newest expiration in a bucket has passed, the
+ * whole bucket is dropped at once - there's no per-entry timer or cleanup. The total number of ids is capped; when the
+ * store is full new ids are {@link Result#REFUSED refused}, so a flood of tokens fails closed instead of exhausting the
+ * heap.
+ * <p>
+ * Room for an id is reserved before it is added, so concurrent callers can't take the store past its cap, and every
+ * bucket counts its own ids, so dropping one gives back exactly the room its ids took.
+ */
+public class TimeBucketedNonceStore implements NonceStore, MeterBinder {
+
+    private final long bucketMillis;
+    private final int maxEntries;
+    private final AtomicReferenceArray<Bucket> buckets;
+
+    // ids in live buckets, plus the ones being added
+    private final AtomicInteger size = new AtomicInteger();
+
+    private volatile long sweptSlot;
+
+    private Counter rejected;
+
+    public TimeBucketedNonceStore(long tokenLifetimeMillis, long bucketMillis, int maxEntries) {
+        Assert.isTrue(bucketMillis > 0 && bucketMillis <= tokenLifetimeMillis, "bucketMillis must be within the token lifetime");
+
+        this.bucketMillis = bucketMillis;
+        this.maxEntries = maxEntries;
+        // enough buckets for a full token lifetime, plus the partial buckets at either end
+        this.buckets = new AtomicReferenceArray<>((int) ((tokenLifetimeMillis + bucketMillis - 1) / bucketMillis) + 2);
+    }
+
+    @Override
+    public Result markUsed(String jti, long expiresAtMillis) {
+        long now = System.currentTimeMillis();
+        long slot = expiresAtMillis / bucketMillis;
+        long oldestLiveSlot = now / bucketMillis;
+
+        if (oldestLiveSlot != sweptSlot) {
+            sweep(oldestLiveSlot);
+        }
+
+        // an already expired token is rejected by its exp, there's no need to track it
+        if (slot < oldestLiveSlot) {
+            return Result.FIRST_USE;
+        }
+
+        // beyond the ring's horizon the id would be dropped before its token expires
+        if (slot >= oldestLiveSlot + buckets.length()) {
+            return refuse();
+        }
+
+        if (!reserve()) {
+            // no room for a new id, but a replay can still be told as such
+            Bucket bucket = buckets.get(index(slot));
+            if (bucket != null && bucket.slot == slot && bucket.ids.containsKey(jti)) {
+                return Result.REPLAYED;
+            }
+            return refuse();
+        }
+
+        Bucket bucket = bucketFor(slot);
+        // dropped by now, so the token has expired as well
+        if (bucket == null || !bucket.acquire()) {
+            size.decrementAndGet();
+            return Result.FIRST_USE;
+        }
+
+        if (bucket.ids.putIfAbsent(jti, Boolean.TRUE) != null) {
+            if (bucket.release()) {
+                size.decrementAndGet();
+            }
+            return Result.REPLAYED;
+        }
+        return Result.FIRST_USE;
+    }
+
+    public int size() {
+        return size.get();
+    }
+
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        Gauge.builder("csrf.nonce.store.size", this, TimeBucketedNonceStore::size).register(registry);
+        Gauge.builder("csrf.nonce.store.max", this, store -> store.maxEntries).register(registry);
+        rejected = registry.counter("csrf.nonce.store.rejected");
+    }
+
+    private boolean reserve() {
+        while (true) {
+            int current = size.get();
+            if (current >= maxEntries) {
+                return false;
+            }
+            if (size.compareAndSet(current, current + 1)) {
+                return true;
+            }
+        }
+    }
+
+    private Result refuse() {
+        if (rejected != null) {
+            rejected.increment();
+        }
+        return Result.REFUSED;
+    }
+
+    private void sweep(long oldestLiveSlot) {
+        sweptSlot = oldestLiveSlot;
+        for (int i = 0; i < buckets.length(); i++) {
+            Bucket bucket = buckets.get(i);
+            if (bucket != null && bucket.slot < oldestLiveSlot && buckets.compareAndSet(i, bucket, null)) {
+                drop(bucket);
+            }
+        }
+    }
+
+    /**
+     * @return the bucket for the slot, or {@code null} if the ring has already moved past it
+     */
+    Bucket bucketFor(long slot) {
+        int index = index(slot);
+        while (true) {
+            Bucket bucket = buckets.get(index);
+            if (bucket != null && bucket.slot == slot) {
+                return bucket;
+            }
+            // a newer bucket took the place, so the slot was computed before a rollover and has expired since
+            if (bucket != null && bucket.slot > slot) {
+                return null;
+            }
+            // whatever is in the way has expired as a whole - replace it, ids and all
+            Bucket fresh = new Bucket(slot);
+            if (buckets.compareAndSet(index, bucket, fresh)) {
+                if (bucket != null) {
+                    drop(bucket);
+                }
+                return fresh;
+            }
+        }
+    }
+
+    private int index(long slot) {
+        return (int) (slot % buckets.length());
+    }
+
+    private void drop(Bucket bucket) {
+        size.addAndGet(-bucket.close());
+    }
+
+    static class Bucket {
+        private static final int CLOSED = -1;
+
+        private final long slot;
+        private final Map<String, Boolean> ids = new ConcurrentHashMap<>();
+        // ids added, CLOSED once the bucket has been dropped
+        private final AtomicInteger count = new AtomicInteger();
+
+        Bucket(long slot) {
+            this.slot = slot;
+        }
+
+        // false once the bucket has been dropped
+        boolean acquire() {
+            while (true) {
+                int current = count.get();
+                if (current == CLOSED) {
+                    return false;
+                }
+                if (count.compareAndSet(current, current + 1)) {
+                    return true;
+                }
+            }
+        }
+
+        // false if the bucket was dropped first, which gave the room back already
+        boolean release() {
+            while (true) {
+                int current = count.get();
+                if (current == CLOSED) {
+                    return false;
+                }
+                if (count.compareAndSet(current, current - 1)) {
+                    return true;
+                }
+            }
+        }
+
+        // the number of ids that are no longer held
+        int close() {
+            return count.getAndSet(CLOSED);
+        }
+    }
+}
@@ -0,0 +1,90 @@
+package io.jsonwebtoken.jjwtfun.service;
+
+import com.stormpath.tutorial.jwt.JwtMetrics;
+import io.jsonwebtoken.Jwts;
+import io.jsonwebtoken.SignatureAlgorithm;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.springframework.beans.DirectFieldAccessor;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class SecretServiceTest {
+
+    private static final int INITIAL_SIZE = 1024;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void purgedSecretsAreCompactedAwayAndTheNewestIsRestored() throws Exception {
+        Path path = folder.getRoot().toPath().resolve("secrets");
+
+        SecretService secretService = secretService(path, 0);
+        byte[] purged = secretService.getHS256SecretKey().getEncoded();
+        for (int i = 0; i < 50; i++) {
+            secretService.refreshSecrets();
+        }
+        byte[] newest = secretService.getHS256SecretKey().getEncoded();
+        secretService.close();
+
+        // one version of three secrets, not 51
+        assertThat(Files.size(path)).isEqualTo(INITIAL_SIZE);
+        byte[] file = Files.readAllBytes(path);
+        assertThat(indexOf(file, purged)).isEqualTo(-1);
+        assertThat(indexOf(file, newest)).isNotEqualTo(-1);
+
+        SecretService restored = secretService(path, 0);
+        assertThat(restored.getHS256SecretKey().getEncoded()).isEqualTo(newest);
+        restored.close();
+    }
+
+    @Test
+    public void retiredSecretsSurviveCompactionUntilPurged() throws Exception {
+        Path path = folder.getRoot().toPath().resolve("secrets");
+
+        SecretService secretService = secretService(path, 60000);
+        String token = secretService.signWith(Jwts.builder().setSubject("anna"), SignatureAlgorithm.HS256).compact();
+        byte[] retired = secretService.getHS256SecretKey().getEncoded();
+        secretService.refreshSecrets();
+        byte[] newest = secretService.getHS256SecretKey().getEncoded();
+        secretService.close();
+
+        SecretService restored = secretService(path, 60000);
+        assertThat(restored.getHS256SecretKey().getEncoded()).isEqualTo(newest);
+        assertThat(Jwts.parser().setSigningKeyResolver(restored.getSigningKeyResolver()).parseClaimsJws(token)
+            .getBody().getSubject()).isEqualTo("anna");
+        restored.close();
+
+        assertThat(indexOf(Files.readAllBytes(path), retired)).isNotEqualTo(-1);
+    }
+
+    private static SecretService secretService(Path path, long gracePeriodMs) {
+        SecretService secretService = new SecretService();
+        DirectFieldAccessor fields = new DirectFieldAccessor(secretService);
+        fields.setPropertyValue("jwtMetrics", new JwtMetrics(new SimpleMeterRegistry()));
+        fields.setPropertyValue("keyStorePath", path.toString());
+        fields.setPropertyValue("keyStoreInitialSize", INITIAL_SIZE);
+        fields.setPropertyValue("gracePeriodMs", gracePeriodMs);
+        secretService.setup();
+        return secretService;
+    }
+
+    private static int indexOf(byte[] haystack, byte[] needle) {
+        outer:
+        for (int i = 0; i <= haystack.length - needle.length; i++) {
+            for (int j = 0; j < needle.length; j++) {
+                if (haystack[i + j] != needle[j]) {
+                    continue outer;
+                }
+            }
+            return i;
+        }
+        return -1;
+    }
+}
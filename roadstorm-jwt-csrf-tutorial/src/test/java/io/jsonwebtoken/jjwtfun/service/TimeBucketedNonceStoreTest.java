@@ -0,0 +1,106 @@
+package io.jsonwebtoken.jjwtfun.service;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class TimeBucketedNonceStoreTest {
+
+    private static final long LIFETIME_MILLIS = 30000;
+    private static final long BUCKET_MILLIS = 5000;
+
+    @Test
+    public void acceptsAnIdOnceAndThenReportsReplays() {
+        TimeBucketedNonceStore store = new TimeBucketedNonceStore(LIFETIME_MILLIS, BUCKET_MILLIS, 10);
+        long exp = System.currentTimeMillis() + LIFETIME_MILLIS;
+
+        assertThat(store.markUsed("a", exp)).isEqualTo(NonceStore.Result.FIRST_USE);
+        assertThat(store.markUsed("a", exp)).isEqualTo(NonceStore.Result.REPLAYED);
+        assertThat(store.markUsed("b", exp)).isEqualTo(NonceStore.Result.FIRST_USE);
+        assertThat(store.size()).isEqualTo(2);
+    }
+
+    @Test
+    public void refusesNewIdsWhenFullButStillSpotsReplays() {
+        TimeBucketedNonceStore store = new TimeBucketedNonceStore(LIFETIME_MILLIS, BUCKET_MILLIS, 2);
+        long exp = System.currentTimeMillis() + LIFETIME_MILLIS;
+
+        store.markUsed("a", exp);
+        store.markUsed("b", exp);
+
+        assertThat(store.markUsed("c", exp)).isEqualTo(NonceStore.Result.REFUSED);
+        assertThat(store.markUsed("a", exp)).isEqualTo(NonceStore.Result.REPLAYED);
+        assertThat(store.size()).isEqualTo(2);
+    }
+
+    @Test
+    public void givesRoomBackWhenABucketExpires() throws InterruptedException {
+        TimeBucketedNonceStore store = new TimeBucketedNonceStore(200, 50, 1);
+
+        assertThat(store.markUsed("a", System.currentTimeMillis() + 60)).isEqualTo(NonceStore.Result.FIRST_USE);
+        assertThat(store.markUsed("b", System.currentTimeMillis() + 60)).isEqualTo(NonceStore.Result.REFUSED);
+
+        Thread.sleep(200);
+
+        assertThat(store.markUsed("b", System.currentTimeMillis() + 100)).isEqualTo(NonceStore.Result.FIRST_USE);
+        assertThat(store.size()).isEqualTo(1);
+    }
+
+    @Test
+    public void staleSlotNeverReplacesTheLiveBucketInItsPlace() {
+        TimeBucketedNonceStore store = new TimeBucketedNonceStore(LIFETIME_MILLIS, BUCKET_MILLIS, 10);
+        long exp = System.currentTimeMillis() + LIFETIME_MILLIS;
+        store.markUsed("a", exp);
+
+        // what a thread that computed its slot before the ring moved on would ask for
+        long liveSlot = exp / BUCKET_MILLIS;
+        long ringLength = (LIFETIME_MILLIS + BUCKET_MILLIS - 1) / BUCKET_MILLIS + 2;
+        assertThat(store.bucketFor(liveSlot - ringLength)).isNull();
+
+        assertThat(store.markUsed("a", exp)).isEqualTo(NonceStore.Result.REPLAYED);
+        assertThat(store.size()).isEqualTo(1);
+    }
+
+    @Test
+    public void concurrentCallersNeverOvershootTheCap() throws Exception {
+        int maxEntries = 500;
+        int threads = 8;
+        TimeBucketedNonceStore store = new TimeBucketedNonceStore(LIFETIME_MILLIS, BUCKET_MILLIS, maxEntries);
+        long exp = System.currentTimeMillis() + LIFETIME_MILLIS;
+
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        CountDownLatch start = new CountDownLatch(1);
+        List<Future<Integer>> accepted = new ArrayList<>();
+        for (int t = 0; t < threads; t++) {
+            int thread = t;
+            accepted.add(executor.submit(() -> {
+                start.await();
+                int count = 0;
+                for (int i = 0; i < maxEntries; i++) {
+                    if (store.markUsed(thread + "-" + i, exp) == NonceStore.Result.FIRST_USE) {
+                        count++;
+                    }
+                }
+                return count;
+            }));
+        }
+        start.countDown();
+
+        int total = 0;
+        for (Future<Integer> count : accepted) {
+            total += count.get(10, TimeUnit.SECONDS);
+        }
+        executor.shutdown();
+
+        assertThat(total).isEqualTo(maxEntries);
+        assertThat(store.size()).isEqualTo(maxEntries);
+    }
+}
@@ -1,82 +1,173 @@
 package com.stormpath.tutorial;
 
-import com.stormpath.tutorial.service.SpringBootKafkaConsumer;
-import kafka.admin.AdminUtils;
-import kafka.common.TopicExistsException;
-import kafka.utils.ZKStringSerializer$;
-import kafka.utils.ZkUtils;
-import org.I0Itec.zkclient.ZkClient;
+import com.stormpath.tutorial.model.Account;
+import com.stormpath.tutorial.service.AccountRepository;
+import com.stormpath.tutorial.service.InMemoryAccountRepository;
+import com.stormpath.tutorial.service.MappedAccountRepository;
+import io.jsonwebtoken.lang.Strings;
+import org.apache.kafka.clients.admin.AdminClient;
+import org.apache.kafka.clients.admin.NewPartitions;
+import org.apache.kafka.clients.admin.NewTopic;
+import org.apache.kafka.clients.admin.TopicDescription;
+import org.apache.kafka.common.errors.TopicExistsException;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.boot.SpringApplication;
 import org.springframework.boot.autoconfigure.SpringBootApplication;
 import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
-import org.springframework.context.ConfigurableApplicationContext;
 import org.springframework.context.SmartLifecycle;
 import org.springframework.context.annotation.Bean;
+import org.springframework.scheduling.annotation.EnableScheduling;
 
+import java.io.IOException;
+import java.nio.file.Paths;
+import java.util.Collections;
 import java.util.Properties;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 
 @SpringBootApplication
+@EnableScheduling
 public class JJWTMicroservicesTutorial {
 
     @Value("${topic}")
     private String topic;
 
-    @Value("${zookeeper.address}")
-    private String zookeeperAddress;
+    @Value("${topic.partitions:1}")
+    private int partitions;
 
-    private static final Logger log = LoggerFactory.getLogger(JJWTMicroservicesTutorial.class);
+    @Value("${topic.replication-factor:1}")
+    private short replicationFactor;
 
-    public static void main(String[] args) {
-        ConfigurableApplicationContext context = SpringApplication.run(JJWTMicroservicesTutorial.class, args);
+    @Value("${topic.dead-letter:micro-services-dead-letter}")
+    private String deadLetterTopic;
+
+    @Value("${kafka.broker.address}")
+    private String brokerAddress;
 
-        boolean shouldConsume = context
-            .getEnvironment()
-            .getProperty("kafka.consumer.enabled", Boolean.class, Boolean.FALSE);
+    private static final Logger log = LoggerFactory.getLogger(JJWTMicroservicesTutorial.class);
 
+    public static void main(String[] args) {
+        // the Kafka consumer (if enabled with kafka.consumer.enabled) is started by the application context
+        SpringApplication.run(JJWTMicroservicesTutorial.class, args);
+    }
 
-        if (shouldConsume && context.containsBean("springBootKafkaConsumer")) {
-            SpringBootKafkaConsumer springBootKafkaConsumer =
-                context.getBean("springBootKafkaConsumer", SpringBootKafkaConsumer.class);
+    /**
+     * The accounts from {@code account.repository.path}, or the three demo accounts if it isn't set.
+     */
+    @Bean
+    public AccountRepository accountRepository(
+        @Value("${account.repository.path:}") String path,
+        @Value("${account.repository.cache-size:10000}") int cacheSize
+    ) {
+        if (!Strings.hasText(path)) {
+            return new InMemoryAccountRepository(
+                new Account("Anna", "Apple", "anna"),
+                new Account("Betty", "Baker", "betty"),
+                new Account("Colin", "Cooper", "colin")
+            );
+        }
 
-            springBootKafkaConsumer.consume();
+        try {
+            AccountRepository accountRepository = new MappedAccountRepository(Paths.get(path), cacheSize);
+            log.info("Serving {} accounts from {}", accountRepository.size(), path);
+            return accountRepository;
+        } catch (IOException e) {
+            throw new IllegalStateException("Unable to open account file " + path + ": " + e.getMessage(), e);
         }
     }
 
     @Bean
     @ConditionalOnProperty(name = "kafka.enabled", matchIfMissing = true)
     public TopicCreator topicCreator() {
-        return new TopicCreator(this.topic, this.zookeeperAddress);
+        return new TopicCreator(
+            this.topic, this.partitions, this.replicationFactor, this.deadLetterTopic, this.brokerAddress
+        );
     }
 
+    /**
+     * Creates the topic with {@code topic.partitions} partitions, or adds partitions to an existing topic that has fewer.
+     * Partitions are never taken away, and the replication factor of an existing topic is left as it is.
+     * <p>
+     * The dead-letter topic is created along with it, with a single partition.
+     */
     private static class TopicCreator implements SmartLifecycle {
 
+        private static final long TIMEOUT_SECONDS = 30;
+
         private final String topic;
 
-        private final String zkAddress;
+        private final int partitions;
+
+        private final short replicationFactor;
+
+        private final String deadLetterTopic;
+
+        private final String brokerAddress;
 
         private volatile boolean running;
 
-        public TopicCreator(String topic, String zkAddress) {
+        public TopicCreator(
+            String topic, int partitions, short replicationFactor, String deadLetterTopic, String brokerAddress
+        ) {
             this.topic = topic;
-            this.zkAddress = zkAddress;
+            this.partitions = partitions;
+            this.replicationFactor = replicationFactor;
+            this.deadLetterTopic = deadLetterTopic;
+            this.brokerAddress = brokerAddress;
         }
 
         @Override
         public void start() {
-            ZkUtils zkUtils = new ZkUtils(
-                new ZkClient(this.zkAddress, 6000, 6000, ZKStringSerializer$.MODULE$), null, false
-            );
-            try {
-                AdminUtils.createTopic(zkUtils, topic, 1, 1, new Properties());
-            } catch (TopicExistsException e) {
-                log.info("Topic: {} already exists.", topic);
+            Properties adminProps = new Properties();
+            adminProps.put("bootstrap.servers", brokerAddress);
+
+            try (AdminClient adminClient = AdminClient.create(adminProps)) {
+                createOrGrow(adminClient, topic, partitions);
+                createOrGrow(adminClient, deadLetterTopic, 1);
             }
             this.running = true;
         }
 
+        private void createOrGrow(AdminClient adminClient, String topic, int partitions) {
+            try {
+                try {
+                    adminClient.createTopics(Collections.singleton(new NewTopic(topic, partitions, replicationFactor)))
+                        .all().get(TIMEOUT_SECONDS, TimeUnit.SECONDS);
+                    log.info("Created topic: {} with {} partitions, replication factor {}.", topic, partitions, replicationFactor);
+                } catch (ExecutionException e) {
+                    if (!(e.getCause() instanceof TopicExistsException)) {
+                        throw e;
+                    }
+                    growTopic(adminClient, topic, partitions);
+                }
+            } catch (ExecutionException | TimeoutException e) {
+                Throwable cause = e instanceof ExecutionException ? e.getCause() : e;
+                throw new IllegalStateException("Unable to create topic " + topic + ": " + cause.getMessage(), cause);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException("Interrupted while creating topic " + topic, e);
+            }
+        }
+
+        private void growTopic(AdminClient adminClient, String topic, int partitions)
+            throws InterruptedException, ExecutionException, TimeoutException {
+            TopicDescription description = adminClient.describeTopics(Collections.singleton(topic))
+                .values().get(topic).get(TIMEOUT_SECONDS, TimeUnit.SECONDS);
+            int existing = description.partitions().size();
+            if (existing >= partitions) {
+                log.info("Topic: {} already exists with {} partitions.", topic, existing);
+                return;
+            }
+
+            // keyed records of the existing partitions may hash to a new one from now on
+            adminClient.createPartitions(Collections.singletonMap(topic, NewPartitions.increaseTo(partitions)))
+                .all().get(TIMEOUT_SECONDS, TimeUnit.SECONDS);
+            log.info("Topic: {} grown from {} to {} partitions.", topic, existing, partitions);
+        }
+
         @Override
         public void stop() {}
 
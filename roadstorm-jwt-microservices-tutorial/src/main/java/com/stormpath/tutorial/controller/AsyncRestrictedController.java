@@ -0,0 +1,85 @@
+package com.stormpath.tutorial.controller;
+
+import com.stormpath.tutorial.exception.BackpressureException;
+import com.stormpath.tutorial.model.AccountResponse;
+import com.stormpath.tutorial.model.JWTResponse;
+import com.stormpath.tutorial.model.VerifiedJWT;
+import com.stormpath.tutorial.model.VerifyBatchResponse;
+import com.stormpath.tutorial.service.AccountService;
+import com.stormpath.tutorial.service.BatchVerifier;
+import com.stormpath.tutorial.service.VerifyExecutor;
+import io.jsonwebtoken.lang.Assert;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.http.HttpStatus;
+import org.springframework.web.bind.annotation.ExceptionHandler;
+import org.springframework.web.bind.annotation.RequestBody;
+import org.springframework.web.bind.annotation.RequestHeader;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.ResponseStatus;
+import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.context.request.async.DeferredResult;
+
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+
+/**
+ * The endpoints of {@link RestrictedController}, with verification handed to the {@link VerifyExecutor}. The request
+ * thread goes back to Tomcat straight away, so the number of requests in flight is no longer bounded by the number of
+ * Tomcat threads.
+ */
+@RestController
+@ConditionalOnProperty(name = "jwt.verify.async.enabled", havingValue = "true")
+public class AsyncRestrictedController extends BaseController {
+
+    @Value("${jwt.batch.max-size:1000}")
+    private int maxBatchSize;
+
+    @Autowired
+    AccountService accountService;
+
+    @Autowired
+    BatchVerifier batchVerifier;
+
+    @Autowired
+    VerifyExecutor verifyExecutor;
+
+    @RequestMapping("/restricted")
+    public DeferredResult<AccountResponse> restricted(
+        @RequestHeader(value = "Authorization", required = false) String authorization
+    ) {
+        return toDeferredResult(verifyExecutor.submit(() -> accountService.getAccountByAuthorization(authorization)));
+    }
+
+    @RequestMapping("/restricted-batch")
+    public DeferredResult<VerifyBatchResponse> restrictedBatch(@RequestBody List<String> jwts) {
+        Assert.isTrue(jwts.size() <= maxBatchSize, "At most " + maxBatchSize + " JWTs can be verified at once.");
+
+        long start = System.nanoTime();
+        return toDeferredResult(verifyExecutor.submit(() -> {
+            List<VerifiedJWT> results = batchVerifier.verifyAll(jwts);
+            return new VerifyBatchResponse(results, (System.nanoTime() - start) / 1e6);
+        }));
+    }
+
+    @ResponseStatus(HttpStatus.SERVICE_UNAVAILABLE)
+    @ExceptionHandler(BackpressureException.class)
+    public JWTResponse serviceUnavailable(Exception e) {
+        return processException(e);
+    }
+
+    private static <T> DeferredResult<T> toDeferredResult(CompletableFuture<T> future) {
+        DeferredResult<T> result = new DeferredResult<>();
+        future.whenComplete((value, e) -> {
+            if (e != null) {
+                // unwrapped, so it gets the same response as on the blocking endpoints
+                result.setErrorResult(e instanceof CompletionException && e.getCause() != null ? e.getCause() : e);
+            } else {
+                result.setResult(value);
+            }
+        });
+        return result;
+    }
+}
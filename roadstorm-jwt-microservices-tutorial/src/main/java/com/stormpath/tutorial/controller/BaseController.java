@@ -1,13 +1,13 @@
 package com.stormpath.tutorial.controller;
 
 import com.stormpath.tutorial.exception.UnauthorizedException;
+import com.stormpath.tutorial.jwt.JwtMetrics;
 import com.stormpath.tutorial.model.JWTResponse;
 import com.stormpath.tutorial.service.AccountService;
 import com.stormpath.tutorial.service.SecretService;
+import com.stormpath.tutorial.service.TokenMinter;
 import io.jsonwebtoken.JwtException;
-import io.jsonwebtoken.Jwts;
 import io.jsonwebtoken.MalformedJwtException;
-import io.jsonwebtoken.SignatureAlgorithm;
 import io.jsonwebtoken.SignatureException;
 import io.jsonwebtoken.lang.Assert;
 import org.springframework.beans.factory.annotation.Autowired;
@@ -15,7 +15,6 @@ import org.springframework.http.HttpStatus;
 import org.springframework.web.bind.annotation.ExceptionHandler;
 import org.springframework.web.bind.annotation.ResponseStatus;
 
-import java.util.Date;
 import java.util.Map;
 
 public class BaseController {
@@ -23,28 +22,27 @@ public class BaseController {
     @Autowired
     SecretService secretService;
 
+    @Autowired
+    TokenMinter tokenMinter;
+
+    @Autowired
+    JwtMetrics jwtMetrics;
+
+    protected static final long JWT_LIFETIME_MILLIS = 1000*60; // 60 seconds
+
     protected String createJwt(Map<String, Object> claims) {
+        checkClaims(claims);
+
+        String jwt = tokenMinter.mint(claims, JWT_LIFETIME_MILLIS);
+
+        return jwt;
+    }
+
+    protected void checkClaims(Map<String, Object> claims) {
         Assert.notNull(
             claims.get(AccountService.USERNAME_CLAIM),
             AccountService.USERNAME_CLAIM + " claim is required."
         );
-
-        Date now = new Date();
-        Date exp = new Date(now.getTime() + (1000*60)); // 60 seconds
-
-        String jwt =  Jwts.builder()
-            .setHeaderParam("kid", secretService.getMyPublicCreds().getKid())
-            .setClaims(claims)
-            .setIssuedAt(now)
-            .setNotBefore(now)
-            .setExpiration(exp)
-            .signWith(
-                SignatureAlgorithm.RS256,
-                secretService.getMyPrivateKey()
-            )
-            .compact();
-
-        return jwt;
     }
 
     @ResponseStatus(HttpStatus.BAD_REQUEST)
@@ -52,16 +50,18 @@ public class BaseController {
         SignatureException.class, MalformedJwtException.class, JwtException.class, IllegalArgumentException.class
     })
     public JWTResponse badRequest(Exception e) {
+        jwtMetrics.failure(e);
         return processException(e);
     }
 
     @ResponseStatus(HttpStatus.UNAUTHORIZED)
     @ExceptionHandler(UnauthorizedException.class)
     public JWTResponse unauthorized(Exception e) {
+        jwtMetrics.failure(e);
         return processException(e);
     }
 
-    private JWTResponse processException(Exception e) {
+    protected JWTResponse processException(Exception e) {
         JWTResponse response = new JWTResponse();
         response.setStatus(JWTResponse.Status.ERROR);
         response.setMessage(e.getMessage());
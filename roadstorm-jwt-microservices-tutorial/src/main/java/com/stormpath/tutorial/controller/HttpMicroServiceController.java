@@ -1,19 +1,113 @@
 package com.stormpath.tutorial.controller;
 
+import com.stormpath.tutorial.model.JWTBatchItem;
+import com.stormpath.tutorial.model.JWTBatchResponse;
 import com.stormpath.tutorial.model.JWTResponse;
+import com.stormpath.tutorial.service.BatchTokenMinter;
+import io.jsonwebtoken.lang.Assert;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.RequestBody;
 import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.servlet.mvc.method.annotation.ResponseBodyEmitter;
 
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
 
 @RestController
 public class HttpMicroServiceController extends BaseController {
 
+    private static final MediaType NDJSON = MediaType.parseMediaType("application/x-ndjson");
+
+    @Value("${jwt.batch.max-size:1000}")
+    private int maxBatchSize;
+
+    @Autowired
+    BatchTokenMinter batchTokenMinter;
+
     @RequestMapping("/account-request")
     public JWTResponse authBuilder(@RequestBody Map<String, Object> claims) {
         String jwt = createJwt(claims);
 
         return new JWTResponse(jwt);
     }
+
+    /**
+     * One JWT per claim set, in the same order. The tokens are signed in parallel.
+     */
+    @RequestMapping("/account-request-batch")
+    public JWTBatchResponse batchAuthBuilder(@RequestBody List<Map<String, Object>> claimSets) {
+        List<CompletableFuture<String>> minted = mintAll(claimSets);
+
+        List<String> jwts = new ArrayList<>(minted.size());
+        try {
+            for (CompletableFuture<String> jwt : minted) {
+                jwts.add(jwt.join());
+            }
+        } catch (CompletionException e) {
+            // rethrow what went wrong, so it gets the same response as on /account-request
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw e;
+        }
+
+        return new JWTBatchResponse(jwts);
+    }
+
+    /**
+     * Like {@code /account-request-batch}, but each JWT is written as soon as it's signed, one JSON object per line.
+     * Lines arrive in completion order; their {@code index} refers to the position of the claim set in the request.
+     */
+    @RequestMapping(value = "/account-request-batch", params = "stream=true")
+    public ResponseEntity<ResponseBodyEmitter> batchAuthBuilderStream(@RequestBody List<Map<String, Object>> claimSets) {
+        List<CompletableFuture<String>> minted = mintAll(claimSets);
+
+        ResponseBodyEmitter emitter = new ResponseBodyEmitter();
+        List<CompletableFuture<Void>> sent = new ArrayList<>(minted.size());
+        for (int i = 0; i < minted.size(); i++) {
+            int index = i;
+            sent.add(minted.get(i).thenAccept(jwt -> {
+                // keep the object and its line break together when several tokens finish at once
+                synchronized (emitter) {
+                    try {
+                        emitter.send(new JWTBatchItem(index, jwt), MediaType.APPLICATION_JSON);
+                        emitter.send("\n", MediaType.TEXT_PLAIN);
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                }
+            }));
+        }
+        CompletableFuture.allOf(sent.toArray(new CompletableFuture[sent.size()])).whenComplete((result, e) -> {
+            if (e != null) {
+                emitter.completeWithError(e instanceof CompletionException ? e.getCause() : e);
+            } else {
+                emitter.complete();
+            }
+        });
+
+        return ResponseEntity.ok().contentType(NDJSON).body(emitter);
+    }
+
+    private List<CompletableFuture<String>> mintAll(List<Map<String, Object>> claimSets) {
+        Assert.isTrue(
+            claimSets.size() <= maxBatchSize, "At most " + maxBatchSize + " claim sets can be minted at once."
+        );
+        // check the whole batch before signing anything
+        for (Map<String, Object> claims : claimSets) {
+            Assert.notNull(claims, "Claim sets can't be null.");
+            checkClaims(claims);
+        }
+
+        return batchTokenMinter.mintAll(claimSets, JWT_LIFETIME_MILLIS);
+    }
 }
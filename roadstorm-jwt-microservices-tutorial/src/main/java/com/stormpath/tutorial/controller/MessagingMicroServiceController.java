@@ -1,16 +1,22 @@
 package com.stormpath.tutorial.controller;
 
+import com.stormpath.tutorial.exception.BackpressureException;
+import com.stormpath.tutorial.exception.MessagingDisabledException;
 import com.stormpath.tutorial.model.JWTResponse;
 import com.stormpath.tutorial.service.SpringBootKafkaProducer;
+import org.apache.kafka.common.KafkaException;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.HttpStatus;
+import org.springframework.web.bind.annotation.ExceptionHandler;
 import org.springframework.web.bind.annotation.RequestBody;
 import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.ResponseStatus;
 import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.context.request.async.DeferredResult;
 
 import java.util.Map;
-import java.util.concurrent.ExecutionException;
 
 @RestController
 public class MessagingMicroServiceController extends BaseController {
@@ -21,7 +27,7 @@ public class MessagingMicroServiceController extends BaseController {
     private static final Logger log = LoggerFactory.getLogger(MessagingMicroServiceController.class);
 
     @RequestMapping("/msg-account-request")
-    public JWTResponse authBuilder(@RequestBody Map<String, Object> claims) throws ExecutionException, InterruptedException {
+    public JWTResponse authBuilder(@RequestBody Map<String, Object> claims) {
         String jwt = createJwt(claims);
 
         if (springBootKafkaProducer != null) {
@@ -32,4 +38,55 @@ public class MessagingMicroServiceController extends BaseController {
 
         return new JWTResponse(jwt);
     }
+
+    /**
+     * Like {@code /msg-account-request}, but only responds once the broker has acknowledged the message. The request
+     * thread is released while waiting.
+     */
+    @RequestMapping("/msg-account-request-async")
+    public DeferredResult<JWTResponse> authBuilderAsync(@RequestBody Map<String, Object> claims) {
+        DeferredResult<JWTResponse> result = new DeferredResult<>();
+
+        if (springBootKafkaProducer == null) {
+            result.setErrorResult(new MessagingDisabledException("Kafka is disabled."));
+            return result;
+        }
+
+        String jwt = createJwt(claims);
+
+        springBootKafkaProducer.sendAsync(jwt).whenComplete((recordMetadata, e) -> {
+            if (e != null) {
+                result.setErrorResult(e);
+                return;
+            }
+
+            JWTResponse response = new JWTResponse(jwt);
+            response.setMessage(
+                "Delivered to " + recordMetadata.topic() + "-" + recordMetadata.partition() +
+                " at offset " + recordMetadata.offset()
+            );
+            result.setResult(response);
+        });
+
+        return result;
+    }
+
+    @ResponseStatus(HttpStatus.SERVICE_UNAVAILABLE)
+    @ExceptionHandler(BackpressureException.class)
+    public JWTResponse serviceUnavailable(Exception e) {
+        return processException(e);
+    }
+
+    // retrying won't help until the service is started with kafka.enabled=true
+    @ResponseStatus(HttpStatus.NOT_IMPLEMENTED)
+    @ExceptionHandler(MessagingDisabledException.class)
+    public JWTResponse notImplemented(Exception e) {
+        return processException(e);
+    }
+
+    @ResponseStatus(HttpStatus.BAD_GATEWAY)
+    @ExceptionHandler(KafkaException.class)
+    public JWTResponse badGateway(Exception e) {
+        return processException(e);
+    }
 }
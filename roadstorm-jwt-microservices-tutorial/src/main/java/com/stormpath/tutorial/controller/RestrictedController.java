@@ -1,22 +1,54 @@
 package com.stormpath.tutorial.controller;
 
 import com.stormpath.tutorial.model.AccountResponse;
+import com.stormpath.tutorial.model.VerifiedJWT;
+import com.stormpath.tutorial.model.VerifyBatchResponse;
 import com.stormpath.tutorial.service.AccountService;
+import com.stormpath.tutorial.service.BatchVerifier;
+import io.jsonwebtoken.lang.Assert;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.web.bind.annotation.RequestBody;
+import org.springframework.web.bind.annotation.RequestHeader;
 import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.RestController;
 
-import javax.servlet.http.HttpServletRequest;
+import java.util.List;
 
+/**
+ * Verifies on the request thread. Replaced by {@link AsyncRestrictedController} when {@code jwt.verify.async.enabled}
+ * is set.
+ */
 @RestController
+@ConditionalOnProperty(name = "jwt.verify.async.enabled", havingValue = "false", matchIfMissing = true)
 public class RestrictedController extends BaseController {
 
+    @Value("${jwt.batch.max-size:1000}")
+    private int maxBatchSize;
+
     @Autowired
     AccountService accountService;
 
+    @Autowired
+    BatchVerifier batchVerifier;
+
 
     @RequestMapping("/restricted")
-    public AccountResponse restricted(HttpServletRequest req) {
-        return accountService.getAccount(req);
+    public AccountResponse restricted(@RequestHeader(value = "Authorization", required = false) String authorization) {
+        return accountService.getAccountByAuthorization(authorization);
+    }
+
+    /**
+     * Verifies each JWT and looks up its account. Invalid JWTs get an error result of their own.
+     */
+    @RequestMapping("/restricted-batch")
+    public VerifyBatchResponse restrictedBatch(@RequestBody List<String> jwts) {
+        Assert.isTrue(jwts.size() <= maxBatchSize, "At most " + maxBatchSize + " JWTs can be verified at once.");
+
+        long start = System.nanoTime();
+        List<VerifiedJWT> results = batchVerifier.verifyAll(jwts);
+
+        return new VerifyBatchResponse(results, (System.nanoTime() - start) / 1e6);
     }
 }
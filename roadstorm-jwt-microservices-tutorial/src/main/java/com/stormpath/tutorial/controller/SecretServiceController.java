@@ -3,10 +3,10 @@ package com.stormpath.tutorial.controller;
 import com.stormpath.tutorial.model.JWTResponse;
 import com.stormpath.tutorial.model.PublicCreds;
 import com.stormpath.tutorial.service.SecretService;
+import com.stormpath.tutorial.service.SigningCreds;
 import io.jsonwebtoken.Claims;
 import io.jsonwebtoken.Jws;
 import io.jsonwebtoken.Jwts;
-import io.jsonwebtoken.SignatureAlgorithm;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.web.bind.annotation.RequestBody;
 import org.springframework.web.bind.annotation.RequestMapping;
@@ -15,6 +15,7 @@ import org.springframework.web.bind.annotation.RestController;
 
 import java.time.Instant;
 import java.util.Date;
+import java.util.concurrent.CompletableFuture;
 
 @RestController
 public class SecretServiceController extends BaseController {
@@ -23,8 +24,8 @@ public class SecretServiceController extends BaseController {
     SecretService secretService;
 
     @RequestMapping("/refresh-my-creds")
-    public PublicCreds refreshMyCreds() {
-        return secretService.refreshMyCreds();
+    public CompletableFuture<PublicCreds> refreshMyCreds() {
+        return secretService.refreshMyCredsAsync();
     }
 
     @RequestMapping("/get-my-public-creds")
@@ -41,8 +42,10 @@ public class SecretServiceController extends BaseController {
 
     @RequestMapping("/test-build")
     public JWTResponse testBuild() {
+        SigningCreds creds = secretService.getMySigningCreds();
+
         String jws = Jwts.builder()
-            .setHeaderParam("kid", secretService.getMyPublicCreds().getKid())
+            .setHeaderParam("kid", creds.getKid())
             .setIssuer("Stormpath")
             .setSubject("msilverman")
             .claim("name", "Micah Silverman")
@@ -50,8 +53,8 @@ public class SecretServiceController extends BaseController {
             .setIssuedAt(Date.from(Instant.ofEpochSecond(1466796822L)))   // Fri Jun 24 2016 15:33:42 GMT-0400 (EDT)
             .setExpiration(Date.from(Instant.ofEpochSecond(4622470422L))) // Sat Jun 24 2116 15:33:42 GMT-0400 (EDT)
             .signWith(
-                SignatureAlgorithm.RS256,
-                secretService.getMyPrivateKey()
+                creds.getAlgorithm(),
+                creds.getPrivateKey()
             )
             .compact();
         return new JWTResponse(jws);
@@ -59,9 +62,10 @@ public class SecretServiceController extends BaseController {
 
     @RequestMapping("/test-parse")
     public JWTResponse testParse(@RequestParam String jwt) {
-        Jws<Claims> jwsClaims = Jwts.parser()
+        Jws<Claims> jwsClaims = jwtMetrics.verify(() -> Jwts.parser()
             .setSigningKeyResolver(secretService.getSigningKeyResolver())
-            .parseClaimsJws(jwt);
+            .parseClaimsJws(jwt)
+        );
 
         return new JWTResponse(jwsClaims);
     }
@@ -0,0 +1,21 @@
+package com.stormpath.tutorial.event;
+
+import org.springframework.context.ApplicationEvent;
+
+/**
+ * Published by the {@code SecretService} when the public key registered for a {@code kid} is replaced, either because
+ * a peer re-registered it through {@code /add-public-creds} or because this microservice rotated its own key pair.
+ */
+public class PublicKeyChangedEvent extends ApplicationEvent {
+
+    private final String kid;
+
+    public PublicKeyChangedEvent(Object source, String kid) {
+        super(source);
+        this.kid = kid;
+    }
+
+    public String getKid() {
+        return kid;
+    }
+}
@@ -0,0 +1,21 @@
+package com.stormpath.tutorial.event;
+
+import org.springframework.context.ApplicationEvent;
+
+/**
+ * Published by the {@code SecretService} whenever a peer registers a public key through {@code /add-public-creds},
+ * whether its {@code kid} is new or not. JWTs signed with the key can be verified from now on.
+ */
+public class PublicKeyRegisteredEvent extends ApplicationEvent {
+
+    private final String kid;
+
+    public PublicKeyRegisteredEvent(Object source, String kid) {
+        super(source);
+        this.kid = kid;
+    }
+
+    public String getKid() {
+        return kid;
+    }
+}
@@ -0,0 +1,11 @@
+package com.stormpath.tutorial.exception;
+
+public class BackpressureException extends RuntimeException {
+    public BackpressureException(String message) {
+        super(message);
+    }
+
+    public BackpressureException(String message, Throwable cause) {
+        super(message, cause);
+    }
+}
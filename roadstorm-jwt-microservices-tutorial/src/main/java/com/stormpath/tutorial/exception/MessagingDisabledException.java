@@ -0,0 +1,7 @@
+package com.stormpath.tutorial.exception;
+
+public class MessagingDisabledException extends RuntimeException {
+    public MessagingDisabledException(String message) {
+        super(message);
+    }
+}
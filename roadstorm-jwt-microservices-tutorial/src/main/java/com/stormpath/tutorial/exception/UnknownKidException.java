@@ -0,0 +1,21 @@
+package com.stormpath.tutorial.exception;
+
+import io.jsonwebtoken.JwtException;
+
+/**
+ * Thrown for a JWT signed with a key whose public key hasn't been registered (yet) through {@code /add-public-creds}.
+ * Unlike other {@link JwtException}s, the same JWT may well verify once the key arrives.
+ */
+public class UnknownKidException extends JwtException {
+
+    private final String kid;
+
+    public UnknownKidException(String kid, String message) {
+        super(message);
+        this.kid = kid;
+    }
+
+    public String getKid() {
+        return kid;
+    }
+}
@@ -0,0 +1,23 @@
+package com.stormpath.tutorial.model;
+
+/**
+ * One token of a streamed batch. Tokens are streamed as they are signed, so {@code index} tells which claim set of
+ * the request it belongs to.
+ */
+public class JWTBatchItem {
+    private final int index;
+    private final String jwt;
+
+    public JWTBatchItem(int index, String jwt) {
+        this.index = index;
+        this.jwt = jwt;
+    }
+
+    public int getIndex() {
+        return index;
+    }
+
+    public String getJwt() {
+        return jwt;
+    }
+}
@@ -0,0 +1,25 @@
+package com.stormpath.tutorial.model;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+
+import java.util.List;
+
+@JsonInclude(JsonInclude.Include.NON_NULL)
+public class JWTBatchResponse extends BaseResponse {
+    private List<String> jwts;
+
+    public JWTBatchResponse() {}
+
+    public JWTBatchResponse(List<String> jwts) {
+        this.jwts = jwts;
+        setStatus(Status.SUCCESS);
+    }
+
+    public List<String> getJwts() {
+        return jwts;
+    }
+
+    public void setJwts(List<String> jwts) {
+        this.jwts = jwts;
+    }
+}
@@ -1,23 +1,46 @@
 package com.stormpath.tutorial.model;
 
 import com.fasterxml.jackson.annotation.JsonCreator;
+import com.fasterxml.jackson.annotation.JsonInclude;
 import com.fasterxml.jackson.annotation.JsonProperty;
 
 public class PublicCreds {
     final String kid;
+    final String alg;
     final String b64UrlPublicKey;
+    final PublicCreds next;
+
+    public PublicCreds(String kid, String alg, String b64UrlPublicKey) {
+        this(kid, alg, b64UrlPublicKey, null);
+    }
 
     @JsonCreator
-    public PublicCreds(@JsonProperty("kid") String kid, @JsonProperty("b64UrlPublicKey") String b64UrlPublicKey) {
+    public PublicCreds(
+        @JsonProperty("kid") String kid, @JsonProperty("alg") String alg,
+        @JsonProperty("b64UrlPublicKey") String b64UrlPublicKey, @JsonProperty("next") PublicCreds next
+    ) {
         this.kid = kid;
+        this.alg = alg;
         this.b64UrlPublicKey = b64UrlPublicKey;
+        this.next = next;
     }
 
     public String getKid() {
         return kid;
     }
 
+    // JWA name of the algorithm the key verifies, e.g. RS256 or ES256. Creds without one are taken to be RS256.
+    public String getAlg() {
+        return alg;
+    }
+
     public String getB64UrlPublicKey() {
         return b64UrlPublicKey;
     }
+
+    // the key pair that will sign once the current one is rotated out, published ahead of the switch
+    @JsonInclude(JsonInclude.Include.NON_NULL)
+    public PublicCreds getNext() {
+        return next;
+    }
 }
@@ -0,0 +1,38 @@
+package com.stormpath.tutorial.model;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+import io.jsonwebtoken.Claims;
+
+/**
+ * The outcome for one JWT of a batch: its claims and account lookup, or what was wrong with it.
+ */
+@JsonInclude(JsonInclude.Include.NON_NULL)
+public class VerifiedJWT extends BaseResponse {
+    private String exceptionType;
+    private Claims claims;
+    private Account account;
+
+    public String getExceptionType() {
+        return exceptionType;
+    }
+
+    public void setExceptionType(String exceptionType) {
+        this.exceptionType = exceptionType;
+    }
+
+    public Claims getClaims() {
+        return claims;
+    }
+
+    public void setClaims(Claims claims) {
+        this.claims = claims;
+    }
+
+    public Account getAccount() {
+        return account;
+    }
+
+    public void setAccount(Account account) {
+        this.account = account;
+    }
+}
@@ -0,0 +1,47 @@
+package com.stormpath.tutorial.model;
+
+import java.util.List;
+
+public class VerifyBatchResponse extends BaseResponse {
+    private List<VerifiedJWT> results;
+    private int verified;
+    private double elapsedMillis;
+
+    public VerifyBatchResponse() {}
+
+    public VerifyBatchResponse(List<VerifiedJWT> results, double elapsedMillis) {
+        this.results = results;
+        this.elapsedMillis = elapsedMillis;
+        for (VerifiedJWT result : results) {
+            if (result.getClaims() != null) {
+                verified++;
+            }
+        }
+        setStatus(Status.SUCCESS);
+    }
+
+    public List<VerifiedJWT> getResults() {
+        return results;
+    }
+
+    public void setResults(List<VerifiedJWT> results) {
+        this.results = results;
+    }
+
+    // how many of the JWTs were valid, whether or not their account was found
+    public int getVerified() {
+        return verified;
+    }
+
+    public void setVerified(int verified) {
+        this.verified = verified;
+    }
+
+    public double getElapsedMillis() {
+        return elapsedMillis;
+    }
+
+    public void setElapsedMillis(double elapsedMillis) {
+        this.elapsedMillis = elapsedMillis;
+    }
+}
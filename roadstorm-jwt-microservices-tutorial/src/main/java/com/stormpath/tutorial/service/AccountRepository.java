@@ -0,0 +1,16 @@
+package com.stormpath.tutorial.service;
+
+import com.stormpath.tutorial.model.Account;
+
+/**
+ * Where {@link AccountService} looks up the account named by a JWT's {@code userName} claim.
+ */
+public interface AccountRepository {
+
+    /**
+     * @return the account, or {@code null} if there is none with that user name
+     */
+    Account findByUserName(String userName);
+
+    int size();
+}
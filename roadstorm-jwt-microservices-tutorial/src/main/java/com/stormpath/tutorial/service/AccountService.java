@@ -1,6 +1,8 @@
 package com.stormpath.tutorial.service;
 
 import com.stormpath.tutorial.exception.UnauthorizedException;
+import com.stormpath.tutorial.jwt.JwtMetrics;
+import com.stormpath.tutorial.jwt.JwtPrecheck;
 import com.stormpath.tutorial.model.Account;
 import com.stormpath.tutorial.model.AccountResponse;
 import com.stormpath.tutorial.model.BaseResponse;
@@ -8,16 +10,14 @@ import io.jsonwebtoken.Claims;
 import io.jsonwebtoken.Jws;
 import io.jsonwebtoken.Jwts;
 import io.jsonwebtoken.MissingClaimException;
+import io.jsonwebtoken.SigningKeyResolver;
 import io.jsonwebtoken.lang.Assert;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 
-import javax.annotation.PostConstruct;
-import javax.servlet.http.HttpServletRequest;
-import java.util.HashMap;
-import java.util.Map;
 
 @Service
 public class AccountService {
@@ -25,26 +25,31 @@ public class AccountService {
     @Autowired
     SecretService secretService;
 
-    public static final String USERNAME_CLAIM = "userName";
+    @Autowired
+    VerifiedJwtCache verifiedJwtCache;
 
-    private static final String BEARER_IDENTIFIER = "Bearer "; // space is important
-    private static final Logger log = LoggerFactory.getLogger(AccountService.class);
+    @Autowired
+    JwtMetrics jwtMetrics;
 
-    private Map<String, Account> accounts;
+    @Autowired
+    JwtPrecheck jwtPrecheck;
 
-    @PostConstruct
-    void setup() {
-        accounts = new HashMap<>();
-        accounts.put("anna", new Account("Anna", "Apple", "anna"));
-        accounts.put("betty", new Account("Betty", "Baker", "betty"));
-        accounts.put("colin", new Account("Colin", "Cooper", "colin"));
-    }
+    @Autowired
+    AccountRepository accountRepository;
+
+    // opt-in, as a forged and expired JWT is then reported as expired rather than as badly signed
+    @Value("${jwt.precheck.expiry.http:false}")
+    boolean expiryPrecheck;
+
+    public static final String USERNAME_CLAIM = "userName";
 
-    public AccountResponse getAccount(HttpServletRequest req) {
-        Assert.notNull(req);
+    private static final String BEARER_IDENTIFIER = "Bearer "; // space is important
+    private static final Logger log = LoggerFactory.getLogger(AccountService.class);
 
-        // get JWT as Authorization header
-        String authorization = req.getHeader("Authorization");
+    /**
+     * @param authorization the value of the {@code Authorization} header, which must carry a bearer JWT
+     */
+    public AccountResponse getAccountByAuthorization(String authorization) {
         if (authorization == null || !authorization.startsWith(BEARER_IDENTIFIER)) {
             throw new UnauthorizedException("Missing or invalid Authorization header with Bearer type.");
         }
@@ -55,14 +60,40 @@ public class AccountService {
     }
 
     public AccountResponse getAccount(String jwt) {
+        return getAccount(verify(jwt, secretService.getSigningKeyResolver()));
+    }
+
+    /**
+     * Verifies the JWT, looking up public keys through the given resolver.
+     *
+     * @throws io.jsonwebtoken.JwtException if the JWT isn't valid
+     */
+    public Jws<Claims> verify(String jwt, SigningKeyResolver signingKeyResolver) {
+        Assert.hasText(jwt, "JWT String argument cannot be null or empty.");
+
+        // a cached JWT has passed the precheck and the parser already, and is only served until its exp
+        Jws<Claims> jws = verifiedJwtCache.get(jwt);
+        if (jws == null) {
+            // turn away garbage before handing it to the parser
+            jwtPrecheck.check(jwt);
+            if (expiryPrecheck) {
+                jwtPrecheck.checkExpiry(jwt);
+            }
+
+            // verify JWT - will throw JWT Exception if not valid
+            jws = jwtMetrics.verify(() -> Jwts.parser()
+                .setSigningKeyResolver(signingKeyResolver)
+                .parseClaimsJws(jwt)
+            );
+            verifiedJwtCache.put(jwt, jws);
+        }
+        return jws;
+    }
+
+    public AccountResponse getAccount(Jws<Claims> jws) {
         AccountResponse accountResponse = new AccountResponse();
         accountResponse.setStatus(BaseResponse.Status.ERROR);
 
-        // verify JWT - will throw JWT Exception if not valid
-        Jws<Claims> jws = Jwts.parser()
-            .setSigningKeyResolver(secretService.getSigningKeyResolver())
-            .parseClaimsJws(jwt);
-
         // get userName - throw if missing
         String userName;
         if ((userName = (String)jws.getBody().get(USERNAME_CLAIM)) == null) {
@@ -74,7 +105,8 @@ public class AccountService {
         }
 
         // see if it exists
-        if (accounts.get(userName) == null) {
+        Account account = accountRepository.findByUserName(userName);
+        if (account == null) {
             String msg = "Account with " + USERNAME_CLAIM + ": " + userName + ", not found";
             log.warn(msg);
             accountResponse.setMessage(msg);
@@ -83,7 +115,7 @@ public class AccountService {
 
         accountResponse.setMessage("Found Account");
         accountResponse.setStatus(BaseResponse.Status.SUCCESS);
-        accountResponse.setAccount(accounts.get(userName));
+        accountResponse.setAccount(account);
 
         return accountResponse;
     }
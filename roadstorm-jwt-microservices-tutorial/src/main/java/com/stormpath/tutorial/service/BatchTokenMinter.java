@@ -0,0 +1,58 @@
+package com.stormpath.tutorial.service;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Mints many tokens at once, signing them in parallel on a pool with one thread per core by default.
+ */
+@Service
+public class BatchTokenMinter {
+
+    @Value("${jwt.batch.threads:0}")
+    private int threads;
+
+    @Autowired
+    TokenMinter tokenMinter;
+
+    private ExecutorService signers;
+
+    @PostConstruct
+    void init() {
+        int poolSize = threads > 0 ? threads : Runtime.getRuntime().availableProcessors();
+
+        AtomicInteger signerCount = new AtomicInteger();
+        signers = Executors.newFixedThreadPool(poolSize, r -> {
+            Thread thread = new Thread(r, "jwt-batch-signer-" + signerCount.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    @PreDestroy
+    void shutdown() {
+        signers.shutdownNow();
+    }
+
+    /**
+     * @return one future per claim set, in the same order, each completed as soon as its token is signed
+     */
+    public List<CompletableFuture<String>> mintAll(List<Map<String, Object>> claimSets, long lifetimeMillis) {
+        List<CompletableFuture<String>> jwts = new ArrayList<>(claimSets.size());
+        for (Map<String, Object> claims : claimSets) {
+            jwts.add(CompletableFuture.supplyAsync(() -> tokenMinter.mint(claims, lifetimeMillis), signers));
+        }
+        return jwts;
+    }
+}
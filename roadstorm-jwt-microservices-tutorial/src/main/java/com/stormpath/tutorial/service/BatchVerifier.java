@@ -0,0 +1,145 @@
+package com.stormpath.tutorial.service;
+
+import com.stormpath.tutorial.model.AccountResponse;
+import com.stormpath.tutorial.model.BaseResponse;
+import com.stormpath.tutorial.model.VerifiedJWT;
+import io.jsonwebtoken.Claims;
+import io.jsonwebtoken.Jws;
+import io.jsonwebtoken.JwsHeader;
+import io.jsonwebtoken.SigningKeyResolver;
+import io.jsonwebtoken.SigningKeyResolverAdapter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.security.Key;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Verifies many JWTs at once on a fork-join pool, looking up each one's account like {@code /restricted} does.
+ * <p>
+ * A JWT that fails verification doesn't fail the batch - it gets a result describing what was wrong with it.
+ */
+@Service
+public class BatchVerifier {
+
+    // below this many JWTs a task verifies them itself rather than splitting further
+    private static final int SEQUENTIAL_THRESHOLD = 8;
+
+    @Value("${jwt.verify.parallelism:0}")
+    private int parallelism;
+
+    @Autowired
+    AccountService accountService;
+
+    @Autowired
+    SecretService secretService;
+
+    @Autowired
+    MeterRegistry meterRegistry;
+
+    private ForkJoinPool pool;
+    private Timer batchLatency;
+
+    @PostConstruct
+    void init() {
+        pool = new ForkJoinPool(parallelism > 0 ? parallelism : Runtime.getRuntime().availableProcessors());
+        batchLatency = meterRegistry.timer("jwt.verify.batch");
+    }
+
+    @PreDestroy
+    void shutdown() {
+        pool.shutdownNow();
+    }
+
+    /**
+     * @return one result per JWT, in the same order
+     */
+    public List<VerifiedJWT> verifyAll(List<String> jwts) {
+        long start = System.nanoTime();
+
+        VerifiedJWT[] results = new VerifiedJWT[jwts.size()];
+        pool.invoke(new VerifyTask(jwts, results, 0, results.length, new BatchKeyResolver()));
+
+        batchLatency.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+        return Arrays.asList(results);
+    }
+
+    private VerifiedJWT verify(String jwt, SigningKeyResolver signingKeyResolver) {
+        VerifiedJWT result = new VerifiedJWT();
+        try {
+            Jws<Claims> jws = accountService.verify(jwt, signingKeyResolver);
+            result.setClaims(jws.getBody());
+
+            AccountResponse accountResponse = accountService.getAccount(jws);
+            result.setStatus(accountResponse.getStatus());
+            result.setMessage(accountResponse.getMessage());
+            result.setAccount(accountResponse.getAccount());
+        } catch (RuntimeException e) {
+            result.setStatus(BaseResponse.Status.ERROR);
+            result.setMessage(e.getMessage());
+            result.setExceptionType(e.getClass().getName());
+        }
+        return result;
+    }
+
+    private class VerifyTask extends RecursiveAction {
+        private final List<String> jwts;
+        private final VerifiedJWT[] results;
+        private final int from;
+        private final int to;
+        private final SigningKeyResolver signingKeyResolver;
+
+        VerifyTask(List<String> jwts, VerifiedJWT[] results, int from, int to, SigningKeyResolver signingKeyResolver) {
+            this.jwts = jwts;
+            this.results = results;
+            this.from = from;
+            this.to = to;
+            this.signingKeyResolver = signingKeyResolver;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from <= SEQUENTIAL_THRESHOLD) {
+                for (int i = from; i < to; i++) {
+                    results[i] = verify(jwts.get(i), signingKeyResolver);
+                }
+                return;
+            }
+
+            int middle = (from + to) >>> 1;
+            invokeAll(
+                new VerifyTask(jwts, results, from, middle, signingKeyResolver),
+                new VerifyTask(jwts, results, middle, to, signingKeyResolver)
+            );
+        }
+    }
+
+    /**
+     * Resolves each {@code kid} once per batch, so every JWT signed by it is checked against the same key - even if
+     * the key is replaced while the batch is running.
+     */
+    private class BatchKeyResolver extends SigningKeyResolverAdapter {
+        private final Map<String, Key> keys = new ConcurrentHashMap<>();
+
+        @Override
+        public Key resolveSigningKey(JwsHeader header, Claims claims) {
+            String kid = header.getKeyId();
+            if (kid == null) {
+                // let the regular resolver report it
+                return secretService.getSigningKeyResolver().resolveSigningKey(header, claims);
+            }
+            return keys.computeIfAbsent(kid, k -> secretService.getSigningKeyResolver().resolveSigningKey(header, claims));
+        }
+    }
+}
@@ -0,0 +1,162 @@
+package com.stormpath.tutorial.service;
+
+import io.jsonwebtoken.MalformedJwtException;
+
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * A JWS as the raw bytes of its header, payload and signature, instead of their Base64URL encoding.
+ * <p>
+ * On the wire it is a format byte followed by each segment with its length: an unsigned short for the header and the
+ * signature, an int for the payload. That is 9 bytes of framing in place of the 33% Base64 adds to every segment. The
+ * segments are read in place, so a record's bytes are never copied.
+ * <p>
+ * Records written as compact JWT strings still read fine - they start with a Base64URL character, never with the
+ * format byte - but their segments have to be decoded into a new array first.
+ */
+public class BinaryJws {
+
+    static final byte FORMAT = 1;
+
+    private static final int MAX_SHORT_SEGMENT = 0xFFFF;
+
+    // the 6 bit value of each Base64URL character, -1 for everything else
+    private static final byte[] BASE64URL_VALUES = new byte[128];
+
+    static {
+        Arrays.fill(BASE64URL_VALUES, (byte) -1);
+        char[] alphabet = "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789-_".toCharArray();
+        for (int i = 0; i < alphabet.length; i++) {
+            BASE64URL_VALUES[alphabet[i]] = (byte) i;
+        }
+    }
+
+    final byte[] bytes;
+    final int headerOffset;
+    final int headerLength;
+    final int payloadOffset;
+    final int payloadLength;
+    final int signatureOffset;
+    final int signatureLength;
+
+    private BinaryJws(byte[] bytes, int headerLength, int payloadLength, int signatureLength) {
+        this.bytes = bytes;
+        this.headerOffset = 1 + 2;
+        this.headerLength = headerLength;
+        this.payloadOffset = headerOffset + headerLength + 4;
+        this.payloadLength = payloadLength;
+        this.signatureOffset = payloadOffset + payloadLength + 2;
+        this.signatureLength = signatureLength;
+    }
+
+    /**
+     * @return the record for a compact JWS
+     * @throws MalformedJwtException if it isn't a compact JWS with three non-empty Base64URL segments
+     */
+    public static byte[] toBinary(String jwt) {
+        return fromCompact(jwt.getBytes(StandardCharsets.US_ASCII)).bytes;
+    }
+
+    /**
+     * @param record a record written by {@link BinaryJwsSerializer}, or a compact JWS in ASCII
+     * @throws MalformedJwtException if it is neither
+     */
+    public static BinaryJws read(byte[] record) {
+        if (record == null || record.length == 0) {
+            throw new MalformedJwtException("Empty JWS record.");
+        }
+        if (record[0] != FORMAT) {
+            return fromCompact(record);
+        }
+
+        ByteBuffer in = ByteBuffer.wrap(record);
+        in.position(1);
+        try {
+            int headerLength = in.getShort() & MAX_SHORT_SEGMENT;
+            in.position(in.position() + headerLength);
+            int payloadLength = in.getInt();
+            in.position(in.position() + payloadLength);
+            int signatureLength = in.getShort() & MAX_SHORT_SEGMENT;
+            in.position(in.position() + signatureLength);
+
+            if (headerLength == 0 || payloadLength == 0 || signatureLength == 0 || in.hasRemaining()) {
+                throw new MalformedJwtException("JWS header, payload and signature must not be empty.");
+            }
+            return new BinaryJws(record, headerLength, payloadLength, signatureLength);
+        } catch (BufferUnderflowException | IllegalArgumentException e) {
+            throw new MalformedJwtException("Truncated JWS record.", e);
+        }
+    }
+
+    /**
+     * @return the number of bytes this JWS takes up on the wire
+     */
+    public int size() {
+        return signatureOffset + signatureLength;
+    }
+
+    private static BinaryJws fromCompact(byte[] jwt) {
+        int headerEnd = indexOf(jwt, '.', 0);
+        int payloadEnd = headerEnd < 0 ? -1 : indexOf(jwt, '.', headerEnd + 1);
+        if (payloadEnd < 0 || indexOf(jwt, '.', payloadEnd + 1) >= 0) {
+            throw new MalformedJwtException("JWS strings must contain exactly 2 period characters.");
+        }
+
+        int headerLength = decodedLength(headerEnd);
+        int payloadLength = decodedLength(payloadEnd - headerEnd - 1);
+        int signatureLength = decodedLength(jwt.length - payloadEnd - 1);
+        if (headerLength <= 0 || payloadLength <= 0 || signatureLength <= 0) {
+            throw new MalformedJwtException("JWS header, payload and signature must be non-empty Base64URL.");
+        }
+        if (headerLength > MAX_SHORT_SEGMENT || signatureLength > MAX_SHORT_SEGMENT) {
+            throw new MalformedJwtException("JWS header and signature must not be longer than " + MAX_SHORT_SEGMENT + " bytes.");
+        }
+
+        BinaryJws jws = new BinaryJws(new byte[1 + 2 + headerLength + 4 + payloadLength + 2 + signatureLength],
+            headerLength, payloadLength, signatureLength);
+        ByteBuffer out = ByteBuffer.wrap(jws.bytes);
+        out.put(FORMAT).putShort((short) headerLength);
+        decode(jwt, 0, headerEnd, jws.bytes, jws.headerOffset);
+        out.position(jws.headerOffset + headerLength);
+        out.putInt(payloadLength);
+        decode(jwt, headerEnd + 1, payloadEnd, jws.bytes, jws.payloadOffset);
+        out.position(jws.payloadOffset + payloadLength);
+        out.putShort((short) signatureLength);
+        decode(jwt, payloadEnd + 1, jwt.length, jws.bytes, jws.signatureOffset);
+        return jws;
+    }
+
+    // -1 for a length no Base64URL encoding has
+    private static int decodedLength(int encodedLength) {
+        return encodedLength % 4 == 1 ? -1 : encodedLength / 4 * 3 + Math.max(encodedLength % 4 - 1, 0);
+    }
+
+    private static void decode(byte[] src, int from, int to, byte[] dst, int position) {
+        int bits = 0;
+        int bitCount = 0;
+        for (int i = from; i < to; i++) {
+            int value = src[i] >= 0 ? BASE64URL_VALUES[src[i]] : -1;
+            if (value < 0) {
+                throw new MalformedJwtException("JWT contains a character outside the Base64URL alphabet.");
+            }
+            bits = bits << 6 | value;
+            bitCount += 6;
+            if (bitCount >= 8) {
+                bitCount -= 8;
+                dst[position++] = (byte) (bits >>> bitCount);
+            }
+        }
+    }
+
+    private static int indexOf(byte[] bytes, char c, int from) {
+        for (int i = from; i < bytes.length; i++) {
+            if (bytes[i] == c) {
+                return i;
+            }
+        }
+        return -1;
+    }
+}
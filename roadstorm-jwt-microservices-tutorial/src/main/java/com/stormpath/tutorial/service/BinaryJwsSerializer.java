@@ -0,0 +1,31 @@
+package com.stormpath.tutorial.service;
+
+import io.jsonwebtoken.MalformedJwtException;
+import org.apache.kafka.common.errors.SerializationException;
+import org.apache.kafka.common.serialization.Serializer;
+
+import java.util.Map;
+
+/**
+ * Writes compact JWS strings as {@link BinaryJws} records, for {@code kafka.message-format=binary}.
+ */
+public class BinaryJwsSerializer implements Serializer<String> {
+
+    @Override
+    public void configure(Map<String, ?> configs, boolean isKey) {}
+
+    @Override
+    public byte[] serialize(String topic, String jwt) {
+        if (jwt == null) {
+            return null;
+        }
+        try {
+            return BinaryJws.toBinary(jwt);
+        } catch (MalformedJwtException e) {
+            throw new SerializationException("Not a compact JWS: " + e.getMessage(), e);
+        }
+    }
+
+    @Override
+    public void close() {}
+}
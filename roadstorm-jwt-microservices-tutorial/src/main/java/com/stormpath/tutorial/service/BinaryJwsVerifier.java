@@ -0,0 +1,221 @@
+package com.stormpath.tutorial.service;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.stormpath.tutorial.jwt.JwtMetrics;
+import com.stormpath.tutorial.jwt.JwtPrecheck;
+import com.stormpath.tutorial.jwt.ScratchPool;
+import io.jsonwebtoken.Claims;
+import io.jsonwebtoken.CompressionCodec;
+import io.jsonwebtoken.CompressionCodecResolver;
+import io.jsonwebtoken.ExpiredJwtException;
+import io.jsonwebtoken.Jws;
+import io.jsonwebtoken.JwsHeader;
+import io.jsonwebtoken.MalformedJwtException;
+import io.jsonwebtoken.PrematureJwtException;
+import io.jsonwebtoken.SignatureAlgorithm;
+import io.jsonwebtoken.SignatureException;
+import io.jsonwebtoken.UnsupportedJwtException;
+import io.jsonwebtoken.impl.DefaultClaims;
+import io.jsonwebtoken.impl.DefaultJwsHeader;
+import io.jsonwebtoken.impl.TextCodec;
+import io.jsonwebtoken.impl.compression.DefaultCompressionCodecResolver;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.security.GeneralSecurityException;
+import java.security.Key;
+import java.security.PublicKey;
+import java.security.Signature;
+import java.security.interfaces.ECKey;
+import java.security.interfaces.RSAKey;
+import java.text.SimpleDateFormat;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.EnumMap;
+import java.util.Map;
+
+/**
+ * Verifies {@link BinaryJws} records the way {@code Jwts.parser()} verifies compact JWTs: same key resolution, same
+ * checks, same exceptions.
+ * <p>
+ * The header and claims are parsed straight from the record's bytes. The signing input - the Base64URL encoded header
+ * and payload joined by a period - is encoded into a pooled buffer rather than a String, with pooled
+ * {@link Signature} instances, like {@link TokenMinter} does for signing. Tokens whose Base64URL wasn't the
+ * canonical unpadded encoding jjwt writes don't verify here.
+ * <p>
+ * Only RS256 and ES256/384/512 tokens are accepted, the ones a microservice signs. A signed plaintext payload is
+ * rejected as malformed, where the parser fails in the key resolver instead. There is no verified JWT cache on
+ * this path - messages are rarely delivered more than once.
+ */
+@Service
+public class BinaryJwsVerifier {
+
+    private static final ObjectMapper OBJECT_MAPPER = new ObjectMapper();
+
+    private static final CompressionCodecResolver COMPRESSION_CODEC_RESOLVER = new DefaultCompressionCodecResolver();
+
+    private static final String SIGNATURE_MISMATCH =
+        "JWT signature does not match locally computed signature. JWT validity cannot be asserted and should not be trusted.";
+
+    private static final String ISO_8601_FORMAT = "yyyy-MM-dd'T'HH:mm:ssZ";
+
+    private static final ScratchPool<Buffers> BUFFERS = new ScratchPool<>(Buffers::new);
+
+    @Autowired
+    SecretService secretService;
+
+    @Autowired
+    JwtMetrics jwtMetrics;
+
+    @Autowired
+    JwtPrecheck jwtPrecheck;
+
+    // opt-in, as a forged and expired JWT is then reported as expired rather than as badly signed
+    @Value("${jwt.precheck.expiry.kafka:false}")
+    boolean expiryPrecheck;
+
+    /**
+     * @throws io.jsonwebtoken.JwtException if the JWS isn't valid
+     */
+    public Jws<Claims> verify(BinaryJws jws) {
+        return jwtMetrics.verify(() -> doVerify(jws));
+    }
+
+    private Jws<Claims> doVerify(BinaryJws jws) {
+        JwsHeader header = new DefaultJwsHeader(readJson(jws.bytes, jws.headerOffset, jws.headerLength));
+
+        Claims claims;
+        CompressionCodec compressionCodec = COMPRESSION_CODEC_RESOLVER.resolveCompressionCodec(header);
+        if (compressionCodec != null) {
+            byte[] payload = Arrays.copyOfRange(jws.bytes, jws.payloadOffset, jws.payloadOffset + jws.payloadLength);
+            byte[] decompressed = compressionCodec.decompress(payload);
+            claims = new DefaultClaims(readJson(decompressed, 0, decompressed.length));
+        } else {
+            claims = new DefaultClaims(readJson(jws.bytes, jws.payloadOffset, jws.payloadLength));
+        }
+
+        // stale messages are turned away before any signature work
+        if (expiryPrecheck) {
+            jwtPrecheck.checkTimes(header, claims);
+        }
+
+        // like the parser, a signed JWT claiming to be unsigned is malformed rather than unsupported
+        SignatureAlgorithm alg = header.getAlgorithm() == null ? null : SignatureAlgorithm.forName(header.getAlgorithm());
+        if (alg == null || alg == SignatureAlgorithm.NONE) {
+            throw new MalformedJwtException(
+                "JWT string has a digest/signature, but the header does not reference a valid signature algorithm."
+            );
+        }
+        if (!alg.isRsa() && !alg.isEllipticCurve()) {
+            throw new UnsupportedJwtException("Only RSA and Elliptic Curve signed JWTs are accepted, not " + alg.getValue() + ".");
+        }
+
+        Key key = secretService.getSigningKeyResolver().resolveSigningKey(header, claims);
+        if (!(key instanceof PublicKey) || (alg.isRsa() ? !(key instanceof RSAKey) : !(key instanceof ECKey))) {
+            throw new UnsupportedJwtException(
+                "The JWT was signed with " + alg.getValue() + ", which the key for kid: " + header.getKeyId() +
+                " can't be used to verify."
+            );
+        }
+
+        if (!verifySignature(jws, alg, (PublicKey) key)) {
+            throw new SignatureException(SIGNATURE_MISMATCH);
+        }
+
+        // same arithmetic and order as DefaultJwtParser
+        long now = System.currentTimeMillis();
+        Date expiration = claims.getExpiration();
+        if (expiration != null && now >= expiration.getTime()) {
+            SimpleDateFormat format = new SimpleDateFormat(ISO_8601_FORMAT);
+            throw new ExpiredJwtException(header, claims,
+                "JWT expired at " + format.format(expiration) + ". Current time: " + format.format(new Date(now))
+            );
+        }
+        Date notBefore = claims.getNotBefore();
+        if (notBefore != null && now < notBefore.getTime()) {
+            SimpleDateFormat format = new SimpleDateFormat(ISO_8601_FORMAT);
+            throw new PrematureJwtException(header, claims,
+                "JWT must not be accepted before " + format.format(notBefore) + ". Current time: " + format.format(new Date(now))
+            );
+        }
+
+        return new VerifiedJws(header, claims, jws);
+    }
+
+    private static boolean verifySignature(BinaryJws jws, SignatureAlgorithm alg, PublicKey key) {
+        Buffers buffers = BUFFERS.take();
+        try {
+            TokenBuffer signingInput = buffers.signingInput;
+            signingInput.reset();
+            signingInput.writeBase64Url(jws.bytes, jws.headerOffset, jws.headerLength);
+            signingInput.write('.');
+            signingInput.writeBase64Url(jws.bytes, jws.payloadOffset, jws.payloadLength);
+
+            Signature signature = buffers.signature(alg);
+            signature.initVerify(key);
+            signature.update(signingInput.bytes, 0, signingInput.size);
+            return signature.verify(jws.bytes, jws.signatureOffset, jws.signatureLength);
+        } catch (GeneralSecurityException e) {
+            throw new SignatureException("Unable to verify " + alg.getValue() + " signature: " + e.getMessage(), e);
+        } finally {
+            BUFFERS.release(buffers);
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private static Map<String, Object> readJson(byte[] bytes, int offset, int length) {
+        try {
+            return OBJECT_MAPPER.readValue(bytes, offset, length, Map.class);
+        } catch (IOException e) {
+            throw new MalformedJwtException("Unable to read JSON value: " + e.getMessage(), e);
+        }
+    }
+
+    private static class Buffers {
+        private final TokenBuffer signingInput = new TokenBuffer();
+        private final Map<SignatureAlgorithm, Signature> signatures = new EnumMap<>(SignatureAlgorithm.class);
+
+        Signature signature(SignatureAlgorithm alg) throws GeneralSecurityException {
+            Signature signature = signatures.get(alg);
+            if (signature == null) {
+                signature = Signature.getInstance(alg.getJcaName());
+                signatures.put(alg, signature);
+            }
+            return signature;
+        }
+    }
+
+    /**
+     * The signature is only Base64URL encoded if someone asks for it.
+     */
+    private static class VerifiedJws implements Jws<Claims> {
+        private final JwsHeader header;
+        private final Claims claims;
+        private final BinaryJws jws;
+
+        VerifiedJws(JwsHeader header, Claims claims, BinaryJws jws) {
+            this.header = header;
+            this.claims = claims;
+            this.jws = jws;
+        }
+
+        @Override
+        public JwsHeader getHeader() {
+            return header;
+        }
+
+        @Override
+        public Claims getBody() {
+            return claims;
+        }
+
+        @Override
+        public String getSignature() {
+            return TextCodec.BASE64URL.encode(
+                Arrays.copyOfRange(jws.bytes, jws.signatureOffset, jws.signatureOffset + jws.signatureLength)
+            );
+        }
+    }
+}
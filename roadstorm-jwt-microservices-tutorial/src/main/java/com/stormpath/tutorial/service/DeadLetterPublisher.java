@@ -0,0 +1,127 @@
+package com.stormpath.tutorial.service;
+
+import com.stormpath.tutorial.exception.UnknownKidException;
+import io.jsonwebtoken.ExpiredJwtException;
+import io.jsonwebtoken.MalformedJwtException;
+import io.jsonwebtoken.PrematureJwtException;
+import io.jsonwebtoken.SignatureException;
+import io.jsonwebtoken.UnsupportedJwtException;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.apache.kafka.clients.producer.KafkaProducer;
+import org.apache.kafka.clients.producer.Producer;
+import org.apache.kafka.clients.producer.ProducerRecord;
+import org.apache.kafka.clients.producer.RecordMetadata;
+import org.apache.kafka.common.header.Headers;
+import org.apache.kafka.common.serialization.ByteArraySerializer;
+import org.apache.kafka.common.serialization.StringSerializer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.nio.charset.StandardCharsets;
+import java.util.Properties;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Future;
+
+/**
+ * Copies records that can't be verified to the dead-letter topic, as they were consumed, with the reason in headers:
+ * <ul>
+ * <li>{@value #REASON_HEADER} - {@code malformed}, {@code bad-signature}, {@code unknown-kid}, {@code expired},
+ * {@code premature}, {@code unsupported} or {@code invalid}</li>
+ * <li>{@value #EXCEPTION_HEADER} and {@value #MESSAGE_HEADER} - the exception that was thrown</li>
+ * <li>{@value #TOPIC_HEADER}, {@value #PARTITION_HEADER} and {@value #OFFSET_HEADER} - where the record came from</li>
+ * <li>{@value #ATTEMPTS_HEADER} - how many times it was verified</li>
+ * </ul>
+ * Records are sent with the {@link ProducerProfile#DURABLE} profile. The consumer waits for each send before it
+ * commits past the record, so a record whose dead letter is lost is read again rather than lost with it.
+ */
+class DeadLetterPublisher implements Closeable {
+
+    static final String REASON_HEADER = "dead-letter-reason";
+    static final String EXCEPTION_HEADER = "dead-letter-exception";
+    static final String MESSAGE_HEADER = "dead-letter-message";
+    static final String TOPIC_HEADER = "dead-letter-topic";
+    static final String PARTITION_HEADER = "dead-letter-partition";
+    static final String OFFSET_HEADER = "dead-letter-offset";
+    static final String ATTEMPTS_HEADER = "dead-letter-attempts";
+
+    private final String topic;
+    private final Producer<String, byte[]> producer;
+    private final MeterRegistry meterRegistry;
+
+    private static final Logger log = LoggerFactory.getLogger(DeadLetterPublisher.class);
+
+    DeadLetterPublisher(String brokerAddress, String topic, MeterRegistry meterRegistry) {
+        Properties kafkaProps = ProducerProfile.DURABLE.properties();
+        kafkaProps.put("bootstrap.servers", brokerAddress);
+
+        this.topic = topic;
+        this.producer = new KafkaProducer<>(kafkaProps, new StringSerializer(), new ByteArraySerializer());
+        this.meterRegistry = meterRegistry;
+    }
+
+    /**
+     * Doesn't wait for the broker.
+     *
+     * @return the send, done once the broker has the dead letter, or failed if it can't be sent
+     */
+    Future<RecordMetadata> publish(ConsumerRecord<String, byte[]> record, Exception failure, int attempts) {
+        String reason = reasonFor(failure);
+        meterRegistry.counter("kafka.consumer.dead-letters", "reason", reason).increment();
+
+        ProducerRecord<String, byte[]> deadLetter = new ProducerRecord<>(topic, record.key(), record.value());
+        Headers headers = deadLetter.headers();
+        header(headers, REASON_HEADER, reason);
+        header(headers, EXCEPTION_HEADER, failure.getClass().getName());
+        header(headers, MESSAGE_HEADER, String.valueOf(failure.getMessage()));
+        header(headers, TOPIC_HEADER, record.topic());
+        header(headers, PARTITION_HEADER, String.valueOf(record.partition()));
+        header(headers, OFFSET_HEADER, String.valueOf(record.offset()));
+        header(headers, ATTEMPTS_HEADER, String.valueOf(attempts));
+
+        log.warn("Dead-lettering record {}-{} at offset {} ({}): {}",
+            record.topic(), record.partition(), record.offset(), reason, failure.getMessage());
+        try {
+            return producer.send(deadLetter, (recordMetadata, e) -> {
+                if (e != null) {
+                    log.error("Unable to dead-letter record {}-{} at offset {}: {}",
+                        record.topic(), record.partition(), record.offset(), e.getMessage(), e);
+                }
+            });
+        } catch (RuntimeException e) {
+            log.error("Unable to dead-letter record {}-{} at offset {}: {}",
+                record.topic(), record.partition(), record.offset(), e.getMessage(), e);
+            CompletableFuture<RecordMetadata> failed = new CompletableFuture<>();
+            failed.completeExceptionally(e);
+            return failed;
+        }
+    }
+
+    @Override
+    public void close() {
+        // flushes whatever is still buffered
+        producer.close();
+    }
+
+    static String reasonFor(Exception failure) {
+        if (failure instanceof UnknownKidException) {
+            return "unknown-kid";
+        } else if (failure instanceof SignatureException) {
+            return "bad-signature";
+        } else if (failure instanceof MalformedJwtException) {
+            return "malformed";
+        } else if (failure instanceof ExpiredJwtException) {
+            return "expired";
+        } else if (failure instanceof PrematureJwtException) {
+            return "premature";
+        } else if (failure instanceof UnsupportedJwtException) {
+            return "unsupported";
+        }
+        return "invalid";
+    }
+
+    private static void header(Headers headers, String key, String value) {
+        headers.add(key, value.getBytes(StandardCharsets.UTF_8));
+    }
+}
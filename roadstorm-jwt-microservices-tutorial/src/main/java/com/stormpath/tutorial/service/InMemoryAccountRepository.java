@@ -0,0 +1,31 @@
+package com.stormpath.tutorial.service;
+
+import com.stormpath.tutorial.model.Account;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Accounts held in a {@link HashMap}. Fine for a handful of demo accounts, but every account costs a few hundred bytes
+ * of heap and has to be built before the first request.
+ */
+public class InMemoryAccountRepository implements AccountRepository {
+
+    private final Map<String, Account> accounts = new HashMap<>();
+
+    public InMemoryAccountRepository(Account... accounts) {
+        for (Account account : accounts) {
+            this.accounts.put(account.getUserName(), account);
+        }
+    }
+
+    @Override
+    public Account findByUserName(String userName) {
+        return accounts.get(userName);
+    }
+
+    @Override
+    public int size() {
+        return accounts.size();
+    }
+}
@@ -0,0 +1,109 @@
+package com.stormpath.tutorial.service;
+
+import java.security.PublicKey;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Supplier;
+
+/**
+ * Copy-on-write registry of trusted public keys and of this microservice's active signing key pair.
+ * <p>
+ * Readers always see an immutable snapshot, so resolving a key on a request thread never takes a lock. Writers
+ * (trust handshakes, key rotations and purges) are rare and pay for a copy of the map instead.
+ * <p>
+ * Keys restored from the {@link PersistentKeyStore} are registered in their encoded form and only decoded the first
+ * time they are resolved.
+ */
+public class KeyRegistry {
+
+    private final AtomicReference<Map<String, TrustedKey>> publicKeys = new AtomicReference<>(Collections.emptyMap());
+
+    private final AtomicReference<SigningCreds> signingCreds = new AtomicReference<>();
+
+    public PublicKey getPublicKey(String kid) {
+        TrustedKey key = publicKeys.get().get(kid);
+        return key == null ? null : key.get();
+    }
+
+    /**
+     * @return whether this replaced a key previously registered for the {@code kid}
+     */
+    public boolean putPublicKey(String kid, PublicKey publicKey) {
+        TrustedKey key = new TrustedKey(publicKey, null);
+        while (true) {
+            Map<String, TrustedKey> current = publicKeys.get();
+            Map<String, TrustedKey> next = new HashMap<>(current);
+            TrustedKey previous = next.put(kid, key);
+            if (publicKeys.compareAndSet(current, Collections.unmodifiableMap(next))) {
+                return previous != null;
+            }
+        }
+    }
+
+    /**
+     * Registers keys that are only decoded when first resolved, with a single copy of the map however many there are.
+     */
+    public void putEncodedPublicKeys(Map<String, Supplier<PublicKey>> decoders) {
+        while (true) {
+            Map<String, TrustedKey> current = publicKeys.get();
+            Map<String, TrustedKey> next = new HashMap<>(current);
+            decoders.forEach((kid, decoder) -> next.put(kid, new TrustedKey(null, decoder)));
+            if (publicKeys.compareAndSet(current, Collections.unmodifiableMap(next))) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * @return whether a key was registered for the {@code kid}
+     */
+    public boolean removePublicKey(String kid) {
+        while (true) {
+            Map<String, TrustedKey> current = publicKeys.get();
+            if (!current.containsKey(kid)) {
+                return false;
+            }
+            Map<String, TrustedKey> next = new HashMap<>(current);
+            next.remove(kid);
+            if (publicKeys.compareAndSet(current, Collections.unmodifiableMap(next))) {
+                return true;
+            }
+        }
+    }
+
+    public SigningCreds getSigningCreds() {
+        return signingCreds.get();
+    }
+
+    /**
+     * @return the signing credentials that were active before the swap, or {@code null}
+     */
+    public SigningCreds setSigningCreds(SigningCreds creds) {
+        return signingCreds.getAndSet(creds);
+    }
+
+    private static class TrustedKey {
+        private volatile PublicKey key;
+        private Supplier<PublicKey> decoder;
+
+        TrustedKey(PublicKey key, Supplier<PublicKey> decoder) {
+            this.key = key;
+            this.decoder = decoder;
+        }
+
+        PublicKey get() {
+            PublicKey key = this.key;
+            return key != null ? key : decode();
+        }
+
+        private synchronized PublicKey decode() {
+            if (key == null) {
+                key = decoder.get();
+                decoder = null;
+            }
+            return key;
+        }
+    }
+}
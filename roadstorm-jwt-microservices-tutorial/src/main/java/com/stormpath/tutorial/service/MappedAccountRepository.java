@@ -0,0 +1,264 @@
+package com.stormpath.tutorial.service;
+
+import com.stormpath.tutorial.model.Account;
+
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Accounts in a memory-mapped file, written by {@link #write(Path, Collection)}, with a small LRU of hot accounts in
+ * front.
+ * <p>
+ * The file starts with an open-addressing hash table (linear probing, at most half full) of {@code int} pairs: the hash
+ * of a user name and the offset of its record. The records follow, each one the user name, first name and last name
+ * as length-prefixed UTF-8. User names are compared in place in the mapping and an {@link Account} is only built for
+ * the record that matches, so opening the file costs the same for three accounts as for millions, and the heap holds
+ * nothing per account but the LRU entries.
+ */
+public class MappedAccountRepository implements AccountRepository {
+
+    private static final int MAGIC = 0x41434354; // ACCT
+    private static final int VERSION = 1;
+
+    private static final int HEADER_SIZE = 16;
+    private static final int SLOT_SIZE = 8;
+    private static final int MAX_FIELD_LENGTH = 0xFFFF;
+
+    private final MappedByteBuffer file;
+    private final int size;
+    private final int mask;
+
+    private final Map<String, Account> hot;
+
+    public MappedAccountRepository(Path path, final int cacheSize) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            if (channel.size() > Integer.MAX_VALUE) {
+                throw new IOException("Account file " + path + " is larger than 2 GB");
+            }
+            file = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+
+        if (file.capacity() < HEADER_SIZE || file.getInt(0) != MAGIC || file.getInt(4) != VERSION) {
+            throw new IOException("Not an account file: " + path);
+        }
+        size = file.getInt(8);
+        mask = file.getInt(12) - 1;
+
+        hot = new LinkedHashMap<String, Account>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Account> eldest) {
+                return size() > cacheSize;
+            }
+        };
+    }
+
+    @Override
+    public Account findByUserName(String userName) {
+        if (userName == null) {
+            return null;
+        }
+
+        synchronized (hot) {
+            Account account = hot.get(userName);
+            if (account != null) {
+                return account;
+            }
+        }
+
+        Account account = read(userName);
+        if (account != null) {
+            synchronized (hot) {
+                hot.put(userName, account);
+            }
+        }
+        return account;
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    private Account read(String userName) {
+        byte[] name = userName.getBytes(StandardCharsets.UTF_8);
+        int hash = hash(name);
+
+        for (int slot = hash & mask; ; slot = (slot + 1) & mask) {
+            int entry = HEADER_SIZE + slot * SLOT_SIZE;
+            int offset = file.getInt(entry + 4);
+            if (offset == 0) {
+                return null;
+            }
+            if (file.getInt(entry) == hash && nameMatches(offset, name)) {
+                return readAccount(offset);
+            }
+        }
+    }
+
+    private boolean nameMatches(int offset, byte[] name) {
+        if (file.getShort(offset) != (short) name.length) {
+            return false;
+        }
+        for (int i = 0; i < name.length; i++) {
+            if (file.get(offset + 2 + i) != name[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private Account readAccount(int offset) {
+        ByteBuffer record = file.duplicate();
+        record.position(offset);
+
+        String userName = readField(record);
+        String firstName = readField(record);
+        String lastName = readField(record);
+        return new Account(firstName, lastName, userName);
+    }
+
+    private static String readField(ByteBuffer record) {
+        byte[] bytes = new byte[record.getShort() & MAX_FIELD_LENGTH];
+        record.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Writes the accounts to a new file, then moves it over {@code path}. A running instance keeps reading the file it
+     * mapped until it is restarted.
+     *
+     * @throws IllegalArgumentException if two accounts have the same user name
+     */
+    public static void write(Path path, Collection<Account> accounts) throws IOException {
+        Path tmp = path.resolveSibling(path.getFileName() + ".tmp");
+        try {
+            writeFile(tmp, accounts);
+            // replacing the file rather than rewriting it, as truncating a file another process has mapped crashes it
+            Files.move(tmp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException | RuntimeException e) {
+            Files.deleteIfExists(tmp);
+            throw e;
+        }
+    }
+
+    private static void writeFile(Path tmp, Collection<Account> accounts) throws IOException {
+        int slots = Integer.highestOneBit(Math.max(accounts.size(), 1) * 2 - 1) << 1;
+        int[] table = new int[slots * 2];
+        int mask = slots - 1;
+        int recordsOffset = HEADER_SIZE + slots * SLOT_SIZE;
+
+        try (FileChannel channel = FileChannel.open(
+            tmp, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE
+        )) {
+            channel.position(recordsOffset);
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Channels.newOutputStream(channel), 64 * 1024));
+
+            Set<String> userNames = new HashSet<>();
+            long offset = recordsOffset;
+            for (Account account : accounts) {
+                if (!userNames.add(account.getUserName())) {
+                    throw new IllegalArgumentException("Duplicate account with userName: " + account.getUserName());
+                }
+
+                byte[] name = account.getUserName().getBytes(StandardCharsets.UTF_8);
+                byte[] firstName = account.getFirstName().getBytes(StandardCharsets.UTF_8);
+                byte[] lastName = account.getLastName().getBytes(StandardCharsets.UTF_8);
+                // the whole record has to be within the mapping, not just its start
+                if (offset + 6 + name.length + firstName.length + lastName.length > Integer.MAX_VALUE) {
+                    throw new IOException("Accounts don't fit in a 2 GB account file");
+                }
+
+                int hash = hash(name);
+                int slot = hash & mask;
+                while (table[slot * 2 + 1] != 0) {
+                    slot = (slot + 1) & mask;
+                }
+                table[slot * 2] = hash;
+                table[slot * 2 + 1] = (int) offset;
+
+                offset += writeField(out, name);
+                offset += writeField(out, firstName);
+                offset += writeField(out, lastName);
+            }
+            out.flush();
+
+            ByteBuffer header = ByteBuffer.allocate(recordsOffset);
+            header.putInt(MAGIC).putInt(VERSION).putInt(accounts.size()).putInt(slots);
+            header.asIntBuffer().put(table);
+            header.rewind();
+            while (header.hasRemaining()) {
+                channel.write(header, header.position());
+            }
+            channel.force(true);
+        }
+    }
+
+    /**
+     * Writes an account file from a CSV file with a {@code userName,firstName,lastName} line per account. Fields are
+     * taken as they are, without quoting, and blank lines are skipped.
+     */
+    public static void main(String[] args) throws IOException {
+        if (args.length != 2) {
+            System.err.println("Usage: MappedAccountRepository <accounts.csv> <account file>");
+            System.exit(1);
+        }
+
+        List<Account> accounts = new ArrayList<>();
+        try (BufferedReader in = Files.newBufferedReader(Paths.get(args[0]), StandardCharsets.UTF_8)) {
+            int lineNumber = 0;
+            for (String line = in.readLine(); line != null; line = in.readLine()) {
+                lineNumber++;
+                if (line.trim().isEmpty()) {
+                    continue;
+                }
+                String[] fields = line.split(",", -1);
+                if (fields.length != 3) {
+                    throw new IllegalArgumentException(
+                        args[0] + ":" + lineNumber + " is not a userName,firstName,lastName line"
+                    );
+                }
+                accounts.add(new Account(fields[1].trim(), fields[2].trim(), fields[0].trim()));
+            }
+        }
+
+        write(Paths.get(args[1]), accounts);
+        System.out.println("Wrote " + accounts.size() + " accounts to " + args[1]);
+    }
+
+    private static int writeField(DataOutputStream out, byte[] bytes) throws IOException {
+        if (bytes.length > MAX_FIELD_LENGTH) {
+            throw new IllegalArgumentException("Account field longer than " + MAX_FIELD_LENGTH + " bytes");
+        }
+        out.writeShort(bytes.length);
+        out.write(bytes);
+        return 2 + bytes.length;
+    }
+
+    // FNV-1a, with the high bits folded in as only the low ones pick the slot
+    private static int hash(byte[] bytes) {
+        int hash = 0x811C9DC5;
+        for (byte b : bytes) {
+            hash = (hash ^ (b & 0xFF)) * 0x01000193;
+        }
+        return hash ^ (hash >>> 16);
+    }
+}
@@ -0,0 +1,205 @@
+package com.stormpath.tutorial.service;
+
+import com.stormpath.tutorial.jwt.MappedRecordLog;
+import io.jsonwebtoken.SignatureAlgorithm;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.security.GeneralSecurityException;
+import java.security.KeyFactory;
+import java.security.KeyPair;
+import java.security.PrivateKey;
+import java.security.PublicKey;
+import java.security.spec.PKCS8EncodedKeySpec;
+import java.security.spec.X509EncodedKeySpec;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Supplier;
+
+/**
+ * Keeps the public keys this microservice trusts and its own signing creds in a {@link MappedRecordLog}, so that
+ * neither the trust handshakes nor the key pair have to be repeated after a restart.
+ * <p>
+ * Keys are stored in their binary X.509 and PKCS#8 forms. Trusted keys are handed to the {@link KeyRegistry}
+ * undecoded, so loading thousands of them costs little more than reading the file. Retired signing keys are kept
+ * with their purge time, so a restart neither forgets the grace period nor brings back a key that was already purged.
+ * <p>
+ * The store remembers which records are still live. Once keys are purged, {@link #compact()} rewrites the file with
+ * just those, so replaced private keys and purged public keys don't stay on disk and the file doesn't grow with every
+ * rotation.
+ */
+public class PersistentKeyStore implements Closeable {
+
+    private static final byte TRUSTED_KEY = 1;
+    private static final byte SIGNING_CREDS = 2;
+    private static final byte RETIRED_KEY = 3;
+
+    private final MappedRecordLog log;
+
+    // the live records, guarded by this
+    private final Map<String, MappedRecordLog.Record> trusted = new LinkedHashMap<>();
+    private final Map<String, MappedRecordLog.Record> retired = new HashMap<>();
+    private MappedRecordLog.Record signingCreds;
+
+    public PersistentKeyStore(Path path, int initialSize) throws IOException {
+        this.log = new MappedRecordLog(path, initialSize);
+    }
+
+    /**
+     * Registers every stored public key with the registry, to be decoded when first resolved. Retired keys whose purge
+     * time has passed are left out, the others are added to {@code retiring}.
+     *
+     * @param retiring receives the kid and purge time of every retired key that is still trusted
+     * @return the signing creds stored last, or {@code null} if there are none
+     */
+    public synchronized SigningCreds load(KeyRegistry keyRegistry, Map<String, Long> retiring) {
+        Map<String, Supplier<PublicKey>> publicKeys = new LinkedHashMap<>();
+
+        for (MappedRecordLog.Record record : log.getRecords()) {
+            switch (record.getType()) {
+                case TRUSTED_KEY:
+                    // later records replace earlier ones for the same kid
+                    String kid = record.getString(0);
+                    publicKeys.put(kid, () -> publicKey(
+                        SignatureAlgorithm.forName(record.getString(1)), record.getBytes(2)
+                    ));
+                    trusted.put(kid, record);
+                    // trusting a key again takes it out of retirement
+                    retired.remove(kid);
+                    break;
+                case SIGNING_CREDS:
+                    signingCreds = record;
+                    break;
+                case RETIRED_KEY:
+                    retired.put(record.getString(0), record);
+                    break;
+            }
+        }
+
+        long now = System.currentTimeMillis();
+        retired.values().removeIf(record -> {
+            String kid = record.getString(0);
+            long purgeAt = purgeAt(record);
+            if (purgeAt <= now) {
+                publicKeys.remove(kid);
+                trusted.remove(kid);
+                return true;
+            }
+            if (!trusted.containsKey(kid)) {
+                return true;
+            }
+            retiring.put(kid, purgeAt);
+            return false;
+        });
+
+        keyRegistry.putEncodedPublicKeys(publicKeys);
+        // the keys purged while this instance was down, and everything replaced since the last compaction
+        if (log.getRecords().size() > liveRecords().size()) {
+            compact();
+        }
+
+        if (signingCreds == null) {
+            return null;
+        }
+        SignatureAlgorithm alg = SignatureAlgorithm.forName(signingCreds.getString(1));
+        KeyPair keyPair = new KeyPair(publicKey(alg, signingCreds.getBytes(2)), privateKey(alg, signingCreds.getBytes(3)));
+        return new SigningCreds(signingCreds.getString(0), alg, keyPair);
+    }
+
+    public synchronized void saveTrustedKey(String kid, SignatureAlgorithm alg, PublicKey publicKey) {
+        trusted.put(kid, append(TRUSTED_KEY, utf8(kid), utf8(alg.getValue()), publicKey.getEncoded()));
+        retired.remove(kid);
+    }
+
+    public synchronized void saveSigningCreds(SigningCreds creds) {
+        signingCreds = append(
+            SIGNING_CREDS, utf8(creds.getKid()), utf8(creds.getAlgorithm().getValue()),
+            creds.getPublicKey().getEncoded(), creds.getPrivateKey().getEncoded()
+        );
+    }
+
+    /**
+     * Records that the key for the {@code kid} stops being trusted at {@code purgeAt}, in epoch millis.
+     */
+    public synchronized void saveRetiredKey(String kid, long purgeAt) {
+        retired.put(kid, append(RETIRED_KEY, utf8(kid), ByteBuffer.allocate(8).putLong(purgeAt).array()));
+    }
+
+    /**
+     * Forgets the key for the {@code kid}. It is dropped from the file by the next {@link #compact()}; until then a
+     * restart leaves it out by its purge time.
+     */
+    public synchronized void removeTrustedKey(String kid) {
+        trusted.remove(kid);
+        retired.remove(kid);
+    }
+
+    /**
+     * Rewrites the file with just the live records: the trusted keys, the retirements of those still trusted, and the
+     * signing creds in use.
+     */
+    public synchronized void compact() {
+        try {
+            log.rewrite(liveRecords());
+        } catch (IOException e) {
+            throw new IllegalStateException("Unable to compact the key store: " + e.getMessage(), e);
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        log.close();
+    }
+
+    // in an order load() reads back the same way: every retirement after the key it retires
+    private List<MappedRecordLog.Record> liveRecords() {
+        List<MappedRecordLog.Record> live = new ArrayList<>(trusted.values());
+        live.addAll(retired.values());
+        if (signingCreds != null) {
+            live.add(signingCreds);
+        }
+        return live;
+    }
+
+    private MappedRecordLog.Record append(byte type, byte[]... fields) {
+        try {
+            return log.append(type, fields);
+        } catch (IOException e) {
+            throw new IllegalStateException("Unable to write to the key store: " + e.getMessage(), e);
+        }
+    }
+
+    private static long purgeAt(MappedRecordLog.Record retired) {
+        return ByteBuffer.wrap(retired.getBytes(1)).getLong();
+    }
+
+    private static String keyFactoryAlgorithm(SignatureAlgorithm alg) {
+        return alg.isRsa() ? "RSA" : "EC";
+    }
+
+    private static PublicKey publicKey(SignatureAlgorithm alg, byte[] encoded) {
+        try {
+            return KeyFactory.getInstance(keyFactoryAlgorithm(alg)).generatePublic(new X509EncodedKeySpec(encoded));
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException("Unable to restore " + alg.getValue() + " public key: " + e.getMessage(), e);
+        }
+    }
+
+    private static PrivateKey privateKey(SignatureAlgorithm alg, byte[] encoded) {
+        try {
+            return KeyFactory.getInstance(keyFactoryAlgorithm(alg)).generatePrivate(new PKCS8EncodedKeySpec(encoded));
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException("Unable to restore " + alg.getValue() + " private key: " + e.getMessage(), e);
+        }
+    }
+
+    private static byte[] utf8(String s) {
+        return s.getBytes(StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,113 @@
+package com.stormpath.tutorial.service;
+
+import org.springframework.core.env.PropertyResolver;
+
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Properties;
+
+/**
+ * Named sets of Kafka producer settings, picked with {@code kafka.producer.profile}.
+ * <ul>
+ * <li>{@link #LATENCY} sends each message as soon as possible, uncompressed. The leader's acknowledgement is
+ * enough.</li>
+ * <li>{@link #THROUGHPUT} waits up to 20 ms to fill large LZ4 compressed batches. JWTs repeat the same header and claim
+ * names, so a batch of them compresses far better than a single token does.</li>
+ * <li>{@link #DURABLE} waits for all in-sync replicas and retries a failed send up to 5 times. The producer is
+ * idempotent, so a retry neither duplicates a message nor reorders a partition. The 1.1 client has no
+ * {@code delivery.timeout.ms}, so unlimited retries would keep a send - and its in-flight permit - waiting for as long as
+ * the brokers return retriable errors. With 5, each attempt waiting up to {@code request.timeout.ms} (30 s), a send
+ * fails after about 3 minutes at the most.</li>
+ * </ul>
+ */
+public enum ProducerProfile {
+
+    LATENCY("1", 1, false, 0, 16384, "none", 33554432),
+    THROUGHPUT("1", 1, false, 20, 262144, "lz4", 67108864),
+    DURABLE("all", 5, true, 5, 65536, "lz4", 33554432);
+
+    // application properties that override a setting of the profile, and the producer config they set
+    private static final Map<String, String> OVERRIDES = new LinkedHashMap<>();
+
+    static {
+        OVERRIDES.put("kafka.producer.acks", "acks");
+        OVERRIDES.put("kafka.producer.retries", "retries");
+        OVERRIDES.put("kafka.producer.enable-idempotence", "enable.idempotence");
+        OVERRIDES.put("kafka.producer.linger-ms", "linger.ms");
+        OVERRIDES.put("kafka.producer.batch-size", "batch.size");
+        OVERRIDES.put("kafka.producer.compression-type", "compression.type");
+        OVERRIDES.put("kafka.producer.buffer-memory", "buffer.memory");
+    }
+
+    private final String acks;
+    private final int retries;
+    private final boolean idempotence;
+    private final long lingerMs;
+    private final int batchSize;
+    private final String compressionType;
+    private final long bufferMemory;
+
+    ProducerProfile(
+        String acks, int retries, boolean idempotence, long lingerMs, int batchSize, String compressionType,
+        long bufferMemory
+    ) {
+        this.acks = acks;
+        this.retries = retries;
+        this.idempotence = idempotence;
+        this.lingerMs = lingerMs;
+        this.batchSize = batchSize;
+        this.compressionType = compressionType;
+        this.bufferMemory = bufferMemory;
+    }
+
+    /**
+     * @param name the profile's name, in any case
+     * @throws IllegalArgumentException if there is no such profile
+     */
+    public static ProducerProfile forName(String name) {
+        try {
+            return valueOf(name.trim().toUpperCase(Locale.ROOT));
+        } catch (IllegalArgumentException e) {
+            throw new IllegalArgumentException("Unsupported kafka.producer.profile: " + name, e);
+        }
+    }
+
+    /**
+     * @return the producer configuration of this profile, without bootstrap servers or serializers
+     */
+    public Properties properties() {
+        Properties properties = new Properties();
+        properties.put("acks", acks);
+        properties.put("retries", retries);
+        properties.put("enable.idempotence", idempotence);
+        properties.put("linger.ms", lingerMs);
+        properties.put("batch.size", batchSize);
+        properties.put("compression.type", compressionType);
+        properties.put("buffer.memory", bufferMemory);
+        if (idempotence) {
+            // the most an idempotent producer keeps in order
+            properties.put("max.in.flight.requests.per.connection", 5);
+        }
+        return properties;
+    }
+
+    /**
+     * @return the producer configuration of this profile, with any setting overridden by its application property,
+     * e.g. {@code kafka.producer.linger-ms}
+     */
+    public Properties properties(PropertyResolver environment) {
+        Properties properties = properties();
+        for (Map.Entry<String, String> override : OVERRIDES.entrySet()) {
+            String value = environment.getProperty(override.getKey());
+            if (value != null) {
+                properties.put(override.getValue(), value);
+            }
+        }
+        return properties;
+    }
+
+    public String getName() {
+        return name().toLowerCase(Locale.ROOT);
+    }
+}
@@ -1,9 +1,16 @@
 package com.stormpath.tutorial.service;
 
+import com.stormpath.tutorial.event.PublicKeyChangedEvent;
+import com.stormpath.tutorial.event.PublicKeyRegisteredEvent;
+import com.stormpath.tutorial.exception.UnknownKidException;
+import com.stormpath.tutorial.jwt.JwtMetrics;
+import com.stormpath.tutorial.jwt.KeyPool;
+import com.stormpath.tutorial.jwt.KeyRotation;
 import com.stormpath.tutorial.model.PublicCreds;
 import io.jsonwebtoken.Claims;
 import io.jsonwebtoken.JwsHeader;
 import io.jsonwebtoken.JwtException;
+import io.jsonwebtoken.SignatureAlgorithm;
 import io.jsonwebtoken.SigningKeyResolver;
 import io.jsonwebtoken.SigningKeyResolverAdapter;
 import io.jsonwebtoken.impl.TextCodec;
@@ -11,34 +18,126 @@ import io.jsonwebtoken.impl.crypto.RsaProvider;
 import io.jsonwebtoken.lang.Strings;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.scheduling.annotation.Scheduled;
 import org.springframework.stereotype.Service;
 
 import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.io.IOException;
+import java.nio.file.Paths;
+import java.security.InvalidAlgorithmParameterException;
 import java.security.Key;
 import java.security.KeyFactory;
 import java.security.KeyPair;
+import java.security.KeyPairGenerator;
 import java.security.NoSuchAlgorithmException;
-import java.security.PrivateKey;
 import java.security.PublicKey;
+import java.security.interfaces.ECPublicKey;
+import java.security.interfaces.RSAPublicKey;
+import java.security.spec.ECGenParameterSpec;
 import java.security.spec.InvalidKeySpecException;
 import java.security.spec.X509EncodedKeySpec;
-import java.util.HashMap;
+import java.util.EnumMap;
 import java.util.Map;
 import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
 
 @Service
-public class SecretService {
+public class SecretService implements KeyRotation {
 
     private static final Logger log = LoggerFactory.getLogger(SecretService.class);
 
-    private KeyPair myKeyPair;
-    private String kid;
+    private static final Map<SignatureAlgorithm, String> EC_CURVES = new EnumMap<>(SignatureAlgorithm.class);
 
-    private Map<String, PublicKey> publicKeys = new HashMap<>();
+    static {
+        EC_CURVES.put(SignatureAlgorithm.ES256, "secp256r1");
+        EC_CURVES.put(SignatureAlgorithm.ES384, "secp384r1");
+        EC_CURVES.put(SignatureAlgorithm.ES512, "secp521r1");
+    }
+
+    @Autowired
+    ApplicationEventPublisher eventPublisher;
+
+    @Autowired
+    JwtMetrics jwtMetrics;
+
+    // RS256, ES256, ES384 or ES512
+    @Value("${jwt.signing.algorithm:RS256}")
+    private SignatureAlgorithm signingAlgorithm = SignatureAlgorithm.RS256;
+
+    // empty to keep keys in memory only
+    @Value("${jwt.keystore.path:}")
+    private String keyStorePath;
+
+    @Value("${jwt.keystore.initial-size:1048576}")
+    private int keyStoreInitialSize = 1024 * 1024;
+
+    // how long tokens signed with a replaced key pair keep verifying
+    @Value("${jwt.rotation.grace-period-ms:120000}")
+    private long gracePeriodMs = 120000;
+
+    // how long the next key pair is published before it signs anything, 0 to switch straight away
+    @Value("${jwt.rotation.publish-window-ms:300000}")
+    private long publishWindowMs = 300000;
+
+    // key pairs generated ahead of the rotations that need them
+    @Value("${jwt.keypool.size:2}")
+    private int keyPoolSize = 2;
+
+    private final KeyRegistry keyRegistry = new KeyRegistry();
+
+    private KeyPool<KeyPair> keyPool;
+
+    // completes once the first key pair is in place, if there was none to restore
+    private volatile CompletableFuture<PublicCreds> initialCreds = CompletableFuture.completedFuture(null);
+
+    // kid of a replaced key pair -> when its public key is purged
+    private final Map<String, Long> retiring = new ConcurrentHashMap<>();
+
+    private PersistentKeyStore keyStore;
+
+    // the key pair published ahead of the next switch, and when it starts signing, guarded by this
+    private SigningCreds nextCreds;
+    private long nextCredsActiveAt;
 
     @PostConstruct
     public void setup() {
-        refreshMyCreds();
+        checkSupported(signingAlgorithm);
+
+        SignatureAlgorithm alg = signingAlgorithm;
+        keyPool = new KeyPool<>(alg.getValue(), () -> generateKeyPair(alg), keyPoolSize);
+
+        if (Strings.hasText(keyStorePath)) {
+            try {
+                keyStore = new PersistentKeyStore(Paths.get(keyStorePath), keyStoreInitialSize);
+            } catch (IOException e) {
+                throw new IllegalStateException("Unable to open key store " + keyStorePath + ": " + e.getMessage(), e);
+            }
+
+            SigningCreds creds = keyStore.load(keyRegistry, retiring);
+            if (creds != null && creds.getAlgorithm() == signingAlgorithm) {
+                keyRegistry.setSigningCreds(creds);
+                log.info("Restored signing creds with kid: {} from {}", creds.getKid(), keyStorePath);
+                return;
+            }
+        }
+
+        // installed as soon as it's generated, rather than holding up startup
+        initialCreds = refreshMyCredsAsync();
+    }
+
+    @PreDestroy
+    public void close() throws IOException {
+        if (keyPool != null) {
+            keyPool.close();
+        }
+        if (keyStore != null) {
+            keyStore.close();
+        }
     }
 
     private SigningKeyResolver signingKeyResolver = new SigningKeyResolverAdapter() {
@@ -46,11 +145,13 @@ public class SecretService {
         public Key resolveSigningKey(JwsHeader header, Claims claims) {
             String kid = header.getKeyId();
             if (!Strings.hasText(kid)) {
+                jwtMetrics.keyResolved(false);
                 throw new JwtException("Missing required 'kid' header param in JWT with claims: " + claims);
             }
-            Key key = publicKeys.get(kid);
+            Key key = keyRegistry.getPublicKey(kid);
+            jwtMetrics.keyResolved(key != null);
             if (key == null) {
-                throw new JwtException("No public key registered for kid: " + kid + ". JWT claims: " + claims);
+                throw new UnknownKidException(kid, "No public key registered for kid: " + kid + ". JWT claims: " + claims);
             }
             return key;
         }
@@ -61,44 +162,254 @@ public class SecretService {
     }
 
     public PublicCreds getPublicCreds(String kid) {
-        return createPublicCreds(kid, publicKeys.get(kid));
+        return createPublicCreds(kid, keyRegistry.getPublicKey(kid));
     }
 
+    /**
+     * @return the public key JWTs are signed with right now, along with the next one if it has been published
+     */
     public PublicCreds getMyPublicCreds() {
-        return createPublicCreds(this.kid, myKeyPair.getPublic());
+        SigningCreds creds = getMySigningCreds();
+        SigningCreds next;
+        synchronized (this) {
+            next = nextCreds;
+        }
+        return createPublicCreds(
+            creds.getKid(), creds.getPublicKey(), next == null ? null : createPublicCreds(next.getKid(), next.getPublicKey())
+        );
     }
 
     private PublicCreds createPublicCreds(String kid, PublicKey key) {
-        return new PublicCreds(kid, TextCodec.BASE64URL.encode(key.getEncoded()));
+        return createPublicCreds(kid, key, null);
+    }
+
+    private PublicCreds createPublicCreds(String kid, PublicKey key, PublicCreds next) {
+        return new PublicCreds(kid, algorithmFor(key).getValue(), TextCodec.BASE64URL.encode(key.getEncoded()), next);
     }
 
     // do not expose in controllers
-    public PrivateKey getMyPrivateKey() {
-        return myKeyPair.getPrivate();
+    public SigningCreds getMySigningCreds() {
+        SigningCreds creds = keyRegistry.getSigningCreds();
+        if (creds == null) {
+            // only right after startup, until the first key pair is ready
+            initialCreds.join();
+            creds = keyRegistry.getSigningCreds();
+        }
+        return creds;
+    }
+
+    /**
+     * Publishes the next key pair, or switches to a new one straight away if there's no publish window.
+     */
+    @Override
+    public void rotate() {
+        if (publishWindowMs <= 0) {
+            refreshMyCreds();
+        } else {
+            publishNextCreds();
+        }
     }
 
+    /**
+     * Makes the next key pair known through {@link #getMyPublicCreds()} without signing anything with it yet, so the
+     * other microservices can pick it up in their trust handshakes. {@link #activateNextCreds()} switches to it once
+     * the publish window is over.
+     *
+     * @return the published creds, or those published before if they haven't been switched to yet
+     */
+    public PublicCreds publishNextCreds() {
+        SigningCreds next;
+        synchronized (this) {
+            next = nextCreds;
+        }
+        if (next == null) {
+            // not under the lock, the pool installs the first key pair under it
+            KeyPair keyPair = keyPool.take().join();
+            synchronized (this) {
+                if (nextCreds == null) {
+                    nextCreds = new SigningCreds(UUID.randomUUID().toString(), signingAlgorithm, keyPair);
+                    nextCredsActiveAt = System.currentTimeMillis() + publishWindowMs;
+                    log.info("Published next signing creds with kid: {}, signing with them from {}",
+                        nextCreds.getKid(), nextCredsActiveAt);
+                }
+                next = nextCreds;
+            }
+        }
+        return createPublicCreds(next.getKid(), next.getPublicKey());
+    }
+
+    /**
+     * Switches to the published key pair once its publish window is over.
+     */
+    @Scheduled(fixedDelayString = "${jwt.rotation.purge-interval-ms:5000}")
+    public synchronized void activateNextCreds() {
+        if (nextCreds != null && nextCredsActiveAt <= System.currentTimeMillis()) {
+            install(nextCreds);
+        }
+    }
+
+    /**
+     * Switches to a new key pair straight away, instead of any published one. The public key of the previous one
+     * stays trusted for the grace period, so the tokens it signed keep verifying until {@link #purgeRetiredKeys()}
+     * drops it.
+     */
     public PublicCreds refreshMyCreds() {
-        myKeyPair = RsaProvider.generateKeyPair(1024);
-        kid = UUID.randomUUID().toString();
+        return refreshMyCredsAsync().join();
+    }
 
-        PublicCreds publicCreds = getMyPublicCreds();
+    /**
+     * Like {@link #refreshMyCreds()}, without waiting on the caller if the pool has run out of ready key pairs.
+     */
+    public CompletableFuture<PublicCreds> refreshMyCredsAsync() {
+        return keyPool.take().thenApply(this::installKeyPair);
+    }
 
-        // this microservice will trust itself
+    private PublicCreds installKeyPair(KeyPair keyPair) {
+        return install(new SigningCreds(UUID.randomUUID().toString(), signingAlgorithm, keyPair));
+    }
+
+    private synchronized PublicCreds install(SigningCreds creds) {
+        // whatever was published is either this key pair or superseded by it
+        nextCreds = null;
+
+        // this microservice will trust itself - register the public key before anything is signed with the private key
+        PublicCreds publicCreds = createPublicCreds(creds.getKid(), creds.getPublicKey());
         addPublicCreds(publicCreds);
 
+        if (keyStore != null) {
+            keyStore.saveSigningCreds(creds);
+        }
+
+        SigningCreds previous = keyRegistry.setSigningCreds(creds);
+        if (previous != null) {
+            long purgeAt = System.currentTimeMillis() + gracePeriodMs;
+            if (keyStore != null) {
+                keyStore.saveRetiredKey(previous.getKid(), purgeAt);
+            }
+            retiring.put(previous.getKid(), purgeAt);
+            log.info("Rotated signing creds to kid: {}, kid: {} is trusted until {}", creds.getKid(), previous.getKid(), purgeAt);
+
+            if (gracePeriodMs <= 0) {
+                purgeRetiredKeys();
+            }
+        }
+
         return publicCreds;
     }
 
+    /**
+     * Stops trusting the public keys of replaced key pairs once their grace period is over.
+     */
+    @Scheduled(fixedDelayString = "${jwt.rotation.purge-interval-ms:5000}")
+    public void purgeRetiredKeys() {
+        long now = System.currentTimeMillis();
+        boolean purged = false;
+        for (Map.Entry<String, Long> retired : retiring.entrySet()) {
+            if (retired.getValue() > now || !retiring.remove(retired.getKey(), retired.getValue())) {
+                continue;
+            }
+            if (keyStore != null) {
+                keyStore.removeTrustedKey(retired.getKey());
+                purged = true;
+            }
+            if (keyRegistry.removePublicKey(retired.getKey())) {
+                log.info("Purged public key with kid: {}", retired.getKey());
+                eventPublisher.publishEvent(new PublicKeyChangedEvent(this, retired.getKey()));
+            }
+        }
+
+        // drops the purged keys, and the private keys replaced since, from the disk
+        if (purged) {
+            keyStore.compact();
+        }
+    }
+
+    /**
+     * Trusts the public key, and the next one published along with it, if any.
+     */
     public void addPublicCreds(PublicCreds publicCreds) {
+        if (publicCreds.getNext() != null) {
+            addPublicCreds(publicCreds.getNext());
+        }
+
+        // creds published before the algorithm was configurable are always RS256
+        SignatureAlgorithm alg = publicCreds.getAlg() == null ?
+            SignatureAlgorithm.RS256 : SignatureAlgorithm.forName(publicCreds.getAlg());
+        checkSupported(alg);
+
         byte[] encoded = TextCodec.BASE64URL.decode(publicCreds.getB64UrlPublicKey());
 
         PublicKey publicKey = null;
         try {
-            publicKey = KeyFactory.getInstance("RSA").generatePublic(new X509EncodedKeySpec(encoded));
+            publicKey = KeyFactory.getInstance(alg.isRsa() ? "RSA" : "EC").generatePublic(new X509EncodedKeySpec(encoded));
         } catch (NoSuchAlgorithmException | InvalidKeySpecException e) {
             log.error("Unable to create public key: {}", e.getMessage(), e);
         }
 
-        publicKeys.put(publicCreds.getKid(), publicKey);
+        if (publicKey == null) {
+            return;
+        }
+
+        if (algorithmFor(publicKey) != alg) {
+            throw new IllegalArgumentException(
+                "Public key for kid: " + publicCreds.getKid() + " can't be used with " + alg.getValue()
+            );
+        }
+
+        if (keyStore != null) {
+            keyStore.saveTrustedKey(publicCreds.getKid(), alg, publicKey);
+        }
+        // handed over again, so trusted again
+        retiring.remove(publicCreds.getKid());
+
+        if (keyRegistry.putPublicKey(publicCreds.getKid(), publicKey)) {
+            eventPublisher.publishEvent(new PublicKeyChangedEvent(this, publicCreds.getKid()));
+        }
+        eventPublisher.publishEvent(new PublicKeyRegisteredEvent(this, publicCreds.getKid()));
+    }
+
+    private static void checkSupported(SignatureAlgorithm alg) {
+        switch (alg) {
+            case RS256:
+            case ES256:
+            case ES384:
+            case ES512:
+                return;
+            default:
+                throw new IllegalArgumentException("Unsupported signing algorithm: " + alg.getValue());
+        }
+    }
+
+    private static KeyPair generateKeyPair(SignatureAlgorithm alg) {
+        if (alg.isRsa()) {
+            return RsaProvider.generateKeyPair(1024);
+        }
+
+        // EllipticCurveProvider.generateKeyPair needs BouncyCastle - the JDK's own provider does the job just as well
+        try {
+            KeyPairGenerator generator = KeyPairGenerator.getInstance("EC");
+            generator.initialize(new ECGenParameterSpec(EC_CURVES.get(alg)));
+            return generator.generateKeyPair();
+        } catch (NoSuchAlgorithmException | InvalidAlgorithmParameterException e) {
+            throw new IllegalStateException("Unable to generate " + alg.getValue() + " key pair: " + e.getMessage(), e);
+        }
+    }
+
+    // only one algorithm is supported per key type and curve, so the key alone tells which one it verifies
+    private static SignatureAlgorithm algorithmFor(PublicKey key) {
+        if (key instanceof RSAPublicKey) {
+            return SignatureAlgorithm.RS256;
+        }
+        if (key instanceof ECPublicKey) {
+            switch (((ECPublicKey) key).getParams().getCurve().getField().getFieldSize()) {
+                case 256:
+                    return SignatureAlgorithm.ES256;
+                case 384:
+                    return SignatureAlgorithm.ES384;
+                case 521:
+                    return SignatureAlgorithm.ES512;
+            }
+        }
+        throw new IllegalArgumentException("Unsupported public key: " + key.getAlgorithm());
     }
 }
@@ -0,0 +1,43 @@
+package com.stormpath.tutorial.service;
+
+import io.jsonwebtoken.SignatureAlgorithm;
+
+import java.security.KeyPair;
+import java.security.PrivateKey;
+import java.security.PublicKey;
+
+/**
+ * The key pair this microservice signs with, together with the {@code kid} it is published under and the algorithm
+ * it signs with.
+ * <p>
+ * Immutable, so the private key and the {@code kid} can never be observed out of step with each other.
+ */
+public class SigningCreds {
+
+    private final String kid;
+    private final SignatureAlgorithm algorithm;
+    private final KeyPair keyPair;
+
+    public SigningCreds(String kid, SignatureAlgorithm algorithm, KeyPair keyPair) {
+        this.kid = kid;
+        this.algorithm = algorithm;
+        this.keyPair = keyPair;
+    }
+
+    public String getKid() {
+        return kid;
+    }
+
+    public SignatureAlgorithm getAlgorithm() {
+        return algorithm;
+    }
+
+    public PublicKey getPublicKey() {
+        return keyPair.getPublic();
+    }
+
+    // do not expose in controllers
+    public PrivateKey getPrivateKey() {
+        return keyPair.getPrivate();
+    }
+}
@@ -1,25 +1,76 @@
 package com.stormpath.tutorial.service;
 
+import com.stormpath.tutorial.event.PublicKeyRegisteredEvent;
+import com.stormpath.tutorial.exception.UnknownKidException;
 import com.stormpath.tutorial.model.AccountResponse;
 import io.jsonwebtoken.JwtException;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Tags;
+import io.micrometer.core.instrument.Timer;
 import org.apache.kafka.clients.consumer.Consumer;
+import org.apache.kafka.clients.consumer.ConsumerRebalanceListener;
 import org.apache.kafka.clients.consumer.ConsumerRecord;
 import org.apache.kafka.clients.consumer.ConsumerRecords;
 import org.apache.kafka.clients.consumer.KafkaConsumer;
+import org.apache.kafka.clients.consumer.OffsetAndMetadata;
+import org.apache.kafka.common.TopicPartition;
+import org.apache.kafka.common.errors.WakeupException;
+import org.apache.kafka.common.serialization.ByteArrayDeserializer;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.SmartLifecycle;
+import org.springframework.context.event.EventListener;
 import org.springframework.stereotype.Service;
 
 import javax.annotation.PostConstruct;
+import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.Properties;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
+/**
+ * Polls the topic on its own thread and verifies each polled batch in parallel on a pool of worker threads.
+ * <p>
+ * Offsets are committed per partition, only once every record of that partition's batch has been processed, and never
+ * past a record the {@link UnknownKidRetryStage} still holds. The consumer is started and stopped through Spring's
+ * lifecycle, when {@code kafka.consumer.enabled=true}.
+ * <p>
+ * The pool grows and shrinks with the partitions assigned to this consumer: {@code
+ * kafka.consumer.worker-threads-per-partition} threads for each, at most {@code kafka.consumer.max-worker-threads}.
+ * Another instance joining the group takes partitions, and with them threads, away from this one. A batch is always
+ * committed before the next poll, so no processed record is left uncommitted when partitions are revoked, other than
+ * those after a parked one.
+ * <p>
+ * Records are read as {@link BinaryJws}, whichever {@code kafka.message-format} they were sent in, and verified by the
+ * {@link BinaryJwsVerifier} without turning them into Strings.
+ * <p>
+ * A record signed with a key that isn't known yet is parked by the {@link UnknownKidRetryStage} and retried once the
+ * key is registered, its partition's commit waiting at its offset until then. Any other record that can't be verified
+ * is copied to the {@code topic.dead-letter} topic by the {@link DeadLetterPublisher}. Either way, the rest of the
+ * batch goes on without waiting for it. The partition is only committed past a dead-lettered record once the broker has
+ * its dead letter. If it can't be sent, the commit stays at that record for as long as this consumer reads the
+ * partition.
+ * <p>
+ * With {@code virtual-threads.enabled=true} each record is processed on a virtual thread of its own, at most
+ * {@code virtual-threads.consumer.max-concurrency} at once, instead of on the worker threads.
+ */
 @Service
 @ConditionalOnProperty(name = "kafka.enabled", matchIfMissing = true)
-public class SpringBootKafkaConsumer {
+public class SpringBootKafkaConsumer implements SmartLifecycle {
 
     @Value("${kafka.broker.address}")
     private String brokerAddress;
@@ -27,11 +78,72 @@ public class SpringBootKafkaConsumer {
     @Value("${topic}")
     private String topic;
 
+    @Value("${kafka.consumer.enabled:false}")
+    private boolean enabled;
+
+    @Value("${kafka.consumer.group-id:consumer-tutorial}")
+    private String groupId;
+
+    @Value("${kafka.consumer.worker-threads-per-partition:4}")
+    private int workerThreadsPerPartition;
+
+    @Value("${kafka.consumer.max-worker-threads:64}")
+    private int maxWorkerThreads;
+
+    @Value("${kafka.consumer.poll-timeout-ms:1000}")
+    private long pollTimeoutMs;
+
+    @Value("${topic.dead-letter:micro-services-dead-letter}")
+    private String deadLetterTopic;
+
+    @Value("${kafka.consumer.retry.max-parked:10000}")
+    private int retryMaxParked;
+
+    @Value("${kafka.consumer.retry.initial-backoff-ms:1000}")
+    private long retryInitialBackoffMs;
+
+    @Value("${kafka.consumer.retry.max-backoff-ms:60000}")
+    private long retryMaxBackoffMs;
+
+    @Value("${kafka.consumer.retry.max-attempts:10}")
+    private int retryMaxAttempts;
+
+    @Value("${virtual-threads.enabled:false}")
+    private boolean virtualThreads;
+
+    @Value("${virtual-threads.consumer.max-concurrency:1000}")
+    private int virtualMaxConcurrency;
+
     @Autowired
     AccountService accountService;
 
+    @Autowired
+    BinaryJwsVerifier binaryJwsVerifier;
+
+    @Autowired
+    MeterRegistry meterRegistry;
+
     private Properties kafkaProps;
-    private Consumer<String, String> consumer;
+    private Consumer<String, byte[]> consumer;
+
+    private DeadLetterPublisher deadLetters;
+    private volatile UnknownKidRetryStage retryStage;
+
+    private ExecutorService workers;
+    // null with virtual threads, which aren't pooled
+    private ThreadPoolExecutor workerPool;
+    private final AtomicInteger assignedPartitions = new AtomicInteger();
+    private Thread pollThread;
+    private volatile boolean running;
+
+    // the offset after the last processed record, and the last committed one, of each partition; poll thread only
+    private final Map<TopicPartition, Long> processed = new HashMap<>();
+    private final Map<TopicPartition, Long> committed = new HashMap<>();
+    // the lowest record of each partition that was neither verified nor dead-lettered; poll thread only
+    private final Map<TopicPartition, Long> failed = new HashMap<>();
+
+    private Counter recordsProcessed;
+    private Timer batchLatency;
 
     private static final Logger log = LoggerFactory.getLogger(SpringBootKafkaConsumer.class);
 
@@ -43,34 +155,271 @@ public class SpringBootKafkaConsumer {
         kafkaProps.put("bootstrap.servers", brokerAddress);
 
         kafkaProps.put("key.deserializer", "org.apache.kafka.common.serialization.StringDeserializer");
-        kafkaProps.put("value.deserializer", "org.apache.kafka.common.serialization.StringDeserializer");
-        kafkaProps.put("group.id", "consumer-tutorial");
-        kafkaProps.put("acks", "1");
+        // read as BinaryJws by the workers, so a record that isn't one can still be dead-lettered as it was
+        kafkaProps.put("value.deserializer", ByteArrayDeserializer.class.getName());
+        kafkaProps.put("group.id", groupId);
 
-        kafkaProps.put("retries", "1");
-        kafkaProps.put("linger.ms", 5);
+        // offsets are committed by hand once a partition's batch has been verified
+        kafkaProps.put("enable.auto.commit", "false");
+
+        recordsProcessed = meterRegistry.counter("kafka.consumer.records");
+        batchLatency = meterRegistry.timer("kafka.consumer.batch");
+        meterRegistry.gauge("kafka.consumer.partitions", assignedPartitions);
     }
 
-    public void consume() {
-        log.info("Starting consumer...");
+    @Override
+    public void start() {
+        deadLetters = new DeadLetterPublisher(brokerAddress, deadLetterTopic, meterRegistry);
+        retryStage = new UnknownKidRetryStage(
+            retryMaxParked, retryInitialBackoffMs, retryMaxBackoffMs, retryMaxAttempts, this::process, deadLetters
+        );
+        meterRegistry.gauge("kafka.consumer.parked", retryStage, UnknownKidRetryStage::getParkedCount);
 
         consumer = new KafkaConsumer<>(kafkaProps);
-        consumer.subscribe(Collections.singletonList(topic));
+        consumer.subscribe(Collections.singletonList(topic), new WorkerScaler());
 
-        while (true) {
-            ConsumerRecords<String, String> records = consumer.poll(1000);
-            for (ConsumerRecord<String, String> record : records) {
-                log.info("record offset: {}, record value: {}", record.offset(), record.value());
-                AccountResponse accountResponse = null;
-                try {
-                    accountResponse = accountService.getAccount(record.value());
-                } catch (JwtException e) {
-                    log.error("Unable to get account: {}", e.getMessage());
+        VirtualThreadExecutor virtualWorkers = virtualThreads ?
+            VirtualThreadExecutor.create("kafka-consumer-virtual-", virtualMaxConcurrency) : null;
+        if (virtualWorkers != null) {
+            log.info("Starting consumer on virtual threads, at most {} at once...", virtualMaxConcurrency);
+            meterRegistry.gauge("virtual.threads.active", Tags.of("executor", "kafka-consumer"), virtualWorkers, VirtualThreadExecutor::getActiveCount);
+            meterRegistry.gauge("virtual.threads.waiting", Tags.of("executor", "kafka-consumer"), virtualWorkers, VirtualThreadExecutor::getWaitingCount);
+            workers = virtualWorkers;
+        } else {
+            log.info("Starting consumer with {} worker threads per partition, at most {}...",
+                workerThreadsPerPartition, maxWorkerThreads);
+            AtomicInteger workerCount = new AtomicInteger();
+            // a single thread until partitions are assigned
+            workerPool = (ThreadPoolExecutor) Executors.newFixedThreadPool(1, r -> {
+                Thread thread = new Thread(r, "kafka-consumer-worker-" + workerCount.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            });
+            meterRegistry.gauge("kafka.consumer.worker-threads", workerPool, ThreadPoolExecutor::getCorePoolSize);
+            workers = workerPool;
+        }
+
+        running = true;
+        pollThread = new Thread(this::pollLoop, "kafka-consumer-poll");
+        pollThread.start();
+    }
+
+    @Override
+    public void stop() {
+        log.info("Stopping consumer...");
+
+        running = false;
+        consumer.wakeup();
+
+        try {
+            pollThread.join(TimeUnit.SECONDS.toMillis(30));
+            workers.shutdown();
+            workers.awaitTermination(30, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+
+        // forgets whatever is still parked, it was never committed
+        retryStage.close();
+        deadLetters.close();
+    }
+
+    @Override
+    public void stop(Runnable callback) {
+        stop();
+        callback.run();
+    }
+
+    @Override
+    public boolean isRunning() {
+        return running;
+    }
+
+    @Override
+    public boolean isAutoStartup() {
+        return enabled;
+    }
+
+    @Override
+    public int getPhase() {
+        // start after everything else is up and stop before it goes away
+        return Integer.MAX_VALUE;
+    }
+
+    private void pollLoop() {
+        try {
+            while (running) {
+                ConsumerRecords<String, byte[]> records = consumer.poll(pollTimeoutMs);
+                if (!records.isEmpty()) {
+                    processBatch(records);
                 }
-                if (accountResponse != null && accountResponse.getAccount() != null) {
-                    log.info("Account name extracted from JWT: {}", accountResponse.getAccount().getFirstName() + " " + accountResponse.getAccount().getLastName());
+                // moves on past the records retried since
+                commit(processed.keySet());
+            }
+        } catch (WakeupException e) {
+            // expected on stop
+            if (running) {
+                throw e;
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            consumer.close();
+        }
+    }
+
+    private void processBatch(ConsumerRecords<String, byte[]> records) throws InterruptedException {
+        long start = System.nanoTime();
+
+        // hand out the whole batch first so all partitions are verified in parallel
+        List<TopicPartition> partitions = new ArrayList<>(records.partitions());
+        List<List<Future<Future<?>>>> results = new ArrayList<>(partitions.size());
+        for (TopicPartition partition : partitions) {
+            List<ConsumerRecord<String, byte[]>> partitionRecords = records.records(partition);
+            List<Future<Future<?>>> futures = new ArrayList<>(partitionRecords.size());
+            for (ConsumerRecord<String, byte[]> record : partitionRecords) {
+                futures.add(workers.submit(() -> process(record, 1)));
+            }
+            results.add(futures);
+        }
+
+        for (int i = 0; i < partitions.size(); i++) {
+            TopicPartition partition = partitions.get(i);
+            List<ConsumerRecord<String, byte[]>> partitionRecords = records.records(partition);
+            List<Future<Future<?>>> futures = results.get(i);
+            for (int j = 0; j < futures.size(); j++) {
+                try {
+                    // the dead letter's send, if the record got one
+                    Future<?> deadLetter = futures.get(j).get();
+                    if (deadLetter != null) {
+                        deadLetter.get();
+                    }
+                } catch (ExecutionException e) {
+                    ConsumerRecord<String, byte[]> record = partitionRecords.get(j);
+                    log.error("Unable to process record {}-{} at offset {}, holding its partition's commit there: {}",
+                        record.topic(), record.partition(), record.offset(), e.getCause().getMessage(), e.getCause());
+                    failed.merge(partition, record.offset(), Math::min);
                 }
             }
+
+            long lastOffset = partitionRecords.get(partitionRecords.size() - 1).offset();
+            processed.put(partition, lastOffset + 1);
+            commit(Collections.singleton(partition));
+        }
+
+        recordsProcessed.increment(records.count());
+        batchLatency.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * Commits each partition up to its last processed record, or up to its lowest parked or failed one, whichever comes
+     * first.
+     */
+    private void commit(Collection<TopicPartition> partitions) {
+        Map<TopicPartition, OffsetAndMetadata> offsets = new HashMap<>();
+        for (TopicPartition partition : partitions) {
+            Long offset = processed.get(partition);
+            if (offset == null) {
+                continue;
+            }
+            Long parked = retryStage.lowestParkedOffset(partition);
+            if (parked != null) {
+                offset = Math.min(offset, parked);
+            }
+            Long lost = failed.get(partition);
+            if (lost != null) {
+                offset = Math.min(offset, lost);
+            }
+            Long last = committed.get(partition);
+            if (last == null || offset > last) {
+                offsets.put(partition, new OffsetAndMetadata(offset));
+            }
+        }
+        if (!offsets.isEmpty()) {
+            consumer.commitSync(offsets);
+            offsets.forEach((partition, offset) -> committed.put(partition, offset.offset()));
+        }
+    }
+
+    @EventListener
+    public void onPublicKeyRegistered(PublicKeyRegisteredEvent event) {
+        UnknownKidRetryStage retryStage = this.retryStage;
+        if (retryStage != null) {
+            retryStage.retryNow(event.getKid());
+        }
+    }
+
+    /**
+     * @param attempt 1 when the record is polled, then one more for each retry
+     * @return the send of the record's dead letter, or {@code null} if it didn't get one
+     */
+    private Future<?> process(ConsumerRecord<String, byte[]> record, int attempt) {
+        log.info("record offset: {}, record key: {}, attempt: {}", record.offset(), record.key(), attempt);
+
+        AccountResponse accountResponse;
+        try {
+            accountResponse = accountService.getAccount(binaryJwsVerifier.verify(BinaryJws.read(record.value())));
+        } catch (UnknownKidException e) {
+            return retryStage.park(record, e, attempt);
+        } catch (JwtException e) {
+            return deadLetters.publish(record, e, attempt);
+        } catch (RuntimeException e) {
+            // anything else, such as a failed account lookup, would otherwise be committed unprocessed
+            log.error("Unable to process record {}-{} at offset {}: {}",
+                record.topic(), record.partition(), record.offset(), e.getMessage(), e);
+            return deadLetters.publish(record, e, attempt);
+        }
+        if (accountResponse != null && accountResponse.getAccount() != null) {
+            log.info("Account name extracted from JWT: {}", accountResponse.getAccount().getFirstName() + " " + accountResponse.getAccount().getLastName());
+        }
+        return null;
+    }
+
+    /**
+     * Called on the poll thread, from within {@code poll}, so never while a batch is being processed.
+     */
+    private class WorkerScaler implements ConsumerRebalanceListener {
+
+        @Override
+        public void onPartitionsRevoked(Collection<TopicPartition> partitions) {
+            // every polled batch has been processed, so only parked and failed records are left to the next consumer
+            commit(partitions);
+            retryStage.drop(partitions);
+            processed.keySet().removeAll(partitions);
+            committed.keySet().removeAll(partitions);
+            failed.keySet().removeAll(partitions);
+            log.info("Partitions revoked: {}", partitions);
+        }
+
+        @Override
+        public void onPartitionsAssigned(Collection<TopicPartition> partitions) {
+            assignedPartitions.set(partitions.size());
+            if (workerPool == null) {
+                log.info("Partitions assigned: {}", partitions);
+                return;
+            }
+
+            int threads = resize(workerPool, partitions.size(), workerThreadsPerPartition, maxWorkerThreads);
+            log.info("Partitions assigned: {}, processing them with {} worker threads", partitions, threads);
+        }
+    }
+
+    /**
+     * Sizes the pool to {@code threadsPerPartition} threads for each partition, at least one and at most
+     * {@code maxThreads}.
+     *
+     * @return the new number of threads
+     */
+    static int resize(ThreadPoolExecutor pool, int partitions, int threadsPerPartition, int maxThreads) {
+        int threads = Math.max(1, Math.min(partitions * threadsPerPartition, maxThreads));
+        // the core size may never exceed the maximum, so the order depends on the direction
+        if (threads > pool.getMaximumPoolSize()) {
+            pool.setMaximumPoolSize(threads);
+            pool.setCorePoolSize(threads);
+        } else {
+            pool.setCorePoolSize(threads);
+            pool.setMaximumPoolSize(threads);
         }
+        return threads;
     }
 }
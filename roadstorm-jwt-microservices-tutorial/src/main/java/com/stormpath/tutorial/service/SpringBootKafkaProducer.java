@@ -1,17 +1,51 @@
 package com.stormpath.tutorial.service;
 
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.stormpath.tutorial.exception.BackpressureException;
+import io.jsonwebtoken.impl.TextCodec;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Tags;
+import io.micrometer.core.instrument.Timer;
+import org.apache.kafka.clients.producer.BufferExhaustedException;
 import org.apache.kafka.clients.producer.KafkaProducer;
 import org.apache.kafka.clients.producer.Producer;
 import org.apache.kafka.clients.producer.ProducerRecord;
 import org.apache.kafka.clients.producer.RecordMetadata;
+import org.apache.kafka.common.errors.RetriableException;
+import org.apache.kafka.common.serialization.StringSerializer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.core.env.Environment;
 import org.springframework.stereotype.Service;
 
 import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.io.IOException;
 import java.util.Properties;
-import java.util.concurrent.ExecutionException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
 
+/**
+ * Publishes JWTs to the topic without blocking the caller.
+ * <p>
+ * At most {@code kafka.producer.max-in-flight} sends may be waiting for the broker's acknowledgement. Beyond that, or
+ * when the producer's buffer stays full for {@code kafka.producer.max-block-ms}, a send fails right away with a
+ * {@link BackpressureException} rather than piling up.
+ * <p>
+ * Compression, batching, acknowledgements and idempotence come from a {@link ProducerProfile}, picked with
+ * {@code kafka.producer.profile}. Any of them can still be set on its own, e.g. {@code kafka.producer.linger-ms}.
+ * <p>
+ * Records are sent without a key, so the producer spreads them over all partitions and consumers share the load. With
+ * {@code kafka.producer.key=kid} each JWT is keyed by the {@code kid} in its header instead. A microservice signs with
+ * one key at a time, so that puts all of its records on one partition, in order, for one consumer to verify. With
+ * {@code kafka.message-format=binary} they are sent as {@link BinaryJws} records instead of compact strings.
+ */
 @Service
 @ConditionalOnProperty(name = "kafka.enabled", matchIfMissing = true)
 public class SpringBootKafkaProducer {
@@ -22,33 +56,165 @@ public class SpringBootKafkaProducer {
     @Value("${topic}")
     private String topic;
 
+    // latency, throughput or durable
+    @Value("${kafka.producer.profile:latency}")
+    private String profile;
+
+    @Value("${kafka.producer.max-block-ms:1000}")
+    private long maxBlockMs;
+
+    @Value("${kafka.producer.max-in-flight:1000}")
+    private int maxInFlight;
+
+    // compact or binary
+    @Value("${kafka.message-format:compact}")
+    private String messageFormat;
+
+    // none or kid
+    @Value("${kafka.producer.key:none}")
+    private String key;
+
+    private boolean keyedByKid;
+
+    @Autowired
+    MeterRegistry meterRegistry;
+
+    @Autowired
+    Environment environment;
+
     private Producer<String, String> producer;
 
+    private Semaphore inFlight;
+
+    private Timer sendSuccess;
+    private Timer sendFailure;
+    private Counter sendRejected;
+
+    private static final ObjectMapper OBJECT_MAPPER = new ObjectMapper();
+
+    private static final Logger log = LoggerFactory.getLogger(SpringBootKafkaProducer.class);
+
     @PostConstruct
     public void init() {
-        Properties kafkaProps = new Properties();
+        ProducerProfile producerProfile = ProducerProfile.forName(profile);
+        Properties kafkaProps = producerProfile.properties(environment);
+        log.info("Producing with the {} profile: {}", producerProfile.getName(), kafkaProps);
 
         kafkaProps.put("bootstrap.servers", brokerAddress);
 
         kafkaProps.put("key.serializer",
             "org.apache.kafka.common.serialization.StringSerializer");
-        kafkaProps.put("value.serializer",
-            "org.apache.kafka.common.serialization.StringSerializer");
-        kafkaProps.put("acks", "1");
-
-        kafkaProps.put("retries", "1");
-        kafkaProps.put("linger.ms", 5);
+        kafkaProps.put("value.serializer", valueSerializer(messageFormat));
+        kafkaProps.put("max.block.ms", maxBlockMs);
 
         producer = new KafkaProducer<>(kafkaProps);
+
+        keyedByKid = keyedByKid(key);
+
+        inFlight = new Semaphore(maxInFlight);
+
+        sendSuccess = meterRegistry.timer("kafka.producer.send", "result", "success");
+        sendFailure = meterRegistry.timer("kafka.producer.send", "result", "failure");
+        sendRejected = meterRegistry.counter("kafka.producer.rejected");
+        meterRegistry.gauge("kafka.producer.in-flight", Tags.empty(), inFlight, s -> maxInFlight - s.availablePermits());
     }
 
-    public void send(String value) throws ExecutionException, InterruptedException {
-        ProducerRecord<String, String> record = new ProducerRecord<>(topic, value);
+    @PreDestroy
+    public void close() {
+        // flushes whatever is still buffered
+        producer.close();
+    }
 
-        producer.send(record, (RecordMetadata recordMetadata, Exception e) -> {
+    /**
+     * Fire and forget - failures are only logged.
+     */
+    public void send(String value) {
+        sendAsync(value).whenComplete((recordMetadata, e) -> {
             if (e != null) {
-                e.printStackTrace();
+                log.error("Unable to send record: {}", e.getMessage(), e);
             }
         });
     }
-}
\ No newline at end of file
+
+    /**
+     * @return a future completed once the broker has acknowledged the record, according to the profile's {@code acks}
+     */
+    public CompletableFuture<RecordMetadata> sendAsync(String value) {
+        CompletableFuture<RecordMetadata> result = new CompletableFuture<>();
+
+        if (!inFlight.tryAcquire()) {
+            sendRejected.increment();
+            result.completeExceptionally(
+                new BackpressureException("Too many messages waiting to be acknowledged, try again later.")
+            );
+            return result;
+        }
+
+        long start = System.nanoTime();
+        ProducerRecord<String, String> record = new ProducerRecord<>(topic, keyedByKid ? kidOf(value) : null, value);
+
+        try {
+            producer.send(record, (RecordMetadata recordMetadata, Exception e) -> {
+                inFlight.release();
+                if (e == null) {
+                    sendSuccess.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+                    result.complete(recordMetadata);
+                } else {
+                    sendFailure.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+                    result.completeExceptionally(translate(e));
+                }
+            });
+        } catch (RuntimeException e) {
+            inFlight.release();
+            sendFailure.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+            result.completeExceptionally(translate(e));
+        }
+
+        return result;
+    }
+
+    private static String valueSerializer(String messageFormat) {
+        switch (messageFormat) {
+            case "compact":
+                return StringSerializer.class.getName();
+            case "binary":
+                return BinaryJwsSerializer.class.getName();
+            default:
+                throw new IllegalArgumentException("Unsupported kafka.message-format: " + messageFormat);
+        }
+    }
+
+    private static boolean keyedByKid(String key) {
+        switch (key) {
+            case "kid":
+                return true;
+            case "none":
+                return false;
+            default:
+                throw new IllegalArgumentException("Unsupported kafka.producer.key: " + key);
+        }
+    }
+
+    // null leaves the partition to the producer, and the value to the serializer to turn down
+    private static String kidOf(String jwt) {
+        int headerEnd = jwt.indexOf('.');
+        if (headerEnd <= 0) {
+            return null;
+        }
+        try {
+            JsonNode kid = OBJECT_MAPPER.readTree(TextCodec.BASE64URL.decode(jwt.substring(0, headerEnd))).get("kid");
+            return kid != null && kid.isTextual() ? kid.asText() : null;
+        } catch (IOException | RuntimeException e) {
+            return null;
+        }
+    }
+
+    // a full buffer times out (or is exhausted), an unreachable broker is retriable - either way it's worth trying later
+    private Exception translate(Exception e) {
+        if (e instanceof BufferExhaustedException || e instanceof RetriableException) {
+            sendRejected.increment();
+            return new BackpressureException("Unable to send record, try again later: " + e.getMessage(), e);
+        }
+        return e;
+    }
+}
@@ -0,0 +1,78 @@
+package com.stormpath.tutorial.service;
+
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * A growable byte buffer tokens are assembled in. Unlike {@link java.io.ByteArrayOutputStream} it isn't synchronized
+ * and exposes its contents without copying.
+ */
+class TokenBuffer extends OutputStream {
+
+    private static final byte[] BASE64URL_ALPHABET =
+        "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789-_".getBytes(StandardCharsets.US_ASCII);
+
+    private static final int INITIAL_CAPACITY = 1024;
+    // don't let one huge token pin a big buffer to the thread for good
+    private static final int MAX_RETAINED_CAPACITY = 64 * 1024;
+
+    byte[] bytes = new byte[INITIAL_CAPACITY];
+    int size;
+
+    void reset() {
+        if (bytes.length > MAX_RETAINED_CAPACITY) {
+            bytes = new byte[INITIAL_CAPACITY];
+        }
+        size = 0;
+    }
+
+    @Override
+    public void write(int b) {
+        ensureCapacity(size + 1);
+        bytes[size++] = (byte) b;
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) {
+        ensureCapacity(size + len);
+        System.arraycopy(b, off, bytes, size, len);
+        size += len;
+    }
+
+    // unpadded, like TextCodec.BASE64URL
+    void writeBase64Url(byte[] src, int off, int len) {
+        ensureCapacity(size + (len + 2) / 3 * 4);
+
+        int end = off + len - len % 3;
+        for (int i = off; i < end; i += 3) {
+            int bits = (src[i] & 0xff) << 16 | (src[i + 1] & 0xff) << 8 | (src[i + 2] & 0xff);
+            bytes[size++] = BASE64URL_ALPHABET[bits >>> 18 & 0x3f];
+            bytes[size++] = BASE64URL_ALPHABET[bits >>> 12 & 0x3f];
+            bytes[size++] = BASE64URL_ALPHABET[bits >>> 6 & 0x3f];
+            bytes[size++] = BASE64URL_ALPHABET[bits & 0x3f];
+        }
+
+        switch (len % 3) {
+            case 1: {
+                int bits = (src[end] & 0xff) << 16;
+                bytes[size++] = BASE64URL_ALPHABET[bits >>> 18 & 0x3f];
+                bytes[size++] = BASE64URL_ALPHABET[bits >>> 12 & 0x3f];
+                break;
+            }
+            case 2: {
+                int bits = (src[end] & 0xff) << 16 | (src[end + 1] & 0xff) << 8;
+                bytes[size++] = BASE64URL_ALPHABET[bits >>> 18 & 0x3f];
+                bytes[size++] = BASE64URL_ALPHABET[bits >>> 12 & 0x3f];
+                bytes[size++] = BASE64URL_ALPHABET[bits >>> 6 & 0x3f];
+                break;
+            }
+        }
+    }
+
+    private void ensureCapacity(int capacity) {
+        if (capacity > bytes.length) {
+            bytes = Arrays.copyOf(bytes, Math.max(capacity, bytes.length * 2));
+        }
+    }
+}
@@ -0,0 +1,189 @@
+package com.stormpath.tutorial.service;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.stormpath.tutorial.jwt.JwtMetrics;
+import com.stormpath.tutorial.jwt.ScratchPool;
+import io.jsonwebtoken.Claims;
+import io.jsonwebtoken.SignatureAlgorithm;
+import io.jsonwebtoken.SignatureException;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.Signature;
+import java.util.Arrays;
+import java.util.EnumMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Mints the JWTs handed out by {@code BaseController.createJwt}. The tokens are byte for byte the ones
+ * {@code Jwts.builder()} produces for the same claims, key and time.
+ * <p>
+ * The encoded header only depends on the signing creds, so it is built once per {@code kid}. The claims are written
+ * with Jackson's streaming generator and Base64URL encoded into pooled buffers, which come with their own
+ * {@link Signature} instances. Apart from the signature itself, minting a token allocates little more than the
+ * resulting String.
+ */
+@Service
+public class TokenMinter {
+
+    // configured like the ObjectMapper DefaultJwtBuilder serializes with
+    private static final ObjectMapper OBJECT_MAPPER = new ObjectMapper();
+    private static final JsonFactory JSON_FACTORY = OBJECT_MAPPER.getFactory();
+
+    private static final ScratchPool<Buffers> BUFFERS = new ScratchPool<>(Buffers::new);
+
+    @Autowired
+    SecretService secretService;
+
+    @Autowired
+    JwtMetrics jwtMetrics;
+
+    private volatile EncodedHeader header;
+
+    /**
+     * Signs the claims with this microservice's current creds, adding {@code iat}, {@code nbf} and {@code exp}. Like
+     * the builder, a claim already using one of those names keeps its position and gets the new value. The claims map
+     * itself is left untouched.
+     */
+    public String mint(Map<String, Object> claims, long lifetimeMillis) {
+        long start = System.nanoTime();
+
+        // one snapshot, so the kid and algorithm always match the private key
+        SigningCreds creds = secretService.getMySigningCreds();
+        EncodedHeader header = encodedHeader(creds);
+
+        long now = System.currentTimeMillis();
+
+        String jwt;
+        Buffers buffers = BUFFERS.take();
+        try {
+            writeClaims(claims, now / 1000, (now + lifetimeMillis) / 1000, buffers.json);
+
+            TokenBuffer token = buffers.token;
+            token.reset();
+            token.write(header.encoded, 0, header.encoded.length);
+            token.write('.');
+            token.writeBase64Url(buffers.json.bytes, 0, buffers.json.size);
+
+            byte[] signature = sign(creds, token, buffers);
+            token.write('.');
+            token.writeBase64Url(signature, 0, signature.length);
+
+            jwt = new String(token.bytes, 0, token.size, StandardCharsets.US_ASCII);
+        } finally {
+            BUFFERS.release(buffers);
+        }
+        jwtMetrics.recordSign(creds.getAlgorithm(), start);
+        return jwt;
+    }
+
+    private EncodedHeader encodedHeader(SigningCreds creds) {
+        EncodedHeader header = this.header;
+        // new creds on every rotation, so this only rebuilds when the kid changes
+        if (header == null || header.creds != creds) {
+            header = new EncodedHeader(creds);
+            this.header = header;
+        }
+        return header;
+    }
+
+    private static void writeClaims(Map<String, Object> claims, long issuedAt, long expiration, TokenBuffer json) {
+        json.reset();
+
+        boolean writtenIssuedAt = false;
+        boolean writtenNotBefore = false;
+        boolean writtenExpiration = false;
+
+        try (JsonGenerator generator = JSON_FACTORY.createGenerator(json)) {
+            generator.writeStartObject();
+            for (Map.Entry<String, Object> claim : claims.entrySet()) {
+                generator.writeFieldName(claim.getKey());
+                switch (claim.getKey()) {
+                    case Claims.ISSUED_AT:
+                        generator.writeNumber(issuedAt);
+                        writtenIssuedAt = true;
+                        break;
+                    case Claims.NOT_BEFORE:
+                        generator.writeNumber(issuedAt);
+                        writtenNotBefore = true;
+                        break;
+                    case Claims.EXPIRATION:
+                        generator.writeNumber(expiration);
+                        writtenExpiration = true;
+                        break;
+                    default:
+                        generator.writeObject(claim.getValue());
+                }
+            }
+            if (!writtenIssuedAt) {
+                generator.writeNumberField(Claims.ISSUED_AT, issuedAt);
+            }
+            if (!writtenNotBefore) {
+                generator.writeNumberField(Claims.NOT_BEFORE, issuedAt);
+            }
+            if (!writtenExpiration) {
+                generator.writeNumberField(Claims.EXPIRATION, expiration);
+            }
+            generator.writeEndObject();
+        } catch (IOException e) {
+            throw new IllegalArgumentException("Unable to serialize claims object to json.", e);
+        }
+    }
+
+    private static byte[] sign(SigningCreds creds, TokenBuffer token, Buffers buffers) {
+        SignatureAlgorithm alg = creds.getAlgorithm();
+        try {
+            Signature signature = buffers.signature(alg);
+            signature.initSign(creds.getPrivateKey());
+            signature.update(token.bytes, 0, token.size);
+            return signature.sign();
+        } catch (GeneralSecurityException e) {
+            throw new SignatureException("Unable to calculate " + alg.getValue() + " signature. " + e.getMessage(), e);
+        }
+    }
+
+    private static class EncodedHeader {
+        private final SigningCreds creds;
+        private final byte[] encoded;
+
+        EncodedHeader(SigningCreds creds) {
+            this.creds = creds;
+
+            // same order as the builder: header params first, then alg
+            Map<String, Object> header = new LinkedHashMap<>();
+            header.put("kid", creds.getKid());
+            header.put("alg", creds.getAlgorithm().getValue());
+
+            TokenBuffer buffer = new TokenBuffer();
+            try {
+                byte[] json = OBJECT_MAPPER.writeValueAsBytes(header);
+                buffer.writeBase64Url(json, 0, json.length);
+            } catch (JsonProcessingException e) {
+                throw new IllegalStateException("Unable to serialize header to json.", e);
+            }
+            this.encoded = Arrays.copyOf(buffer.bytes, buffer.size);
+        }
+    }
+
+    private static class Buffers {
+        private final TokenBuffer json = new TokenBuffer();
+        private final TokenBuffer token = new TokenBuffer();
+        private final Map<SignatureAlgorithm, Signature> signatures = new EnumMap<>(SignatureAlgorithm.class);
+
+        Signature signature(SignatureAlgorithm alg) throws GeneralSecurityException {
+            Signature signature = signatures.get(alg);
+            if (signature == null) {
+                signature = Signature.getInstance(alg.getJcaName());
+                signatures.put(alg, signature);
+            }
+            return signature;
+        }
+    }
+}
@@ -0,0 +1,267 @@
+package com.stormpath.tutorial.service;
+
+import com.stormpath.tutorial.exception.UnknownKidException;
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.apache.kafka.clients.producer.RecordMetadata;
+import org.apache.kafka.common.TopicPartition;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BiFunction;
+
+/**
+ * Parks records whose JWT was signed with a key that isn't known yet, and processes them again later on a thread of
+ * its own, so they hold up neither the poll loop nor the records of other partitions.
+ * <p>
+ * A parked record is retried as soon as a public key is registered for its {@code kid}, and otherwise after a backoff
+ * that doubles with every attempt, from {@code initialBackoffMs} up to {@code maxBackoffMs}. After {@code maxAttempts}
+ * attempts, or if {@code maxParked} records are parked already, it goes to the dead-letter topic instead.
+ * <p>
+ * Parked records only live in memory, so the consumer doesn't commit a partition past its
+ * {@link #lowestParkedOffset(TopicPartition) lowest parked record} - one that is still parked when the consumer
+ * crashes, stops or loses the partition is read again from the topic, along with the records after it. On
+ * {@link #close()} and {@link #drop(Collection)} parked records are simply forgotten for that reason.
+ * <p>
+ * A retried record is only let go of once its dead letter, if it gets one, has reached the broker. One whose dead
+ * letter can't be sent stays held, so it is read again after a restart.
+ */
+class UnknownKidRetryStage implements AutoCloseable {
+
+    private final int maxParked;
+    private final long initialBackoffMs;
+    private final long maxBackoffMs;
+    private final int maxAttempts;
+
+    // processes a record again, given the number of the attempt, and returns its dead letter's send if it got one
+    private final BiFunction<ConsumerRecord<String, byte[]>, Integer, Future<?>> processor;
+    private final DeadLetterPublisher deadLetters;
+
+    private final ScheduledExecutorService retryThread;
+
+    // guarded by this
+    private final Map<String, Set<Parked>> parked = new HashMap<>();
+    private int parkedCount;
+
+    // the entries of each partition by offset, from when they're parked until they're dead-lettered or their retry is
+    // over, guarded by this
+    private final Map<TopicPartition, TreeMap<Long, Set<Parked>>> held = new HashMap<>();
+
+    private static final Logger log = LoggerFactory.getLogger(UnknownKidRetryStage.class);
+
+    UnknownKidRetryStage(
+        int maxParked, long initialBackoffMs, long maxBackoffMs, int maxAttempts,
+        BiFunction<ConsumerRecord<String, byte[]>, Integer, Future<?>> processor, DeadLetterPublisher deadLetters
+    ) {
+        this.maxParked = maxParked;
+        this.initialBackoffMs = initialBackoffMs;
+        this.maxBackoffMs = maxBackoffMs;
+        this.maxAttempts = maxAttempts;
+        this.processor = processor;
+        this.deadLetters = deadLetters;
+
+        retryThread = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "kafka-consumer-retry");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * @param attempt how many times the record has been processed, including the one that failed
+     * @return the send of the record's dead letter, or {@code null} if it was parked
+     */
+    Future<RecordMetadata> park(ConsumerRecord<String, byte[]> record, UnknownKidException failure, int attempt) {
+        if (attempt >= maxAttempts) {
+            return deadLetters.publish(record, failure, attempt);
+        }
+
+        Parked entry = new Parked(record, failure, attempt);
+        synchronized (this) {
+            if (parkedCount >= maxParked) {
+                entry = null;
+            } else {
+                parked.computeIfAbsent(failure.getKid(), kid -> new LinkedHashSet<>()).add(entry);
+                parkedCount++;
+                hold(entry);
+            }
+        }
+        if (entry == null) {
+            return deadLetters.publish(record, failure, attempt);
+        }
+
+        long backoffMs = Math.min(initialBackoffMs << Math.min(attempt - 1, 30), maxBackoffMs);
+        log.info("Parking record {}-{} at offset {} for {} ms, no public key for kid: {}",
+            record.topic(), record.partition(), record.offset(), backoffMs, failure.getKid());
+
+        Parked scheduled = entry;
+        try {
+            retryThread.schedule(() -> {
+                if (unpark(scheduled)) {
+                    retry(scheduled);
+                }
+            }, backoffMs, TimeUnit.MILLISECONDS);
+        } catch (RejectedExecutionException e) {
+            // closed while this record was being retried, it's read again from the topic
+            if (unpark(scheduled)) {
+                release(scheduled);
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Retries every record parked for {@code kid} right away, without waiting for its backoff.
+     */
+    void retryNow(String kid) {
+        List<Parked> entries;
+        synchronized (this) {
+            Set<Parked> forKid = parked.remove(kid);
+            if (forKid == null) {
+                return;
+            }
+            entries = new ArrayList<>(forKid);
+            parkedCount -= entries.size();
+        }
+
+        log.info("Public key registered for kid: {}, retrying {} parked records", kid, entries.size());
+        try {
+            // their scheduled retries find them unparked and do nothing
+            retryThread.execute(() -> entries.forEach(this::retry));
+        } catch (RejectedExecutionException e) {
+            // closed in the meantime, they're read again from the topic
+            entries.forEach(this::release);
+        }
+    }
+
+    synchronized int getParkedCount() {
+        return parkedCount;
+    }
+
+    /**
+     * @return the offset of the partition's lowest record that is parked or being retried, or {@code null} if there is
+     * none
+     */
+    synchronized Long lowestParkedOffset(TopicPartition partition) {
+        TreeMap<Long, Set<Parked>> offsets = held.get(partition);
+        return offsets == null ? null : offsets.firstKey();
+    }
+
+    /**
+     * Forgets the records parked for partitions this consumer no longer reads, as their new consumer reads them again.
+     */
+    synchronized void drop(Collection<TopicPartition> partitions) {
+        for (Iterator<Set<Parked>> forKid = parked.values().iterator(); forKid.hasNext(); ) {
+            Set<Parked> entries = forKid.next();
+            for (Iterator<Parked> entry = entries.iterator(); entry.hasNext(); ) {
+                if (partitions.contains(entry.next().partition)) {
+                    entry.remove();
+                    parkedCount--;
+                }
+            }
+            if (entries.isEmpty()) {
+                forKid.remove();
+            }
+        }
+        held.keySet().removeAll(partitions);
+    }
+
+    /**
+     * Stops retrying. Whatever is still parked was never committed, so it is read again once the consumer restarts.
+     */
+    @Override
+    public void close() {
+        retryThread.shutdownNow();
+
+        synchronized (this) {
+            if (parkedCount > 0) {
+                log.info("Leaving {} parked records to be read again from the topic", parkedCount);
+            }
+            parked.clear();
+            parkedCount = 0;
+            held.clear();
+        }
+    }
+
+    private synchronized void hold(Parked entry) {
+        held.computeIfAbsent(entry.partition, partition -> new TreeMap<>())
+            .computeIfAbsent(entry.record.offset(), offset -> new LinkedHashSet<>())
+            .add(entry);
+    }
+
+    // nothing to do if the entry's partition was dropped in the meantime
+    private synchronized void release(Parked entry) {
+        TreeMap<Long, Set<Parked>> offsets = held.get(entry.partition);
+        Set<Parked> entries = offsets == null ? null : offsets.get(entry.record.offset());
+        if (entries == null || !entries.remove(entry)) {
+            return;
+        }
+        if (entries.isEmpty()) {
+            offsets.remove(entry.record.offset());
+        }
+        if (offsets.isEmpty()) {
+            held.remove(entry.partition);
+        }
+    }
+
+    private synchronized boolean unpark(Parked entry) {
+        Set<Parked> forKid = parked.get(entry.failure.getKid());
+        if (forKid == null || !forKid.remove(entry)) {
+            return false;
+        }
+        if (forKid.isEmpty()) {
+            parked.remove(entry.failure.getKid());
+        }
+        parkedCount--;
+        return true;
+    }
+
+    private void retry(Parked entry) {
+        try {
+            Future<?> deadLetter = processor.apply(entry.record, entry.attempt + 1);
+            if (deadLetter != null) {
+                deadLetter.get();
+            }
+        } catch (ExecutionException | RuntimeException e) {
+            // left held, so the partition isn't committed past it
+            Throwable cause = e instanceof ExecutionException ? e.getCause() : e;
+            log.error("Unable to retry record {}-{} at offset {}, holding it for the next consumer: {}",
+                entry.record.topic(), entry.record.partition(), entry.record.offset(), cause.getMessage(), cause);
+            return;
+        } catch (InterruptedException e) {
+            // closing, and with it forgetting every held record
+            Thread.currentThread().interrupt();
+            return;
+        }
+        // parked again by now if the key still isn't known, so the offset is never let go of in between
+        release(entry);
+    }
+
+    private static class Parked {
+        private final ConsumerRecord<String, byte[]> record;
+        private final TopicPartition partition;
+        private final UnknownKidException failure;
+        private final int attempt;
+
+        Parked(ConsumerRecord<String, byte[]> record, UnknownKidException failure, int attempt) {
+            this.record = record;
+            this.partition = new TopicPartition(record.topic(), record.partition());
+            this.failure = failure;
+            this.attempt = attempt;
+        }
+    }
+}
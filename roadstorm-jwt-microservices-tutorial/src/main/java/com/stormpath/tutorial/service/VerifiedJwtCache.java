@@ -0,0 +1,162 @@
+package com.stormpath.tutorial.service;
+
+import com.stormpath.tutorial.event.PublicKeyChangedEvent;
+import com.stormpath.tutorial.jwt.ScratchPool;
+import io.jsonwebtoken.Claims;
+import io.jsonwebtoken.Jws;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Tags;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Service;
+
+import javax.annotation.PostConstruct;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Date;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Bounded cache of already verified JWTs, keyed by the SHA-256 digest of the compact JWT.
+ * <p>
+ * Clients reuse a token for its whole lifetime, so a hit lets us skip the RSA signature check. An entry is only
+ * served until the token's {@code exp} and is dropped as soon as the key for its {@code kid} is replaced.
+ */
+@Service
+public class VerifiedJwtCache {
+
+    @Value("${jwt.cache.enabled:true}")
+    private boolean enabled;
+
+    @Value("${jwt.cache.max-entries:10000}")
+    private int maxEntries;
+
+    @Autowired
+    MeterRegistry meterRegistry;
+
+    private final Map<ByteBuffer, Entry> entries = new ConcurrentHashMap<>();
+
+    private Counter hits;
+    private Counter misses;
+    private Counter evictions;
+
+    private static final ScratchPool<MessageDigest> SHA_256 = new ScratchPool<>(() -> {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 is not available", e);
+        }
+    });
+
+    @PostConstruct
+    void init() {
+        hits = meterRegistry.counter("jwt.cache.requests", "result", "hit");
+        misses = meterRegistry.counter("jwt.cache.requests", "result", "miss");
+        evictions = meterRegistry.counter("jwt.cache.evictions");
+        meterRegistry.gaugeMapSize("jwt.cache.size", Tags.empty(), entries);
+    }
+
+    /**
+     * @return the previously verified JWT, or {@code null} if it has not been seen, has expired or its key changed.
+     */
+    public Jws<Claims> get(String jwt) {
+        if (!enabled) {
+            return null;
+        }
+
+        ByteBuffer key = digest(jwt);
+        Entry entry = entries.get(key);
+        if (entry == null) {
+            misses.increment();
+            return null;
+        }
+
+        if (entry.isExpired(System.currentTimeMillis())) {
+            if (entries.remove(key, entry)) {
+                evictions.increment();
+            }
+            misses.increment();
+            return null;
+        }
+
+        hits.increment();
+        return entry.jws;
+    }
+
+    public void put(String jwt, Jws<Claims> jws) {
+        Date exp = jws.getBody().getExpiration();
+        // without an exp there is nothing to bound the lifetime of the entry, so don't cache it
+        if (!enabled || exp == null) {
+            return;
+        }
+
+        if (entries.size() >= maxEntries) {
+            makeRoom();
+        }
+
+        entries.put(digest(jwt), new Entry(jws, jws.getHeader().getKeyId(), exp.getTime()));
+    }
+
+    @EventListener
+    public void onPublicKeyChanged(PublicKeyChangedEvent event) {
+        String kid = event.getKid();
+        entries.values().removeIf(entry -> {
+            boolean remove = kid.equals(entry.kid);
+            if (remove) {
+                evictions.increment();
+            }
+            return remove;
+        });
+    }
+
+    private void makeRoom() {
+        long now = System.currentTimeMillis();
+        entries.values().removeIf(entry -> {
+            boolean remove = entry.isExpired(now);
+            if (remove) {
+                evictions.increment();
+            }
+            return remove;
+        });
+
+        // still full of live tokens - drop arbitrary entries, they'll just be verified again
+        Iterator<Entry> it = entries.values().iterator();
+        while (entries.size() >= maxEntries && it.hasNext()) {
+            it.next();
+            it.remove();
+            evictions.increment();
+        }
+    }
+
+    private static ByteBuffer digest(String jwt) {
+        MessageDigest sha256 = SHA_256.take();
+        try {
+            return ByteBuffer.wrap(sha256.digest(jwt.getBytes(StandardCharsets.US_ASCII)));
+        } finally {
+            SHA_256.release(sha256);
+        }
+    }
+
+    static class Entry {
+        private final Jws<Claims> jws;
+        private final String kid;
+        private final long expiresAt;
+
+        Entry(Jws<Claims> jws, String kid, long expiresAt) {
+            this.jws = jws;
+            this.kid = kid;
+            this.expiresAt = expiresAt;
+        }
+
+        // same boundary as the parser: the token is no longer good at exactly exp
+        boolean isExpired(long now) {
+            return now >= expiresAt;
+        }
+    }
+}
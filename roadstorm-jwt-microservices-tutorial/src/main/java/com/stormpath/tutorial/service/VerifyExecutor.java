@@ -0,0 +1,82 @@
+package com.stormpath.tutorial.service;
+
+import com.stormpath.tutorial.exception.BackpressureException;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Tags;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Service;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+/**
+ * Fixed pool of verifier threads behind a bounded queue, for {@code jwt.verify.async.enabled}.
+ * <p>
+ * Signature checks are CPU bound, so one thread per core is all it takes. Requests wait in the queue instead of
+ * holding a Tomcat thread each, and once the queue is full they are turned away with a {@link BackpressureException}
+ * rather than piling up.
+ */
+@Service
+@ConditionalOnProperty(name = "jwt.verify.async.enabled", havingValue = "true")
+public class VerifyExecutor {
+
+    // 0 for one per core
+    @Value("${jwt.verify.async.threads:0}")
+    private int threads;
+
+    @Value("${jwt.verify.async.queue-size:10000}")
+    private int queueSize;
+
+    @Autowired
+    MeterRegistry meterRegistry;
+
+    private ThreadPoolExecutor executor;
+    private Counter rejected;
+
+    @PostConstruct
+    void init() {
+        int poolSize = threads > 0 ? threads : Runtime.getRuntime().availableProcessors();
+
+        AtomicInteger verifierCount = new AtomicInteger();
+        executor = new ThreadPoolExecutor(
+            poolSize, poolSize, 0, TimeUnit.MILLISECONDS, new ArrayBlockingQueue<>(queueSize), r -> {
+                Thread thread = new Thread(r, "jwt-verifier-" + verifierCount.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            }
+        );
+
+        meterRegistry.gauge("jwt.verify.async.queued", Tags.empty(), executor, e -> e.getQueue().size());
+        rejected = meterRegistry.counter("jwt.verify.async.rejected");
+    }
+
+    @PreDestroy
+    void shutdown() {
+        executor.shutdownNow();
+    }
+
+    /**
+     * @return completes with the result, or exceptionally with whatever the task threw or a {@link BackpressureException}
+     * if the queue is full
+     */
+    public <T> CompletableFuture<T> submit(Supplier<T> task) {
+        try {
+            return CompletableFuture.supplyAsync(task, executor);
+        } catch (RejectedExecutionException e) {
+            rejected.increment();
+            CompletableFuture<T> failed = new CompletableFuture<>();
+            failed.completeExceptionally(new BackpressureException("Too many JWTs waiting to be verified, try again later.", e));
+            return failed;
+        }
+    }
+}
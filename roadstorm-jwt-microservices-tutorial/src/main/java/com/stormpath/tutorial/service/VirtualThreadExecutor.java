@@ -0,0 +1,124 @@
+package com.stormpath.tutorial.service;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.List;
+import java.util.concurrent.AbstractExecutorService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Runs each task on a new virtual thread, at most {@code maxConcurrency} of them at once.
+ * <p>
+ * Tasks over the limit still get their thread, but it waits for a permit before running the task, and permits are
+ * handed out in arrival order. A waiting virtual thread is parked rather than holding a carrier, so this costs a little
+ * heap per waiting task and nothing else.
+ * <p>
+ * The app is built for Java 8, so virtual threads are looked up reflectively. {@link #create(String, int)} returns
+ * {@code null} if the JVM doesn't have them (before Java 21), and callers fall back to their platform threads.
+ */
+public class VirtualThreadExecutor extends AbstractExecutorService {
+
+    private static final Logger log = LoggerFactory.getLogger(VirtualThreadExecutor.class);
+
+    private final ExecutorService executor;
+    private final Semaphore permits;
+    private final int maxConcurrency;
+
+    private VirtualThreadExecutor(ExecutorService executor, int maxConcurrency) {
+        this.executor = executor;
+        this.permits = new Semaphore(maxConcurrency, true);
+        this.maxConcurrency = maxConcurrency;
+    }
+
+    /**
+     * @param namePrefix threads are named {@code namePrefix} followed by a counter
+     * @return the executor, or {@code null} if this JVM doesn't support virtual threads
+     */
+    public static VirtualThreadExecutor create(String namePrefix, int maxConcurrency) {
+        if (maxConcurrency < 1) {
+            throw new IllegalArgumentException("maxConcurrency must be at least 1, got: " + maxConcurrency);
+        }
+
+        try {
+            // Thread.ofVirtual().name(namePrefix, 1).factory()
+            Class<?> builderClass = Class.forName("java.lang.Thread$Builder");
+            Class<?> ofVirtualClass = Class.forName("java.lang.Thread$Builder$OfVirtual");
+            Object builder = Thread.class.getMethod("ofVirtual").invoke(null);
+            builder = ofVirtualClass.getMethod("name", String.class, long.class).invoke(builder, namePrefix, 1L);
+            ThreadFactory factory = (ThreadFactory) builderClass.getMethod("factory").invoke(builder);
+
+            ExecutorService executor = (ExecutorService) Executors.class
+                .getMethod("newThreadPerTaskExecutor", ThreadFactory.class)
+                .invoke(null, factory);
+            return new VirtualThreadExecutor(executor, maxConcurrency);
+        } catch (ReflectiveOperationException e) {
+            log.warn(
+                "Virtual threads need Java 21 or later, this is Java {}. Using platform threads instead of {}*",
+                System.getProperty("java.version"), namePrefix
+            );
+            return null;
+        }
+    }
+
+    /**
+     * @return the number of tasks running right now, not counting those waiting for a permit
+     */
+    public int getActiveCount() {
+        return maxConcurrency - permits.availablePermits();
+    }
+
+    /**
+     * @return the number of tasks waiting for a permit
+     */
+    public int getWaitingCount() {
+        return permits.getQueueLength();
+    }
+
+    @Override
+    public void execute(Runnable task) {
+        executor.execute(() -> {
+            try {
+                permits.acquire();
+            } catch (InterruptedException e) {
+                // shut down while waiting, the task never started
+                Thread.currentThread().interrupt();
+                return;
+            }
+            try {
+                task.run();
+            } finally {
+                permits.release();
+            }
+        });
+    }
+
+    @Override
+    public void shutdown() {
+        executor.shutdown();
+    }
+
+    @Override
+    public List<Runnable> shutdownNow() {
+        return executor.shutdownNow();
+    }
+
+    @Override
+    public boolean isShutdown() {
+        return executor.isShutdown();
+    }
+
+    @Override
+    public boolean isTerminated() {
+        return executor.isTerminated();
+    }
+
+    @Override
+    public boolean awaitTermination(long timeout, TimeUnit unit) throws InterruptedException {
+        return executor.awaitTermination(timeout, unit);
+    }
+}
@@ -0,0 +1,70 @@
+package com.stormpath.tutorial.service;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Tags;
+import org.apache.coyote.AbstractProtocol;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.context.embedded.ConfigurableEmbeddedServletContainer;
+import org.springframework.boot.context.embedded.EmbeddedServletContainerCustomizer;
+import org.springframework.boot.context.embedded.tomcat.TomcatEmbeddedServletContainerFactory;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+
+/**
+ * Hands Tomcat's request processing to virtual threads, for {@code virtual-threads.enabled}.
+ * <p>
+ * Tomcat then runs every request on a virtual thread of its own instead of on one of {@code server.tomcat.max-threads}
+ * request threads, so a request blocked on the network (a synchronous Kafka send, a remote lookup) no longer keeps
+ * others waiting. At most {@code virtual-threads.http.max-concurrency} requests run at once. The number of connections
+ * is still capped by {@code server.tomcat.max-connections}.
+ */
+@Component
+@ConditionalOnProperty(name = "virtual-threads.enabled", havingValue = "true")
+public class VirtualThreadTomcatCustomizer implements EmbeddedServletContainerCustomizer {
+
+    @Value("${virtual-threads.http.max-concurrency:10000}")
+    private int maxConcurrency;
+
+    @Autowired
+    MeterRegistry meterRegistry;
+
+    private VirtualThreadExecutor executor;
+
+    private static final Logger log = LoggerFactory.getLogger(VirtualThreadTomcatCustomizer.class);
+
+    @PostConstruct
+    void init() {
+        executor = VirtualThreadExecutor.create("http-virtual-", maxConcurrency);
+        if (executor != null) {
+            meterRegistry.gauge("virtual.threads.active", Tags.of("executor", "http"), executor, VirtualThreadExecutor::getActiveCount);
+            meterRegistry.gauge("virtual.threads.waiting", Tags.of("executor", "http"), executor, VirtualThreadExecutor::getWaitingCount);
+        }
+    }
+
+    @PreDestroy
+    void shutdown() {
+        if (executor != null) {
+            executor.shutdown();
+        }
+    }
+
+    @Override
+    public void customize(ConfigurableEmbeddedServletContainer container) {
+        if (executor == null || !(container instanceof TomcatEmbeddedServletContainerFactory)) {
+            return;
+        }
+
+        ((TomcatEmbeddedServletContainerFactory) container).addConnectorCustomizers(connector -> {
+            if (connector.getProtocolHandler() instanceof AbstractProtocol) {
+                ((AbstractProtocol<?>) connector.getProtocolHandler()).setExecutor(executor);
+                log.info("Processing requests on virtual threads, at most {} at once", maxConcurrency);
+            }
+        });
+    }
+}
@@ -0,0 +1,61 @@
+package com.stormpath.tutorial;
+
+import kafka.server.KafkaConfig;
+import kafka.server.KafkaServer;
+import kafka.utils.TestUtils;
+import kafka.zk.EmbeddedZookeeper;
+import org.apache.kafka.common.network.ListenerName;
+import org.apache.kafka.common.security.auth.SecurityProtocol;
+import org.apache.kafka.common.utils.Time;
+import org.apache.kafka.common.utils.Utils;
+import org.junit.rules.ExternalResource;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Properties;
+
+/**
+ * A ZooKeeper and a single broker on free ports, for as long as the test class (or test) runs.
+ */
+public class EmbeddedKafka extends ExternalResource {
+
+    private EmbeddedZookeeper zookeeper;
+    private KafkaServer broker;
+    private File logDir;
+
+    @Override
+    protected void before() {
+        zookeeper = new EmbeddedZookeeper();
+        logDir = TestUtils.tempDir();
+
+        Properties props = new Properties();
+        props.put("broker.id", "0");
+        props.put("zookeeper.connect", "127.0.0.1:" + zookeeper.port());
+        props.put("listeners", "PLAINTEXT://127.0.0.1:0");
+        props.put("log.dirs", logDir.getAbsolutePath());
+        // a single broker can't replicate the internal topics any further
+        props.put("offsets.topic.replication.factor", "1");
+        props.put("offsets.topic.num.partitions", "1");
+        props.put("transaction.state.log.replication.factor", "1");
+        props.put("transaction.state.log.min.isr", "1");
+        props.put("group.initial.rebalance.delay.ms", "0");
+
+        broker = TestUtils.createServer(KafkaConfig.fromProps(props), Time.SYSTEM);
+    }
+
+    @Override
+    protected void after() {
+        broker.shutdown();
+        broker.awaitShutdown();
+        zookeeper.shutdown();
+        try {
+            Utils.delete(logDir);
+        } catch (IOException e) {
+            // a temp dir, deleted on exit anyway
+        }
+    }
+
+    public String getBrokerAddress() {
+        return "127.0.0.1:" + broker.boundPort(ListenerName.forSecurityProtocol(SecurityProtocol.PLAINTEXT));
+    }
+}
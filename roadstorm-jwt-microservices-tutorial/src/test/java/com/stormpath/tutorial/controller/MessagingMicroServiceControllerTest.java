@@ -0,0 +1,39 @@
+package com.stormpath.tutorial.controller;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.http.MediaType;
+import org.springframework.test.context.junit4.SpringRunner;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.MvcResult;
+
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.asyncDispatch;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.post;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.jsonPath;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.request;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+
+@RunWith(SpringRunner.class)
+@SpringBootTest(properties = "kafka.enabled=false")
+@AutoConfigureMockMvc
+public class MessagingMicroServiceControllerTest {
+
+    @Autowired
+    MockMvc mockMvc;
+
+    @Test
+    public void asyncPublishIsNotImplementedWithKafkaDisabled() throws Exception {
+        MvcResult result = mockMvc.perform(post("/msg-account-request-async")
+            .contentType(MediaType.APPLICATION_JSON)
+            .content("{\"userName\": \"anna\"}"))
+            .andExpect(request().asyncStarted())
+            .andReturn();
+
+        mockMvc.perform(asyncDispatch(result))
+            .andExpect(status().isNotImplemented())
+            .andExpect(jsonPath("$.message").value("Kafka is disabled."));
+    }
+}
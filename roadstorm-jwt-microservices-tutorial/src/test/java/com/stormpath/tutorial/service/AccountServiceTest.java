@@ -0,0 +1,55 @@
+package com.stormpath.tutorial.service;
+
+import com.stormpath.tutorial.jwt.JwtMetrics;
+import com.stormpath.tutorial.jwt.JwtPrecheck;
+import io.jsonwebtoken.Claims;
+import io.jsonwebtoken.Jws;
+import io.jsonwebtoken.MalformedJwtException;
+import io.jsonwebtoken.SigningKeyResolver;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class AccountServiceTest {
+
+    private static final String JWT = "header.payload.signature";
+
+    private AccountService accountService;
+
+    @Before
+    public void setup() {
+        accountService = new AccountService();
+        accountService.verifiedJwtCache = mock(VerifiedJwtCache.class);
+        accountService.jwtPrecheck = mock(JwtPrecheck.class);
+        accountService.jwtMetrics = new JwtMetrics(new SimpleMeterRegistry());
+    }
+
+    @Test
+    public void cachedJwtSkipsThePrecheck() {
+        @SuppressWarnings("unchecked")
+        Jws<Claims> cached = mock(Jws.class);
+        when(accountService.verifiedJwtCache.get(JWT)).thenReturn(cached);
+
+        assertThat(accountService.verify(JWT, mock(SigningKeyResolver.class))).isSameAs(cached);
+        verify(accountService.jwtPrecheck, never()).check(anyString());
+    }
+
+    @Test
+    public void uncachedJwtIsPrecheckedBeforeParsing() {
+        MalformedJwtException rejected = new MalformedJwtException("rejected");
+        doThrow(rejected).when(accountService.jwtPrecheck).check(JWT);
+
+        assertThatThrownBy(() -> accountService.verify(JWT, mock(SigningKeyResolver.class))).isSameAs(rejected);
+        verify(accountService.verifiedJwtCache).get(JWT);
+        verify(accountService.jwtPrecheck).check(JWT);
+    }
+}
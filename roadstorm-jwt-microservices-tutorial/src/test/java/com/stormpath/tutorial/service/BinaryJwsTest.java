@@ -0,0 +1,86 @@
+package com.stormpath.tutorial.service;
+
+import io.jsonwebtoken.MalformedJwtException;
+import io.jsonwebtoken.impl.TextCodec;
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+public class BinaryJwsTest {
+
+    private static final String HEADER = "{\"kid\":\"k1\",\"alg\":\"RS256\"}";
+    private static final String PAYLOAD = "{\"sub\":\"anna\"}";
+    private static final byte[] SIGNATURE = { 1, 2, 3, 4, 5 };
+
+    private static final String JWT = encode(HEADER.getBytes(StandardCharsets.UTF_8)) + "." +
+        encode(PAYLOAD.getBytes(StandardCharsets.UTF_8)) + "." + encode(SIGNATURE);
+
+    @Test
+    public void binaryRecordHoldsTheDecodedSegmentsWithNineBytesOfFraming() {
+        byte[] record = BinaryJws.toBinary(JWT);
+
+        ByteBuffer expected = ByteBuffer.allocate(9 + HEADER.length() + PAYLOAD.length() + SIGNATURE.length);
+        expected.put(BinaryJws.FORMAT)
+            .putShort((short) HEADER.length()).put(HEADER.getBytes(StandardCharsets.UTF_8))
+            .putInt(PAYLOAD.length()).put(PAYLOAD.getBytes(StandardCharsets.UTF_8))
+            .putShort((short) SIGNATURE.length).put(SIGNATURE);
+        assertThat(record).isEqualTo(expected.array());
+
+        BinaryJws jws = BinaryJws.read(record);
+        assertThat(jws.bytes).isSameAs(record);
+        assertThat(jws.size()).isEqualTo(record.length);
+        assertSegments(jws);
+    }
+
+    @Test
+    public void compactRecordsReadLikeBinaryOnes() {
+        BinaryJws jws = BinaryJws.read(JWT.getBytes(StandardCharsets.US_ASCII));
+
+        assertSegments(jws);
+        assertThat(jws.bytes).isEqualTo(BinaryJws.toBinary(JWT));
+    }
+
+    @Test
+    public void malformedRecordsAreRejected() {
+        byte[] record = BinaryJws.toBinary(JWT);
+
+        assertMalformed(null);
+        assertMalformed(new byte[0]);
+        assertMalformed(Arrays.copyOf(record, record.length - 1));
+        assertMalformed(Arrays.copyOf(record, record.length + 1));
+        assertMalformed(new byte[] { BinaryJws.FORMAT, 0, 0, 0, 0, 0, 1, 'x', 0, 1, 1 });
+
+        assertMalformed(ascii("a.b"));
+        assertMalformed(ascii(JWT + ".x"));
+        assertMalformed(ascii(JWT.substring(0, JWT.lastIndexOf('.') + 1)));
+        assertMalformed(ascii(JWT.replace('A', '+').replace('e', '/')));
+        assertMalformed(ascii("abcde.abcd.abcd"));
+    }
+
+    private static void assertSegments(BinaryJws jws) {
+        assertThat(segment(jws, jws.headerOffset, jws.headerLength)).isEqualTo(HEADER.getBytes(StandardCharsets.UTF_8));
+        assertThat(segment(jws, jws.payloadOffset, jws.payloadLength)).isEqualTo(PAYLOAD.getBytes(StandardCharsets.UTF_8));
+        assertThat(segment(jws, jws.signatureOffset, jws.signatureLength)).isEqualTo(SIGNATURE);
+    }
+
+    private static byte[] segment(BinaryJws jws, int offset, int length) {
+        return Arrays.copyOfRange(jws.bytes, offset, offset + length);
+    }
+
+    private static void assertMalformed(byte[] record) {
+        assertThatThrownBy(() -> BinaryJws.read(record)).isInstanceOf(MalformedJwtException.class);
+    }
+
+    private static byte[] ascii(String s) {
+        return s.getBytes(StandardCharsets.US_ASCII);
+    }
+
+    private static String encode(byte[] bytes) {
+        return TextCodec.BASE64URL.encode(bytes);
+    }
+}
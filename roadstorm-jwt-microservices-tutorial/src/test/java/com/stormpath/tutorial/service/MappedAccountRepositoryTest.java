@@ -0,0 +1,51 @@
+package com.stormpath.tutorial.service;
+
+import com.stormpath.tutorial.model.Account;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Collections;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+public class MappedAccountRepositoryTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void writesAnAccountFileFromCsv() throws Exception {
+        Path csv = folder.getRoot().toPath().resolve("accounts.csv");
+        Path path = folder.getRoot().toPath().resolve("accounts.dat");
+        Files.write(csv, Arrays.asList("anna,Anna,Apple", "", "betty, Betty, Baker"), StandardCharsets.UTF_8);
+
+        MappedAccountRepository.main(new String[] { csv.toString(), path.toString() });
+
+        MappedAccountRepository repository = new MappedAccountRepository(path, 10);
+        assertThat(repository.size()).isEqualTo(2);
+        Account betty = repository.findByUserName("betty");
+        assertThat(betty.getFirstName()).isEqualTo("Betty");
+        assertThat(betty.getLastName()).isEqualTo("Baker");
+        assertThat(repository.findByUserName("colin")).isNull();
+    }
+
+    @Test
+    public void failedWriteKeepsTheOldFileAndLeavesNoTempFile() throws Exception {
+        Path path = folder.getRoot().toPath().resolve("accounts.dat");
+        MappedAccountRepository.write(path, Collections.singletonList(new Account("Anna", "Apple", "anna")));
+
+        assertThatThrownBy(() -> MappedAccountRepository.write(path, Arrays.asList(
+            new Account("Betty", "Baker", "betty"),
+            new Account("Betty", "Brown", "betty")
+        ))).isInstanceOf(IllegalArgumentException.class);
+
+        assertThat(Files.exists(path.resolveSibling("accounts.dat.tmp"))).isFalse();
+        assertThat(new MappedAccountRepository(path, 10).findByUserName("anna")).isNotNull();
+    }
+}
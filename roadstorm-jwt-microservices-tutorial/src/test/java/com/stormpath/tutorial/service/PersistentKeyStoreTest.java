@@ -0,0 +1,116 @@
+package com.stormpath.tutorial.service;
+
+import io.jsonwebtoken.SignatureAlgorithm;
+import io.jsonwebtoken.impl.crypto.RsaProvider;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.KeyPair;
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class PersistentKeyStoreTest {
+
+    private static final int INITIAL_SIZE = 4096;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void compactionDropsPurgedKeysAndReplacedSigningCreds() throws Exception {
+        Path path = folder.getRoot().toPath().resolve("keys");
+        SigningCreds first = creds("first");
+        SigningCreds second = creds("second");
+        SigningCreds peer = creds("peer");
+
+        try (PersistentKeyStore keyStore = new PersistentKeyStore(path, INITIAL_SIZE)) {
+            keyStore.saveTrustedKey(first.getKid(), first.getAlgorithm(), first.getPublicKey());
+            keyStore.saveSigningCreds(first);
+            keyStore.saveTrustedKey(peer.getKid(), peer.getAlgorithm(), peer.getPublicKey());
+
+            // rotate, then purge the first key pair
+            for (int i = 0; i < 20; i++) {
+                SigningCreds rotated = i == 19 ? second : creds("rotated-" + i);
+                keyStore.saveTrustedKey(rotated.getKid(), rotated.getAlgorithm(), rotated.getPublicKey());
+                keyStore.saveSigningCreds(rotated);
+                if (i < 19) {
+                    keyStore.removeTrustedKey(rotated.getKid());
+                }
+            }
+            keyStore.saveRetiredKey(first.getKid(), Long.MAX_VALUE);
+            keyStore.removeTrustedKey(first.getKid());
+            long sizeBefore = Files.size(path);
+
+            keyStore.compact();
+
+            assertThat(Files.size(path)).isLessThan(sizeBefore);
+        }
+
+        KeyRegistry keyRegistry = new KeyRegistry();
+        Map<String, Long> retiring = new HashMap<>();
+        try (PersistentKeyStore keyStore = new PersistentKeyStore(path, INITIAL_SIZE)) {
+            SigningCreds restored = keyStore.load(keyRegistry, retiring);
+
+            assertThat(restored.getKid()).isEqualTo(second.getKid());
+            assertThat(restored.getPrivateKey()).isEqualTo(second.getPrivateKey());
+        }
+        assertThat(keyRegistry.getPublicKey(first.getKid())).isNull();
+        assertThat(keyRegistry.getPublicKey("rotated-0")).isNull();
+        assertThat(keyRegistry.getPublicKey(peer.getKid())).isEqualTo(peer.getPublicKey());
+        assertThat(keyRegistry.getPublicKey(second.getKid())).isEqualTo(second.getPublicKey());
+        assertThat(retiring).isEmpty();
+
+        // nothing on disk but what was just restored
+        byte[] file = Files.readAllBytes(path);
+        assertThat(indexOf(file, first.getPrivateKey().getEncoded())).isEqualTo(-1);
+        assertThat(indexOf(file, first.getPublicKey().getEncoded())).isEqualTo(-1);
+    }
+
+    @Test
+    public void loadDropsKeysPurgedWhileDown() throws Exception {
+        Path path = folder.getRoot().toPath().resolve("keys");
+        SigningCreds retired = creds("retired");
+        SigningCreds current = creds("current");
+
+        try (PersistentKeyStore keyStore = new PersistentKeyStore(path, INITIAL_SIZE)) {
+            keyStore.saveTrustedKey(retired.getKid(), retired.getAlgorithm(), retired.getPublicKey());
+            keyStore.saveSigningCreds(retired);
+            keyStore.saveTrustedKey(current.getKid(), current.getAlgorithm(), current.getPublicKey());
+            keyStore.saveSigningCreds(current);
+            // the grace period ran out before the purge did
+            keyStore.saveRetiredKey(retired.getKid(), 1);
+        }
+
+        try (PersistentKeyStore keyStore = new PersistentKeyStore(path, INITIAL_SIZE)) {
+            keyStore.load(new KeyRegistry(), new HashMap<>());
+        }
+
+        byte[] file = Files.readAllBytes(path);
+        assertThat(indexOf(file, retired.getPrivateKey().getEncoded())).isEqualTo(-1);
+        assertThat(indexOf(file, retired.getPublicKey().getEncoded())).isEqualTo(-1);
+        assertThat(indexOf(file, current.getPrivateKey().getEncoded())).isNotEqualTo(-1);
+    }
+
+    private static SigningCreds creds(String kid) {
+        KeyPair keyPair = RsaProvider.generateKeyPair(1024);
+        return new SigningCreds(kid, SignatureAlgorithm.RS256, keyPair);
+    }
+
+    private static int indexOf(byte[] haystack, byte[] needle) {
+        outer:
+        for (int i = 0; i <= haystack.length - needle.length; i++) {
+            for (int j = 0; j < needle.length; j++) {
+                if (haystack[i + j] != needle[j]) {
+                    continue outer;
+                }
+            }
+            return i;
+        }
+        return -1;
+    }
+}
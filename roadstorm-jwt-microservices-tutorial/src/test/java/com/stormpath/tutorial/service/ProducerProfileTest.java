@@ -0,0 +1,50 @@
+package com.stormpath.tutorial.service;
+
+import org.junit.Test;
+import org.springframework.mock.env.MockEnvironment;
+
+import java.util.Properties;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+public class ProducerProfileTest {
+
+    @Test
+    public void profilesArePickedByNameInAnyCase() {
+        assertThat(ProducerProfile.forName(" Durable ")).isSameAs(ProducerProfile.DURABLE);
+        assertThatThrownBy(() -> ProducerProfile.forName("fastest"))
+            .isInstanceOf(IllegalArgumentException.class)
+            .hasMessageContaining("kafka.producer.profile");
+    }
+
+    @Test
+    public void overridesReplaceOnlyTheSettingsTheyName() {
+        MockEnvironment environment = new MockEnvironment()
+            .withProperty("kafka.producer.linger-ms", "50")
+            .withProperty("kafka.producer.compression-type", "gzip");
+
+        Properties properties = ProducerProfile.THROUGHPUT.properties(environment);
+
+        Properties expected = ProducerProfile.THROUGHPUT.properties();
+        expected.put("linger.ms", "50");
+        expected.put("compression.type", "gzip");
+        assertThat(properties).isEqualTo(expected);
+    }
+
+    @Test
+    public void withoutOverridesTheProfileIsUsedAsItIs() {
+        assertThat(ProducerProfile.LATENCY.properties(new MockEnvironment()))
+            .isEqualTo(ProducerProfile.LATENCY.properties());
+    }
+
+    @Test
+    public void durableRetriesAreBounded() {
+        Properties properties = ProducerProfile.DURABLE.properties();
+
+        // without delivery.timeout.ms in the 1.1 client, unlimited retries would never give a send up
+        assertThat((int) properties.get("retries")).isLessThan(Integer.MAX_VALUE).isPositive();
+        assertThat(properties.get("enable.idempotence")).isEqualTo(true);
+        assertThat(properties.get("max.in.flight.requests.per.connection")).isEqualTo(5);
+    }
+}
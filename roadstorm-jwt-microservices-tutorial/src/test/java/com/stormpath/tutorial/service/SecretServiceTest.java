@@ -0,0 +1,90 @@
+package com.stormpath.tutorial.service;
+
+import com.stormpath.tutorial.jwt.JwtMetrics;
+import com.stormpath.tutorial.model.PublicCreds;
+import io.jsonwebtoken.SignatureAlgorithm;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.beans.DirectFieldAccessor;
+import org.springframework.context.ApplicationEventPublisher;
+
+import java.io.IOException;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.mock;
+
+public class SecretServiceTest {
+
+    private SecretService secretService;
+    private SecretService peer;
+
+    @Before
+    public void setup() {
+        secretService = secretService();
+        peer = secretService();
+    }
+
+    @After
+    public void close() throws IOException {
+        secretService.close();
+        peer.close();
+    }
+
+    @Test
+    public void rotationPublishesTheNextKeyPairBeforeSigningWithIt() {
+        String kid = secretService.getMySigningCreds().getKid();
+
+        secretService.rotate();
+
+        PublicCreds published = secretService.getMyPublicCreds();
+        assertThat(published.getKid()).isEqualTo(kid);
+        assertThat(published.getNext()).isNotNull();
+        assertThat(secretService.getMySigningCreds().getKid()).isEqualTo(kid);
+
+        // still within the publish window
+        secretService.activateNextCreds();
+        assertThat(secretService.getMySigningCreds().getKid()).isEqualTo(kid);
+
+        new DirectFieldAccessor(secretService).setPropertyValue("nextCredsActiveAt", 0L);
+        secretService.activateNextCreds();
+
+        assertThat(secretService.getMySigningCreds().getKid()).isEqualTo(published.getNext().getKid());
+        assertThat(secretService.getMyPublicCreds().getNext()).isNull();
+    }
+
+    @Test
+    public void handshakeTrustsThePublishedKeyPair() {
+        secretService.rotate();
+        PublicCreds published = secretService.getMyPublicCreds();
+
+        peer.addPublicCreds(published);
+
+        assertThat(peer.getPublicCreds(published.getKid()).getB64UrlPublicKey())
+            .isEqualTo(published.getB64UrlPublicKey());
+        assertThat(peer.getPublicCreds(published.getNext().getKid()).getB64UrlPublicKey())
+            .isEqualTo(published.getNext().getB64UrlPublicKey());
+    }
+
+    @Test
+    public void noPublishWindowSwitchesStraightAway() {
+        new DirectFieldAccessor(secretService).setPropertyValue("publishWindowMs", 0L);
+        String kid = secretService.getMySigningCreds().getKid();
+
+        secretService.rotate();
+
+        assertThat(secretService.getMySigningCreds().getKid()).isNotEqualTo(kid);
+        assertThat(secretService.getMyPublicCreds().getNext()).isNull();
+    }
+
+    private static SecretService secretService() {
+        SecretService secretService = new SecretService();
+        DirectFieldAccessor fields = new DirectFieldAccessor(secretService);
+        fields.setPropertyValue("eventPublisher", mock(ApplicationEventPublisher.class));
+        fields.setPropertyValue("jwtMetrics", new JwtMetrics(new SimpleMeterRegistry()));
+        fields.setPropertyValue("signingAlgorithm", SignatureAlgorithm.ES256);
+        secretService.setup();
+        return secretService;
+    }
+}
@@ -0,0 +1,168 @@
+package com.stormpath.tutorial.service;
+
+import com.stormpath.tutorial.EmbeddedKafka;
+import io.jsonwebtoken.Claims;
+import io.jsonwebtoken.Jws;
+import io.jsonwebtoken.JwsHeader;
+import io.jsonwebtoken.Jwts;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.apache.kafka.clients.consumer.Consumer;
+import org.apache.kafka.clients.consumer.KafkaConsumer;
+import org.apache.kafka.clients.consumer.OffsetAndMetadata;
+import org.apache.kafka.clients.producer.KafkaProducer;
+import org.apache.kafka.clients.producer.Producer;
+import org.apache.kafka.clients.producer.ProducerRecord;
+import org.apache.kafka.common.TopicPartition;
+import org.apache.kafka.common.serialization.StringDeserializer;
+import org.apache.kafka.common.serialization.StringSerializer;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.ClassRule;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.ArgumentCaptor;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.mock.mockito.SpyBean;
+import org.springframework.test.annotation.DirtiesContext;
+import org.springframework.test.context.junit4.SpringRunner;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.timeout;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+
+@RunWith(SpringRunner.class)
+@SpringBootTest(webEnvironment = SpringBootTest.WebEnvironment.NONE, properties = {
+    "kafka.enabled=true",
+    "kafka.consumer.enabled=true",
+    "kafka.consumer.group-id=consumer-test",
+    "kafka.consumer.poll-timeout-ms=100",
+    "topic=consumer-test",
+    "topic.partitions=" + SpringBootKafkaConsumerTest.PARTITIONS,
+    "topic.dead-letter=consumer-test-dead-letter"
+})
+@DirtiesContext
+public class SpringBootKafkaConsumerTest {
+
+    static final int PARTITIONS = 3;
+
+    private static final String TOPIC = "consumer-test";
+    private static final int RECORDS_PER_PARTITION = 50;
+    private static final long TIMEOUT_MS = TimeUnit.SECONDS.toMillis(30);
+
+    @ClassRule
+    public static final EmbeddedKafka kafka = new EmbeddedKafka();
+
+    @SpyBean
+    AccountService accountService;
+
+    @Autowired
+    SecretService secretService;
+
+    @Autowired
+    MeterRegistry meterRegistry;
+
+    @BeforeClass
+    public static void useEmbeddedBroker() {
+        // read when the application context starts, which is after the broker did
+        System.setProperty("kafka.broker.address", kafka.getBrokerAddress());
+    }
+
+    @AfterClass
+    public static void forgetEmbeddedBroker() {
+        System.clearProperty("kafka.broker.address");
+    }
+
+    @Test
+    public void verifiesEveryRecordOfABatchAndCommitsEachPartition() throws Exception {
+        int recordCount = PARTITIONS * RECORDS_PER_PARTITION;
+        SigningCreds creds = secretService.getMySigningCreds();
+        // a new group starts at the end of each partition, so records sent before that would be skipped
+        awaitAssignedPartitions();
+
+        Properties producerProps = new Properties();
+        producerProps.put("bootstrap.servers", kafka.getBrokerAddress());
+        try (Producer<String, String> producer =
+                 new KafkaProducer<>(producerProps, new StringSerializer(), new StringSerializer())) {
+            List<Future<?>> sends = new ArrayList<>();
+            for (int i = 0; i < recordCount; i++) {
+                String jwt = Jwts.builder()
+                    .setHeaderParam(JwsHeader.KEY_ID, creds.getKid())
+                    .setId("record-" + i)
+                    .claim(AccountService.USERNAME_CLAIM, "anna")
+                    .signWith(creds.getAlgorithm(), creds.getPrivateKey())
+                    .compact();
+                sends.add(producer.send(new ProducerRecord<>(TOPIC, i % PARTITIONS, null, jwt)));
+            }
+            for (Future<?> send : sends) {
+                send.get();
+            }
+        }
+
+        verify(accountService, timeout(TIMEOUT_MS).times(recordCount)).getAccount(any(jwsClass()));
+        ArgumentCaptor<Jws<Claims>> verified = ArgumentCaptor.forClass(jwsClass());
+        verify(accountService, times(recordCount)).getAccount(verified.capture());
+        Set<String> ids = verified.getAllValues().stream()
+            .map(jws -> jws.getBody().getId())
+            .collect(Collectors.toSet());
+        assertThat(ids).hasSize(recordCount);
+
+        Map<TopicPartition, Long> expected = new HashMap<>();
+        for (int partition = 0; partition < PARTITIONS; partition++) {
+            expected.put(new TopicPartition(TOPIC, partition), (long) RECORDS_PER_PARTITION);
+        }
+        assertThat(awaitCommitted(expected)).isEqualTo(expected);
+    }
+
+    @SuppressWarnings("unchecked")
+    private static Class<Jws<Claims>> jwsClass() {
+        return (Class<Jws<Claims>>) (Class<?>) Jws.class;
+    }
+
+    private void awaitAssignedPartitions() throws InterruptedException {
+        long deadline = System.currentTimeMillis() + TIMEOUT_MS;
+        while (meterRegistry.find("kafka.consumer.partitions").gauge().value() < PARTITIONS) {
+            assertThat(System.currentTimeMillis()).as("partitions assigned in time").isLessThan(deadline);
+            Thread.sleep(100);
+        }
+    }
+
+    // the commit follows the last record of a partition's batch, so it may still be on its way
+    private static Map<TopicPartition, Long> awaitCommitted(Map<TopicPartition, Long> expected)
+        throws InterruptedException {
+        Properties consumerProps = new Properties();
+        consumerProps.put("bootstrap.servers", kafka.getBrokerAddress());
+        consumerProps.put("group.id", "consumer-test");
+        consumerProps.put("enable.auto.commit", "false");
+
+        try (Consumer<String, String> consumer =
+                 new KafkaConsumer<>(consumerProps, new StringDeserializer(), new StringDeserializer())) {
+            long deadline = System.currentTimeMillis() + TIMEOUT_MS;
+            Map<TopicPartition, Long> committed;
+            do {
+                committed = new HashMap<>();
+                for (TopicPartition partition : expected.keySet()) {
+                    OffsetAndMetadata offset = consumer.committed(partition);
+                    committed.put(partition, offset == null ? null : offset.offset());
+                }
+                if (committed.equals(expected)) {
+                    break;
+                }
+                Thread.sleep(100);
+            } while (System.currentTimeMillis() < deadline);
+            return committed;
+        }
+    }
+}
@@ -0,0 +1,220 @@
+package com.stormpath.tutorial.service;
+
+import com.stormpath.tutorial.exception.UnknownKidException;
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.apache.kafka.common.TopicPartition;
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.Collections;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BiFunction;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyInt;
+import static org.mockito.Matchers.same;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+
+public class UnknownKidRetryStageTest {
+
+    private static final String TOPIC = "micro-services";
+    private static final TopicPartition PARTITION = new TopicPartition(TOPIC, 0);
+    private static final long NEVER_MS = TimeUnit.HOURS.toMillis(1);
+
+    private final DeadLetterPublisher deadLetters = mock(DeadLetterPublisher.class);
+    private final BlockingQueue<String> attempts = new LinkedBlockingQueue<>();
+
+    private UnknownKidRetryStage retryStage;
+
+    @After
+    public void close() {
+        if (retryStage != null) {
+            retryStage.close();
+        }
+    }
+
+    @Test
+    public void registeredKeyRetriesRightAway() throws InterruptedException {
+        retryStage = retryStage(10, NEVER_MS, 10, recording());
+        ConsumerRecord<String, byte[]> record = record(0, 5);
+
+        retryStage.park(record, unknownKid("k1"), 1);
+        retryStage.park(record(0, 6), unknownKid("k2"), 1);
+        assertThat(retryStage.getParkedCount()).isEqualTo(2);
+
+        retryStage.retryNow("k1");
+
+        assertThat(attempts.poll(5, TimeUnit.SECONDS)).isEqualTo("0-5 attempt 2");
+        assertThat(retryStage.getParkedCount()).isEqualTo(1);
+        assertThat(attempts).isEmpty();
+    }
+
+    @Test
+    public void unregisteredKeyIsRetriedAfterItsBackoff() throws InterruptedException {
+        retryStage = retryStage(10, 10, 10, recording());
+
+        retryStage.park(record(0, 5), unknownKid("k1"), 3);
+
+        assertThat(attempts.poll(5, TimeUnit.SECONDS)).isEqualTo("0-5 attempt 4");
+        assertThat(retryStage.getParkedCount()).isZero();
+    }
+
+    @Test
+    public void recordsAreDeadLetteredAfterTheLastAttemptOrWhenTooManyAreParked() {
+        retryStage = retryStage(1, NEVER_MS, 3, recording());
+        ConsumerRecord<String, byte[]> lastAttempt = record(0, 1);
+        ConsumerRecord<String, byte[]> overflow = record(0, 3);
+        UnknownKidException failure = unknownKid("k1");
+
+        retryStage.park(lastAttempt, failure, 3);
+        retryStage.park(record(0, 2), failure, 1);
+        retryStage.park(overflow, failure, 1);
+
+        verify(deadLetters).publish(same(lastAttempt), same(failure), anyInt());
+        verify(deadLetters).publish(same(overflow), same(failure), anyInt());
+        assertThat(retryStage.getParkedCount()).isEqualTo(1);
+        assertThat(retryStage.lowestParkedOffset(PARTITION)).isEqualTo(2);
+    }
+
+    @Test
+    public void commitIsHeldAtTheLowestParkedRecordUntilItsRetryIsOver() throws InterruptedException {
+        CountDownLatch retrying = new CountDownLatch(1);
+        CountDownLatch keyArrived = new CountDownLatch(1);
+        retryStage = retryStage(10, NEVER_MS, 10, (record, attempt) -> {
+            retrying.countDown();
+            await(keyArrived);
+            return null;
+        });
+
+        retryStage.park(record(0, 7), unknownKid("k1"), 1);
+        retryStage.park(record(0, 4), unknownKid("k1"), 1);
+        retryStage.park(record(1, 2), unknownKid("k2"), 1);
+        assertThat(retryStage.lowestParkedOffset(PARTITION)).isEqualTo(4);
+        assertThat(retryStage.lowestParkedOffset(new TopicPartition(TOPIC, 1))).isEqualTo(2);
+        assertThat(retryStage.lowestParkedOffset(new TopicPartition(TOPIC, 2))).isNull();
+
+        retryStage.retryNow("k1");
+        assertThat(retrying.await(5, TimeUnit.SECONDS)).isTrue();
+
+        // unparked, but not verified yet
+        assertThat(retryStage.getParkedCount()).isEqualTo(1);
+        assertThat(retryStage.lowestParkedOffset(PARTITION)).isEqualTo(4);
+
+        keyArrived.countDown();
+        long deadline = System.currentTimeMillis() + 5000;
+        while (retryStage.lowestParkedOffset(PARTITION) != null && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertThat(retryStage.lowestParkedOffset(PARTITION)).isNull();
+        assertThat(retryStage.lowestParkedOffset(new TopicPartition(TOPIC, 1))).isEqualTo(2);
+    }
+
+    @Test
+    public void recordParkedAgainKeepsHoldingTheCommit() throws InterruptedException {
+        BlockingQueue<Integer> retried = new LinkedBlockingQueue<>();
+        // the key still isn't known when the record is retried
+        retryStage = retryStage(10, NEVER_MS, 10, (record, attempt) -> {
+            Future<?> deadLetter = retryStage.park(record, unknownKid("k1"), attempt);
+            retried.add(attempt);
+            return deadLetter;
+        });
+
+        retryStage.park(record(0, 4), unknownKid("k1"), 1);
+        retryStage.retryNow("k1");
+
+        assertThat(retried.poll(5, TimeUnit.SECONDS)).isNotNull();
+        assertThat(retryStage.lowestParkedOffset(PARTITION)).isEqualTo(4);
+    }
+
+    @Test
+    public void recordWhoseDeadLetterCantBeSentKeepsHoldingTheCommit() throws InterruptedException {
+        CompletableFuture<Object> lost = new CompletableFuture<>();
+        lost.completeExceptionally(new IllegalStateException("broker unavailable"));
+        BlockingQueue<Long> retried = new LinkedBlockingQueue<>();
+        retryStage = retryStage(10, NEVER_MS, 10, (record, attempt) -> {
+            retried.add(record.offset());
+            return record.offset() == 4 ? lost : CompletableFuture.completedFuture(null);
+        });
+
+        retryStage.park(record(0, 4), unknownKid("k1"), 1);
+        retryStage.retryNow("k1");
+        // retried on the same thread, so only once the first retry is over
+        retryStage.park(record(1, 2), unknownKid("k2"), 1);
+        retryStage.retryNow("k2");
+
+        assertThat(retried.poll(5, TimeUnit.SECONDS)).isEqualTo(4);
+        assertThat(retried.poll(5, TimeUnit.SECONDS)).isEqualTo(2);
+        long deadline = System.currentTimeMillis() + 5000;
+        while (retryStage.lowestParkedOffset(new TopicPartition(TOPIC, 1)) != null
+            && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertThat(retryStage.lowestParkedOffset(new TopicPartition(TOPIC, 1))).isNull();
+        assertThat(retryStage.lowestParkedOffset(PARTITION)).isEqualTo(4);
+    }
+
+    @Test
+    public void revokedPartitionsAreDroppedWithoutDeadLetters() {
+        retryStage = retryStage(10, NEVER_MS, 10, recording());
+
+        retryStage.park(record(0, 4), unknownKid("k1"), 1);
+        retryStage.park(record(1, 2), unknownKid("k1"), 1);
+
+        retryStage.drop(Collections.singleton(PARTITION));
+
+        assertThat(retryStage.getParkedCount()).isEqualTo(1);
+        assertThat(retryStage.lowestParkedOffset(PARTITION)).isNull();
+        assertThat(retryStage.lowestParkedOffset(new TopicPartition(TOPIC, 1))).isEqualTo(2);
+        verify(deadLetters, never()).publish(any(), any(), anyInt());
+    }
+
+    @Test
+    public void closeLeavesParkedRecordsToBeReadAgain() {
+        retryStage = retryStage(10, NEVER_MS, 10, recording());
+        retryStage.park(record(0, 4), unknownKid("k1"), 1);
+
+        retryStage.close();
+
+        assertThat(retryStage.getParkedCount()).isZero();
+        assertThat(retryStage.lowestParkedOffset(PARTITION)).isNull();
+        verify(deadLetters, never()).publish(any(), any(), anyInt());
+    }
+
+    private UnknownKidRetryStage retryStage(
+        int maxParked, long backoffMs, int maxAttempts,
+        BiFunction<ConsumerRecord<String, byte[]>, Integer, Future<?>> processor
+    ) {
+        return new UnknownKidRetryStage(maxParked, backoffMs, backoffMs, maxAttempts, processor, deadLetters);
+    }
+
+    private BiFunction<ConsumerRecord<String, byte[]>, Integer, Future<?>> recording() {
+        return (record, attempt) -> {
+            attempts.add(record.partition() + "-" + record.offset() + " attempt " + attempt);
+            return null;
+        };
+    }
+
+    private static ConsumerRecord<String, byte[]> record(int partition, long offset) {
+        return new ConsumerRecord<>(TOPIC, partition, offset, null, new byte[0]);
+    }
+
+    private static UnknownKidException unknownKid(String kid) {
+        return new UnknownKidException(kid, "No public key for kid: " + kid);
+    }
+
+    private static void await(CountDownLatch latch) {
+        try {
+            latch.await(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,17 @@
+package com.stormpath.tutorial.service;
+
+import org.junit.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class VerifiedJwtCacheTest {
+
+    @Test
+    public void entryExpiresAtExactlyExpLikeTheParser() {
+        VerifiedJwtCache.Entry entry = new VerifiedJwtCache.Entry(null, "kid", 1000);
+
+        assertThat(entry.isExpired(999)).isFalse();
+        assertThat(entry.isExpired(1000)).isTrue();
+        assertThat(entry.isExpired(1001)).isTrue();
+    }
+}
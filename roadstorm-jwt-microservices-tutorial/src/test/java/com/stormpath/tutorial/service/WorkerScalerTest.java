@@ -0,0 +1,61 @@
+package com.stormpath.tutorial.service;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class WorkerScalerTest {
+
+    private final ThreadPoolExecutor pool = (ThreadPoolExecutor) Executors.newFixedThreadPool(1);
+
+    @After
+    public void shutdown() {
+        pool.shutdownNow();
+    }
+
+    @Test
+    public void growsAndShrinksWithTheAssignedPartitions() {
+        assertResized(3, 12);
+        assertResized(5, 20);
+        assertResized(1, 4);
+    }
+
+    @Test
+    public void staysWithinOneAndTheMaximum() {
+        assertResized(100, 64);
+        assertResized(0, 1);
+    }
+
+    @Test
+    public void grownPoolRunsThatManyTasksAtOnce() throws Exception {
+        SpringBootKafkaConsumer.resize(pool, 2, 4, 64);
+
+        CountDownLatch started = new CountDownLatch(8);
+        CountDownLatch release = new CountDownLatch(1);
+        for (int i = 0; i < 8; i++) {
+            pool.execute(() -> {
+                started.countDown();
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            });
+        }
+
+        assertThat(started.await(10, TimeUnit.SECONDS)).isTrue();
+        release.countDown();
+    }
+
+    private void assertResized(int partitions, int threads) {
+        assertThat(SpringBootKafkaConsumer.resize(pool, partitions, 4, 64)).isEqualTo(threads);
+        assertThat(pool.getCorePoolSize()).isEqualTo(threads);
+        assertThat(pool.getMaximumPoolSize()).isEqualTo(threads);
+    }
+}